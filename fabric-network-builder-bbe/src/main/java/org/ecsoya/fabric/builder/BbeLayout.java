@@ -0,0 +1,80 @@
+package org.ecsoya.fabric.builder;
+
+/**
+ *
+ * The layout of the crypto materials downloaded from BBE, the peers are named
+ * like <code>org1-peer0</code> and the orderers like <code>orderer0</code>.
+ *
+ * @author ecsoya
+ *
+ */
+public class BbeLayout implements CryptoLayout {
+
+	private final PathTemplate peerName = PathTemplate.compile("{org}-{peer}", "org", "peer");
+	private final PathTemplate caHostName = PathTemplate.compile("ca.{org}", "org");
+	private final PathTemplate caCertPath = PathTemplate.compile("{org}/ca/ca.{org}-cert.pem", "org");
+	private final PathTemplate peerTlsCaPath = PathTemplate
+			.compile("{org}/peers/{peer}/msp/tlscacerts/tlsca.{org}-cert.pem", "org", "peer");
+	private final PathTemplate ordererTlsCaPath = PathTemplate
+			.compile("org-orderer/orderers/{orderer}/msp/tlscacerts/tlsca.org-orderer-cert.pem", "orderer");
+	private final PathTemplate adminCertPath = PathTemplate
+			.compile("{org}/users/Admin@{org}/msp/admincerts/Admin@{org}-cert.pem", "org");
+	private final PathTemplate adminKeyPath = PathTemplate.compile("{org}/users/Admin@{org}/msp/keystore", "org");
+
+	@Override
+	public String peerName(String org, String peer) {
+		return peerName.expand(org, peer);
+	}
+
+	@Override
+	public String ordererName(String orderer) {
+		return orderer;
+	}
+
+	@Override
+	public String caHostName(String org) {
+		return caHostName.expand(org);
+	}
+
+	/**
+	 * The CA servers of BBE have no <code>caName</code>.
+	 */
+	@Override
+	public String caName(String org) {
+		return null;
+	}
+
+	/**
+	 * The URL is per peer, and the port is shared by the same peer of all orgs.
+	 */
+	@Override
+	public String peerAddress(Endpoints endpoints, String org, String peer) throws NetworkBuilderException {
+		return endpoints.getUrl(org, peer) + ":" + endpoints.getPort(Endpoints.ANY, peer, 7051);
+	}
+
+	@Override
+	public String caCertPath(String org) {
+		return caCertPath.expand(org);
+	}
+
+	@Override
+	public String peerTlsCaPath(String org, String peer) {
+		return peerTlsCaPath.expand(org, peer);
+	}
+
+	@Override
+	public String ordererTlsCaPath(String orderer) {
+		return ordererTlsCaPath.expand(orderer);
+	}
+
+	@Override
+	public String[] adminCertPaths(String org) {
+		return new String[] { adminCertPath.expand(org) };
+	}
+
+	@Override
+	public String adminKeyPath(String org) {
+		return adminKeyPath.expand(org);
+	}
+
+}
@@ -2,16 +2,19 @@ package org.ecsoya.fabric.builder;
 
 import java.io.File;
 import java.io.IOException;
-import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.EnumSet;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.stream.Collectors;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
 import java.util.stream.IntStream;
 
 import org.hyperledger.fabric.sdk.NetworkConfig;
 
-import com.google.gson.JsonArray;
 import com.google.gson.JsonObject;
 
 /**
@@ -24,6 +27,19 @@ import com.google.gson.JsonObject;
  */
 public class BbeNetworkBuilder {
 
+	/**
+	 * peer0 endorses and sources the events, peer1 serves the chaincode queries,
+	 * peer2 serves the ledger queries and peer3 sources the events. The other
+	 * peers take the defaults of the SDK.
+	 */
+	private static final RolePolicy ROLES = new RolePolicy();
+
+	static {
+		ROLES.defaults().peer("peer0", RolePolicy.Role.values())
+				.peer("peer1", RolePolicy.Role.CHAINCODE_QUERY).peer("peer2", RolePolicy.Role.LEDGER_QUERY)
+				.peer("peer3", RolePolicy.Role.EVENT_SOURCE);
+	}
+
 	private String name;
 
 	private String[] orgs;
@@ -34,9 +50,24 @@ public class BbeNetworkBuilder {
 
 	private boolean usePem = true;
 
-	private Map<String, Map<String, String>> urls = new HashMap<>();
-	private Map<String, Map<String, Integer>> ports = new HashMap<>();
+	private Endpoints endpoints = new Endpoints();
 	private File root;
+	private PemCache pemCache = new LruPemCache();
+	private CryptoIndex crypto;
+	private Set<ProfileFormat> formats = EnumSet.of(ProfileFormat.YAML);
+	private PeerRoles roles = ROLES;
+	private GrpcTuning tuning = GrpcTuning.DEFAULT;
+	private final Map<String, GrpcTuning> nodeTunings = new HashMap<>();
+	private ChannelPolicies policies = ChannelPolicies.defaults();
+	private final Map<String, ChannelPolicies> channelPolicies = new HashMap<>();
+	private final Map<String, String[]> members = new LinkedHashMap<>();
+	private ProfileVariants variants;
+	private int variantCount;
+	private PeerProber prober;
+	private ClientScope scope;
+	private LatencyRoles latencyRoles;
+	private BuildCache buildCache;
+	private BuildListener listener = BuildListener.NONE;
 	private String client;
 
 	public BbeNetworkBuilder() {
@@ -44,471 +75,327 @@ public class BbeNetworkBuilder {
 
 	public BbeNetworkBuilder root(File root) {
 		this.root = root;
+		this.crypto = null;
 		return this;
 	}
 
-	public BbeNetworkBuilder name(String name) {
-		this.name = name;
+	/**
+	 * Share the index of the crypto materials between the builders of the same
+	 * root directory. The index is a snapshot, set a new one or the root again
+	 * to pick up added or removed files. Without an index, the root is scanned
+	 * again by every build.
+	 */
+	public BbeNetworkBuilder cryptoIndex(CryptoIndex crypto) {
+		this.crypto = crypto;
 		return this;
 	}
 
-	public BbeNetworkBuilder usePem(boolean usePem) {
-		this.usePem = usePem;
+	/**
+	 * Share the cache between the builders of all clients, so that the crypto
+	 * files are read only once.
+	 */
+	public BbeNetworkBuilder pemCache(PemCache pemCache) {
+		this.pemCache = pemCache == null ? PemCache.NONE : pemCache;
 		return this;
 	}
 
-	public BbeNetworkBuilder url(String org, String peer, String url) {
-		Map<String, String> value = urls.get(org);
-		if (value == null) {
-			value = new HashMap<>();
-			urls.put(org, value);
-		}
-		if (peer == null) {
-			peer = org;
-		}
-		value.put(peer, url);
+	/**
+	 * The formats written by {@link #generateAll(String[], File, Executor)}, YAML
+	 * by default.
+	 */
+	public BbeNetworkBuilder formats(ProfileFormat... formats) {
+		this.formats = formats.length == 0 ? EnumSet.noneOf(ProfileFormat.class)
+				: EnumSet.copyOf(Arrays.asList(formats));
 		return this;
 	}
 
-	public BbeNetworkBuilder port(String org, String peer, int port) {
-		Map<String, Integer> value = ports.get(org);
-		if (value == null) {
-			value = new HashMap<>();
-			ports.put(org, value);
-		}
-		if (peer == null) {
-			peer = org;
-		}
-		value.put(peer, port);
+	public BbeNetworkBuilder formats(Set<ProfileFormat> formats) {
+		this.formats = formats.isEmpty() ? EnumSet.noneOf(ProfileFormat.class) : EnumSet.copyOf(formats);
 		return this;
 	}
 
-	public BbeNetworkBuilder orgs(String... orgs) {
-		this.orgs = orgs;
+	/**
+	 * The number of the peers of every org, named from peer0, 4 by default.
+	 */
+	public BbeNetworkBuilder peers(int peers) {
+		this.peers = peers;
 		return this;
 	}
 
-	public BbeNetworkBuilder channel(String channel) {
-		this.channel = channel;
+	/**
+	 * The roles of the peers in the channel, such as a {@link RolePolicy}.
+	 */
+	public BbeNetworkBuilder roles(PeerRoles roles) {
+		this.roles = roles == null ? ROLES : roles;
 		return this;
 	}
 
-	public BbeNetworkBuilder client(String client) {
-		this.client = client;
+	/**
+	 * The gRPC options of all the peers and orderers, and the timeouts of the
+	 * client, {@link GrpcTuning#DEFAULT} by default.
+	 */
+	public BbeNetworkBuilder tuning(GrpcTuning tuning) {
+		this.tuning = tuning == null ? GrpcTuning.DEFAULT : tuning;
 		return this;
 	}
 
-	public JsonObject build() throws BbeNetworkBuilderException {
-		if (name == null) {
-			throw new BbeNetworkBuilderException("The network name is not specified.");
-		}
-		if (orgs == null) {
-			throw new BbeNetworkBuilderException("The client organization is not specified.");
-		}
-
-		if (channel == null || channel.equals("")) {
-			throw new BbeNetworkBuilderException("The network channels is not specified.");
-		}
-
-		if (root == null || !root.exists()) {
-			throw new BbeNetworkBuilderException("The network root directory is not existed.");
+	/**
+	 * The gRPC options of a peer or orderer, by its name in the profile.
+	 */
+	public BbeNetworkBuilder tuning(String node, GrpcTuning tuning) {
+		if (tuning == null) {
+			nodeTunings.remove(node);
+		} else {
+			nodeTunings.put(node, tuning);
 		}
-		JsonObject root = new JsonObject();
-
-		root.addProperty("name", name);
-		root.addProperty("version", "1.0.0");
-		root.addProperty("x-type", "hlfv1");
-
-		// client
-		JsonObject client = buildClient();
-		root.add("client", client);
-
-		// channels
-		JsonObject channels = buildChannels();
-		root.add("channels", channels);
-
-		// organizations
-		JsonObject organizations = buildOrganizations();
-		root.add("organizations", organizations);
-
-		// orderers
-		JsonObject orderers = buildOrderers();
-		root.add("orderers", orderers);
-
-		// peers
-		JsonObject peers = buildPeers();
-		root.add("peers", peers);
-
-		// certificateAuthorities
-		JsonObject certificateAuthorities = buildCertificateAuthorities();
-		root.add("certificateAuthorities", certificateAuthorities);
-		return root;
+		return this;
 	}
 
-	private JsonObject buildCertificateAuthorities() throws BbeNetworkBuilderException {
-		JsonObject root = new JsonObject();
+	/**
+	 * The policies of all the channels, {@link ChannelPolicies#defaults()} by
+	 * default.
+	 */
+	public BbeNetworkBuilder policies(ChannelPolicies policies) {
+		this.policies = policies == null ? ChannelPolicies.defaults() : policies;
+		return this;
+	}
 
-		for (String org : orgs) {
-			JsonObject node = buildCertificateAuthorityNode(org);
-			root.add("ca." + org, node);
+	/**
+	 * The policies of a channel instead of the policies of all the channels.
+	 */
+	public BbeNetworkBuilder policies(String channel, ChannelPolicies policies) {
+		if (policies == null) {
+			channelPolicies.remove(channel);
+		} else {
+			channelPolicies.put(channel, policies);
 		}
-
-		return root;
+		return this;
 	}
 
-	private JsonObject buildCertificateAuthorityNode(String org) throws BbeNetworkBuilderException {
-		JsonObject node = new JsonObject();
-
-		node.addProperty("url", "https://" + getUrl(org, null) + ":7054");
+	/**
+	 * Join the peers of the org to the channel, such as <code>peer0</code>. Once
+	 * a member is declared, the channel only lists the declared members instead
+	 * of all the peers of all the orgs.
+	 *
+	 * @param peers the joined peers, or none for all the peers of the org.
+	 */
+	public BbeNetworkBuilder members(String org, String... peers) {
+		members.put(org, peers);
+		return this;
+	}
 
-		JsonObject grpcOptions = new JsonObject();
-		grpcOptions.addProperty("ssl-target-name-override", "ca." + org);
-		grpcOptions.addProperty("allow-insecure", 0);
-		grpcOptions.addProperty("trustServerCertificate", true);
-		grpcOptions.addProperty("hostnameOverride", "ca." + org);
-		node.add("grpcOptions", grpcOptions);
+	/**
+	 * Write <code>count</code> variants of every profile, to spread the instances
+	 * of the applications over the peers. 0 writes one profile per client.
+	 *
+	 * @see ProfileBatch#generateVariants(CompiledTopology, List, ProfileVariants,
+	 *      int, File, Set, Executor)
+	 */
+	public BbeNetworkBuilder variants(int count, ProfileVariants variants) {
+		this.variantCount = count;
+		this.variants = variants == null ? new ProfileVariants() : variants;
+		return this;
+	}
 
-		JsonObject httpOptions = new JsonObject();
-		httpOptions.addProperty("verify", false);
-		node.add("httpOptions", httpOptions);
+	/**
+	 * Probe the peers after building, and assign their roles in the channels by
+	 * the latency from here, instead of the default roles.
+	 */
+	public BbeNetworkBuilder probe(PeerProber prober, LatencyRoles roles) {
+		this.prober = prober;
+		this.latencyRoles = roles == null ? new LatencyRoles() : roles;
+		return this;
+	}
 
-		JsonArray registrar = new JsonArray();
+	/**
+	 * Only generate the profiles whose inputs changed since the last build, the
+	 * cache is saved by every {@link #generateAll(String[], File, Executor)}. The
+	 * cache is not used with {@link #probe(PeerProber, LatencyRoles)}, the
+	 * latencies change between the builds.
+	 */
+	public BbeNetworkBuilder buildCache(BuildCache buildCache) {
+		this.buildCache = buildCache;
+		return this;
+	}
 
-		JsonObject admin = new JsonObject();
-		admin.addProperty("enrollId", "admin");
-		admin.addProperty("enrollSecret", "adminpw");
-		registrar.add(admin);
+	/**
+	 * Prune the profile of every client to its own peers, the endorsing peers
+	 * its endorsement policies need, and the orderers. The scope can not be
+	 * used with {@link #probe(PeerProber, LatencyRoles)}.
+	 */
+	public BbeNetworkBuilder scope(ClientScope scope) {
+		this.scope = scope;
+		return this;
+	}
 
-		node.add("registrar", registrar);
-		JsonObject tlsCACerts = new JsonObject();
-		if (!usePem) {
-			tlsCACerts.addProperty("path", getCaCertPath(org));
-		} else {
-			tlsCACerts.addProperty("pem", getCaCertPem(org));
-		}
-		node.add("tlsCACerts", tlsCACerts);
+	/**
+	 * Observe the phases of the builds, the crypto reads and the written files,
+	 * such as with a {@link BuildMetrics}. Nothing is measured without a
+	 * listener.
+	 */
+	public BbeNetworkBuilder listener(BuildListener listener) {
+		this.listener = listener == null ? BuildListener.NONE : listener;
+		return this;
+	}
 
-		return node;
+	public BbeNetworkBuilder name(String name) {
+		this.name = name;
+		return this;
 	}
 
-	private String getUrl(String org, String peer) throws BbeNetworkBuilderException {
-		Map<String, String> value = urls.get(org);
-		if (value == null || value.isEmpty()) {
-			throw new BbeNetworkBuilderException("Unnable to find URL for org: " + org);
-		}
-		if (peer == null) {
-			peer = "*";
-		}
-		if (value.containsKey(peer)) {
-			return value.get(peer);
-		} else if (value.containsKey(org)) {
-			return value.get(org);
-		} else if (value.containsKey("*")) {
-			return value.get("*");
-		}
-		throw new BbeNetworkBuilderException("Unnable to find URL for peer: " + peer + " in org: " + org);
+	public BbeNetworkBuilder usePem(boolean usePem) {
+		this.usePem = usePem;
+		return this;
 	}
 
-	private Integer getPort(String org, String peer, int defaultValue) {
-		Map<String, Integer> value = ports.get(org);
-		if (value == null) {
-			return defaultValue;
-		}
-		if (peer == null) {
-			peer = org;
-		}
-		if (value.containsKey(peer)) {
-			return value.get(peer);
-		}
-		return defaultValue;
-	}
-
-	private List<String> getPeers() {
-		return IntStream.range(0, peers).mapToObj(i -> "peer" + i).collect(Collectors.toList());
-	}
-
-	private JsonObject buildPeers() throws BbeNetworkBuilderException {
-		JsonObject root = new JsonObject();
-
-		for (String org : orgs) {
-			for (String p : getPeers()) {
-//				String name = p + "." + org;
-				String name = org + "-" + p;
-				JsonObject node = new JsonObject();
-				node.addProperty("url", "grpcs://" + getUrl(org, p) + ":" + getPort("*", p, 7051));
-//				node.addProperty("eventUrl", "grpcs://" + getUrl(o, "*") + ":" + getPort("*", "event_" + p, 7053));
-
-				JsonObject grpcOptions = new JsonObject();
-				grpcOptions.addProperty("ssl-target-name-override", name);
-				grpcOptions.addProperty("grpc.http2.keepalive_time", 15);
-				grpcOptions.addProperty("request-timeout", 120001);
-//				grpcOptions.addProperty("grpc.NettyChannelBuilderOption.maxInboundMessageSize", 9000000);
-				grpcOptions.addProperty("hostnameOverride", name);
-				node.add("grpcOptions", grpcOptions);
-
-				JsonObject tlsCACerts = new JsonObject();
-				if (!usePem) {
-					tlsCACerts.addProperty("path", getPeerCertPath(org, p));
-				} else {
-					tlsCACerts.addProperty("pem", getPeerCertPem(org, p));
-				}
-				node.add("tlsCACerts", tlsCACerts);
-				root.add(name, node);
-			}
-		}
-		return root;
-	}
-
-	private JsonObject buildOrderers() throws BbeNetworkBuilderException {
-		JsonObject node = new JsonObject();
-		List<String> allOrderers = getOrderers();
-//		allOrderers.add(0, ordererOrg);
-		for (String org : allOrderers) {
-			JsonObject orgNode = new JsonObject();
-			orgNode.addProperty("url", "grpcs://" + getUrl(org, null) + ":7050");
-
-			JsonObject grpcOptions = new JsonObject();
-			grpcOptions.addProperty("grpc-max-send-message-length", 15);
-			grpcOptions.addProperty("grpc.keepalive_time_ms", 360000);
-			grpcOptions.addProperty("grpc.keepalive_timeout_ms", 180000);
-			grpcOptions.addProperty("hostnameOverride", org);
-			orgNode.add("grpcOptions", grpcOptions);
-
-			JsonObject tlsCACerts = new JsonObject();
-			if (!usePem) {
-				tlsCACerts.addProperty("path", getOrdererCertPath(org));
-			} else {
-				tlsCACerts.addProperty("pem", getOrdererCertPem(org));
-			}
-			orgNode.add("tlsCACerts", tlsCACerts);
-			node.add(org, orgNode);
-		}
-		return node;
+	public BbeNetworkBuilder url(String org, String peer, String url) {
+		endpoints.url(org, peer, url);
+		return this;
 	}
 
-	private JsonObject buildOrganizations() throws BbeNetworkBuilderException {
-		JsonObject node = new JsonObject();
-//		JsonObject ordererOrgNode = buildOrgNode(ordererOrg, 0);
-//		node.add(ordererOrg, ordererOrgNode);
+	public BbeNetworkBuilder port(String org, String peer, int port) {
+		endpoints.port(org, peer, port);
+		return this;
+	}
 
-		for (int i = 0; i < orgs.length; i++) {
-			String org = orgs[i];
-			JsonObject child = buildOrgNode(org, peers);
-			node.add(org, child);
-		}
-		return node;
+	public BbeNetworkBuilder orgs(String... orgs) {
+		this.orgs = orgs;
+		return this;
 	}
 
-	private JsonObject buildOrgNode(String org, int numOfPeers) throws BbeNetworkBuilderException {
-		JsonObject ordererOrgNode = new JsonObject();
-		ordererOrgNode.addProperty("mspid", org + "MSP");
+	public BbeNetworkBuilder channel(String channel) {
+		this.channel = channel;
+		return this;
+	}
 
-		JsonArray certificateAuthorities = new JsonArray();
-		certificateAuthorities.add("ca." + org);
-		ordererOrgNode.add("certificateAuthorities", certificateAuthorities);
+	public BbeNetworkBuilder client(String client) {
+		this.client = client;
+		return this;
+	}
 
-		JsonObject adminPrivateKey = new JsonObject();
-		if (!usePem) {
-			adminPrivateKey.addProperty("path", getAdminPrivateKeyPath(org));
-		} else {
-			adminPrivateKey.addProperty("pem", getAdminPrivateKeyPem(org));
+	public JsonObject build() throws BbeNetworkBuilderException {
+		if (scope != null) {
+			return compile(pemCache).profile(client);
 		}
-		ordererOrgNode.add("adminPrivateKey", adminPrivateKey);
-
-		JsonObject signedCert = new JsonObject();
-		if (!usePem) {
-			signedCert.addProperty("path", getAdminCertPath(org));
-		} else {
-			signedCert.addProperty("pem", getAdminCertPem(org));
+		return build(client, pemCache);
+	}
+
+	/**
+	 * Compile the network for all clients, the profile of every client is a
+	 * cheap projection of the compiled topology.
+	 */
+	public CompiledTopology compile() throws BbeNetworkBuilderException {
+		return compile(pemCache);
+	}
+
+	/**
+	 * Compile the network once, and write the profiles of all clients
+	 * concurrently, in all the {@link #formats(ProfileFormat...) formats}.
+	 *
+	 * @see ProfileBatch#generateAll(CompiledTopology, List, File, Set, Executor)
+	 */
+	public List<File> generateAll(String[] clients, File outputDir, Executor executor)
+			throws BbeNetworkBuilderException, IOException {
+		if (clients == null || clients.length == 0) {
+			throw new BbeNetworkBuilderException("The clients are not specified.");
 		}
-		ordererOrgNode.add("signedCert", signedCert);
-		if (numOfPeers > 0) {
-			JsonArray peers = new JsonArray();
-			for (int i = 0; i < numOfPeers; i++) {
-//				peers.add("peer" + i + "." + org);
-				peers.add(org + "-" + "peer" + i);
-			}
-			ordererOrgNode.add("peers", peers);
+		if (buildCache == null || prober != null) {
+			return generate(compile(), Arrays.asList(clients), outputDir, executor);
 		}
-		return ordererOrgNode;
-	}
-
-	private String getCaCertPath(String org) throws BbeNetworkBuilderException {
-		return org + "/ca/ca." + org + "-cert.pem";
-	}
-
-	private String getCaCertPem(String org) throws BbeNetworkBuilderException {
-		File file = new File(root, getCaCertPath(org));
 		try {
-			return new String(Files.readAllBytes(file.toPath()));
-		} catch (IOException e) {
-//			throw new NetworkBuilderException(e);
-			return null;
+			return buildCache.generate(this::compile, pemCache,
+					Arrays.asList(clients), outputDir, formats + " " + variantCount + " " + variants,
+					(topology, stale) -> generate(topology, stale, outputDir, executor));
+		} catch (BbeNetworkBuilderException e) {
+			throw e;
+		} catch (NetworkBuilderException e) {
+			throw new BbeNetworkBuilderException(e.getMessage(), e.getCause());
 		}
 	}
 
-	private String getOrdererCertPem(String org) throws BbeNetworkBuilderException {
-		File file = new File(root, getOrdererCertPath(org));
-		try {
-			return new String(Files.readAllBytes(file.toPath()));
-		} catch (IOException e) {
-			throw new BbeNetworkBuilderException(e);
+	private List<File> generate(CompiledTopology topology, List<String> clients, File outputDir, Executor executor)
+			throws IOException {
+		if (variantCount > 0) {
+			return ProfileBatch.generateVariants(topology, clients, variants, variantCount, outputDir, formats,
+					executor, listener);
 		}
+		return ProfileBatch.generateAll(topology, clients, outputDir, formats, executor, listener);
 	}
 
-	private String getOrdererCertPath(String org) {
-		return "org-orderer/orderers/" + org + "/msp/tlscacerts/tlsca.org-orderer-cert.pem";
+	public List<File> generateAll(String[] clients, File outputDir) throws BbeNetworkBuilderException, IOException {
+		return generateAll(clients, outputDir, ForkJoinPool.commonPool());
 	}
 
-	private String getPeerCertPem(String org, String peer) throws BbeNetworkBuilderException {
-		File file = new File(root, getPeerCertPath(org, peer));
+	private JsonObject build(String clientOrg, PemCache pemCache) throws BbeNetworkBuilderException {
+		TopologyEngine engine = engine(pemCache);
 		try {
-			return new String(Files.readAllBytes(file.toPath()));
-		} catch (IOException e) {
-			throw new BbeNetworkBuilderException(e);
+			JsonObject profile = engine.build(clientOrg);
+			if (prober != null) {
+				long start = System.nanoTime();
+				latencyRoles.apply(profile, prober);
+				listener.phase(BuildListener.Phase.PROBE, System.nanoTime() - start);
+			}
+			return profile;
+		} catch (NetworkBuilderException e) {
+			throw new BbeNetworkBuilderException(e.getMessage(), e.getCause());
 		}
 	}
 
-	private String getPeerCertPath(String org, String peer) {
-		return org + "/peers/" + peer + "/msp/tlscacerts/tlsca." + org + "-cert.pem";
-	}
-
-	private String getAdminCertPem(String org) throws BbeNetworkBuilderException {
-		File file = new File(root, getAdminCertPath(org));
-
+	/**
+	 * Compile the model of the network, or the JSON tree if the roles are
+	 * assigned by the probed latencies.
+	 */
+	private CompiledTopology compile(PemCache pemCache) throws BbeNetworkBuilderException {
+		if (prober != null) {
+			if (scope != null) {
+				throw new BbeNetworkBuilderException("The probed profiles can not be scoped.");
+			}
+			return new CompiledTopology(build(null, pemCache));
+		}
+		TopologyEngine engine = engine(pemCache);
 		try {
-			return new String(Files.readAllBytes(file.toPath()));
-		} catch (IOException e) {
-//			throw new NetworkBuilderException(e);
-			return null;
+			Profile profile = engine.model(null);
+			return new CompiledTopology(profile).scope(scope);
+		} catch (NetworkBuilderException e) {
+			throw new BbeNetworkBuilderException(e.getMessage(), e.getCause());
 		}
 	}
 
-	private String getAdminCertPath(String org) {
-		return org + "/users/Admin@" + org + "/msp/admincerts/Admin@" + org + "-cert.pem";
-	}
-
-	private String getAdminPrivateKeyPem(String org) throws BbeNetworkBuilderException {
-		File dir = new File(root, getAdminPrivateKeyPath(org));
-		if (!dir.exists()) {
-			return null;
-//			throw new NetworkBuilderException("Can not find private key for " + org);
+	private TopologyEngine engine(PemCache pemCache) throws BbeNetworkBuilderException {
+		if (name == null) {
+			throw new BbeNetworkBuilderException("The network name is not specified.");
 		}
-		File[] listFiles = dir.listFiles();
-		if (listFiles.length == 0) {
-			return null;
+		if (orgs == null) {
+			throw new BbeNetworkBuilderException("The client organization is not specified.");
 		}
-		File keyFile = listFiles[0];
-		try {
-			return new String(Files.readAllBytes(keyFile.toPath()));
-		} catch (IOException e) {
-			throw new BbeNetworkBuilderException(e);
+
+		if (channel == null || channel.equals("")) {
+			throw new BbeNetworkBuilderException("The network channels is not specified.");
 		}
-	}
 
-	private String getAdminPrivateKeyPath(String org) {
-		return org + "/users/Admin@" + org + "/msp/keystore";
-	}
+		if (peers < 1) {
+			throw new BbeNetworkBuilderException("The network peers is not specified.");
+		}
 
-	private List<String> getOrderers() {
-		return IntStream.range(0, orgs.length).mapToObj(i -> "orderer" + i).collect(Collectors.toList());
+		if (root == null || !root.exists()) {
+			throw new BbeNetworkBuilderException("The network root directory is not existed.");
+		}
+		TopologyEngine engine = new TopologyEngine(new BbeLayout()).name(name).orgs(orgs).peers(getPeers())
+				.orderers(getOrderers()).channels(channel).endpoints(endpoints).root(root).pemCache(pemCache)
+				.cryptoIndex(crypto).usePem(usePem).roles(roles).tuning(tuning).listener(listener);
+		nodeTunings.forEach(engine::tuning);
+		engine.policies(policies);
+		channelPolicies.forEach(engine::policies);
+		members.forEach((org, joined) -> engine.members(channel, org, joined));
+		return engine;
 	}
 
-	private JsonObject buildChannels() {
-		JsonObject channelsNode = new JsonObject();
-
-		JsonObject node = new JsonObject();
-		// orderers
-		JsonArray orderers = new JsonArray();
-//			orderers.add(ordererOrg );
-		for (String orderer : getOrderers()) {
-			orderers.add(orderer);
-		}
-		node.add("orderers", orderers);
-
-		// peers
-		JsonObject peersNode = new JsonObject();
-		for (String org : orgs) {
-			for (String peer : getPeers()) {
-
-				JsonObject o = new JsonObject();
-				if (peer.equals("peer0")) {
-					o.addProperty("endorsingPeer", true);
-					o.addProperty("chaincodeQuery", true);
-					o.addProperty("ledgerQuery", true);
-					o.addProperty("eventSource", true);
-				} else if (peer.equals("peer1")) {
-					o.addProperty("endorsingPeer", false);
-					o.addProperty("chaincodeQuery", true);
-					o.addProperty("ledgerQuery", false);
-					o.addProperty("eventSource", false);
-				} else if (peer.equals("peer2")) {
-					o.addProperty("endorsingPeer", false);
-					o.addProperty("chaincodeQuery", false);
-					o.addProperty("ledgerQuery", true);
-					o.addProperty("eventSource", false);
-				} else if (peer.equals("peer3")) {
-					o.addProperty("endorsingPeer", false);
-					o.addProperty("chaincodeQuery", false);
-					o.addProperty("ledgerQuery", false);
-					o.addProperty("eventSource", true);
-				}
-//				peersNode.add(peer + "." + org, o);
-				peersNode.add(org + "-" + peer, o);
-			}
+	private String[] getPeers() {
+		return IntStream.range(0, peers).mapToObj(i -> "peer" + i).toArray(String[]::new);
+	}
 
-		}
-		node.add("peers", peersNode);
-
-		// policies
-		JsonObject policies = new JsonObject();
-		JsonObject queryChannelConfig = new JsonObject();
-		queryChannelConfig.addProperty("minResponses", 1);
-		queryChannelConfig.addProperty("maxTargets", 1);
-
-		JsonObject retryOpts = new JsonObject();
-		retryOpts.addProperty("attempts", 5);
-		retryOpts.addProperty("initialBackoff", "500ms");
-		retryOpts.addProperty("maxBackoff", "5s");
-		retryOpts.addProperty("backoffFactor", "2.0");
-		queryChannelConfig.add("retryOpts", retryOpts);
-		node.add("policies", policies);
-		channelsNode.add(channel, node);
-
-		return channelsNode;
-	}
-
-	private JsonObject buildClient() {
-		JsonObject client = new JsonObject();
-
-		JsonObject logging = new JsonObject();
-		logging.addProperty("level", "debug");
-		client.add("logging", logging);
-
-		JsonObject connection = new JsonObject();
-		JsonObject timeout = new JsonObject();
-		JsonObject peer = new JsonObject();
-		peer.addProperty("endorser", 30000);
-		peer.addProperty("eventHub", 30000);
-		peer.addProperty("eventReg", 30000);
-		timeout.add("peer", peer);
-		timeout.addProperty("orderer", 30000);
-
-		connection.add("timeout", timeout);
-		client.add("connection", connection);
-
-		client.addProperty("organization", this.client);
-
-//		JsonObject credentialStore = new JsonObject();
-//		credentialStore.addProperty("path", "tmp/hfc-kvs");
-//
-//		JsonObject cryptoStore = new JsonObject();
-//		cryptoStore.addProperty("path", "tmp/hfc-cvs");
-//		credentialStore.add("cryptoStore", cryptoStore);
-//
-//		credentialStore.addProperty("wallet", "cellshop");
-//		client.add("credentialStore", credentialStore);
-		return client;
+	private String[] getOrderers() {
+		return IntStream.range(0, orgs.length).mapToObj(i -> "orderer" + i).toArray(String[]::new);
 	}
 
 }
@@ -1,6 +1,6 @@
 package org.ecsoya.fabric.builder;
 
-public class BbeNetworkBuilderException extends Exception {
+public class BbeNetworkBuilderException extends NetworkBuilderException {
 
 	/**
 	 * 
@@ -0,0 +1,139 @@
+package org.ecsoya.fabric.builder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.hyperledger.fabric.sdk.NetworkConfig;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.gson.JsonObject;
+
+/**
+ *
+ * Benchmarks of {@link BbeNetworkBuilder}, with the 4 peers of every BBE org,
+ * or more to measure the {@link RolePolicy} of large orgs.
+ *
+ * @author ecsoya
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BbeNetworkBuilderBenchmark {
+
+	@Param({ "2", "10", "50", "200", "500" })
+	public int orgs;
+
+	@Param({ "4", "20" })
+	public int peers;
+
+	private Path root;
+
+	private String[] names;
+
+	private CryptoIndex crypto;
+
+	private JsonObject profile;
+
+	private File yamlFile;
+
+	private File jsonFile;
+
+	@Setup(Level.Trial)
+	public void setup() throws Exception {
+		names = NetworkBuilderBenchmark.names("org", 1, orgs);
+
+		root = Files.createTempDirectory("fabric-network-builder-bbe-");
+		new CryptoFixtures().bbe(root.resolve("bbe"), orgs, peers);
+
+		crypto = CryptoIndex.scan(root.resolve("bbe"));
+		profile = builder().build();
+		yamlFile = root.resolve("connection.yml").toFile();
+		Profiles.writeYaml(profile, yamlFile);
+		jsonFile = root.resolve("connection.json").toFile();
+		Profiles.writeJson(profile, jsonFile);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		CryptoFixtures.delete(root);
+	}
+
+	@Benchmark
+	public JsonObject build() throws BbeNetworkBuilderException {
+		return builder().build();
+	}
+
+	/**
+	 * Build with a shared index, the crypto tree is not scanned again.
+	 */
+	@Benchmark
+	public JsonObject buildIndexed() throws BbeNetworkBuilderException {
+		return builder().cryptoIndex(crypto).build();
+	}
+
+	@Benchmark
+	public CompiledTopology compile() throws BbeNetworkBuilderException {
+		return builder().compile();
+	}
+
+	@Benchmark
+	public long writeYaml() throws IOException {
+		NetworkBuilderBenchmark.CountingWriter out = new NetworkBuilderBenchmark.CountingWriter();
+		Profiles.writeYaml(profile, out);
+		return out.count;
+	}
+
+	@Benchmark
+	public long writeJson() throws IOException {
+		NetworkBuilderBenchmark.CountingWriter out = new NetworkBuilderBenchmark.CountingWriter();
+		Profiles.writeJson(profile, out);
+		return out.count;
+	}
+
+	@Benchmark
+	public NetworkConfig loadYaml() throws Exception {
+		return NetworkConfig.fromYamlFile(yamlFile);
+	}
+
+	@Benchmark
+	public NetworkConfig loadJson() throws Exception {
+		return NetworkConfig.fromJsonFile(jsonFile);
+	}
+
+	/**
+	 * Load the built profile without any file or text in between.
+	 */
+	@Benchmark
+	public NetworkConfig loadInMemory() throws Exception {
+		return NetworkConfigs.toNetworkConfig(profile);
+	}
+
+	private BbeNetworkBuilder builder() {
+		BbeNetworkBuilder builder = new BbeNetworkBuilder().name("benchmark-network").client(names[0]).orgs(names)
+				.peers(peers).channel("common").root(root.resolve("bbe").toFile());
+		for (int i = 0; i < orgs; i++) {
+			String address = "10.0." + (i / 250 + 1) + "." + (i % 250 + 1);
+			builder.url(names[i], "*", address).url("orderer" + i, null, address);
+		}
+		return builder;
+	}
+}
@@ -0,0 +1,211 @@
+package org.ecsoya.fabric.builder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.Signature;
+import java.security.spec.ECGenParameterSpec;
+import java.text.SimpleDateFormat;
+import java.util.Base64;
+import java.util.Date;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+/**
+ *
+ * Generate synthetic crypto materials for the benchmarks, in the layout of
+ * <code>cryptogen</code> or BBE.
+ *
+ * The certificates are self-signed EC certificates and the keys are PKCS#8 EC
+ * private keys, so the generated profiles can be loaded by the SDK.
+ *
+ * @author ecsoya
+ *
+ */
+public final class CryptoFixtures {
+
+	private static final byte[] ECDSA_WITH_SHA256 = { 0x06, 0x08, 0x2a, (byte) 0x86, 0x48, (byte) 0xce, 0x3d, 0x04,
+			0x03, 0x02 };
+
+	private static final byte[] COMMON_NAME = { 0x06, 0x03, 0x55, 0x04, 0x03 };
+
+	private final KeyPairGenerator generator;
+
+	private long serial = 1;
+
+	public CryptoFixtures() throws GeneralSecurityException {
+		generator = KeyPairGenerator.getInstance("EC");
+		generator.initialize(new ECGenParameterSpec("secp256r1"));
+	}
+
+	/**
+	 * Generate the <code>crypto-config</code> of <code>cryptogen</code>, with
+	 * orgs named org1, org2... and peers named peer0, peer1...
+	 */
+	public void cryptogen(Path root, String domain, int orgs, int peers, String... orderers)
+			throws IOException, GeneralSecurityException {
+		String ordererTlsCa = certificate("tlsca." + domain, generator.generateKeyPair());
+		for (String orderer : orderers) {
+			write(root.resolve("ordererOrganizations/" + domain + "/orderers/" + orderer + "." + domain
+					+ "/msp/tlscacerts/tlsca." + domain + "-cert.pem"), ordererTlsCa);
+		}
+		for (int i = 1; i <= orgs; i++) {
+			String org = "org" + i + "." + domain;
+			Path dir = root.resolve("peerOrganizations/" + org);
+			write(dir.resolve("ca/ca." + org + "-cert.pem"), certificate("ca." + org, generator.generateKeyPair()));
+
+			String tlsCa = certificate("tlsca." + org, generator.generateKeyPair());
+			for (int p = 0; p < peers; p++) {
+				write(dir.resolve("peers/peer" + p + "." + org + "/msp/tlscacerts/tlsca." + org + "-cert.pem"), tlsCa);
+			}
+
+			KeyPair admin = generator.generateKeyPair();
+			String cert = certificate("Admin@" + org, admin);
+			Path msp = dir.resolve("users/Admin@" + org + "/msp");
+			write(msp.resolve("signcerts/Admin@" + org + "-cert.pem"), cert);
+			write(msp.resolve("admincerts/Admin@" + org + "-cert.pem"), cert);
+			write(msp.resolve("keystore/" + Long.toHexString(serial) + "_sk"), privateKey(admin));
+		}
+	}
+
+	/**
+	 * Generate the crypto materials downloaded from BBE, with orgs named org1,
+	 * org2... peers named peer0, peer1... and orderers named orderer0,
+	 * orderer1...
+	 */
+	public void bbe(Path root, int orgs, int peers) throws IOException, GeneralSecurityException {
+		String ordererTlsCa = certificate("tlsca.org-orderer", generator.generateKeyPair());
+		for (int i = 0; i < orgs; i++) {
+			write(root.resolve("org-orderer/orderers/orderer" + i + "/msp/tlscacerts/tlsca.org-orderer-cert.pem"),
+					ordererTlsCa);
+		}
+		for (int i = 1; i <= orgs; i++) {
+			String org = "org" + i;
+			Path dir = root.resolve(org);
+			write(dir.resolve("ca/ca." + org + "-cert.pem"), certificate("ca." + org, generator.generateKeyPair()));
+
+			String tlsCa = certificate("tlsca." + org, generator.generateKeyPair());
+			for (int p = 0; p < peers; p++) {
+				write(dir.resolve("peers/peer" + p + "/msp/tlscacerts/tlsca." + org + "-cert.pem"), tlsCa);
+			}
+
+			KeyPair admin = generator.generateKeyPair();
+			Path msp = dir.resolve("users/Admin@" + org + "/msp");
+			write(msp.resolve("admincerts/Admin@" + org + "-cert.pem"), certificate("Admin@" + org, admin));
+			write(msp.resolve("keystore/" + Long.toHexString(serial) + "_sk"), privateKey(admin));
+		}
+	}
+
+	public static void delete(Path root) throws IOException {
+		if (!Files.exists(root)) {
+			return;
+		}
+		Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+				Files.delete(file);
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+				Files.delete(dir);
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+
+	private static void write(Path file, String pem) throws IOException {
+		Files.createDirectories(file.getParent());
+		Files.write(file, pem.getBytes(StandardCharsets.US_ASCII));
+	}
+
+	/**
+	 * A minimal self-signed X.509 v3 certificate.
+	 */
+	private String certificate(String commonName, KeyPair keyPair) throws GeneralSecurityException {
+		byte[] name = sequence(set(sequence(COMMON_NAME, tlv(0x0c, commonName.getBytes(StandardCharsets.UTF_8)))));
+		long now = System.currentTimeMillis();
+		byte[] validity = sequence(time(new Date(now - TimeUnit.DAYS.toMillis(1))),
+				time(new Date(now + TimeUnit.DAYS.toMillis(3650))));
+		byte[] algorithm = sequence(ECDSA_WITH_SHA256);
+		byte[] tbs = sequence(tlv(0xa0, integer(2)), integer(serial++), algorithm, name, validity, name,
+				keyPair.getPublic().getEncoded());
+
+		Signature signature = Signature.getInstance("SHA256withECDSA");
+		signature.initSign(keyPair.getPrivate());
+		signature.update(tbs);
+		byte[] signed = signature.sign();
+		byte[] bits = new byte[signed.length + 1];
+		System.arraycopy(signed, 0, bits, 1, signed.length);
+
+		return pem("CERTIFICATE", sequence(tbs, algorithm, tlv(0x03, bits)));
+	}
+
+	private static String privateKey(KeyPair keyPair) {
+		return pem("PRIVATE KEY", keyPair.getPrivate().getEncoded());
+	}
+
+	private static String pem(String type, byte[] der) {
+		String body = Base64.getMimeEncoder(64, new byte[] { '\n' }).encodeToString(der);
+		return "-----BEGIN " + type + "-----\n" + body + "\n-----END " + type + "-----\n";
+	}
+
+	private static byte[] time(Date date) {
+		SimpleDateFormat format = new SimpleDateFormat("yyMMddHHmmss'Z'");
+		format.setTimeZone(TimeZone.getTimeZone("UTC"));
+		return tlv(0x17, format.format(date).getBytes(StandardCharsets.US_ASCII));
+	}
+
+	private static byte[] integer(long value) {
+		return tlv(0x02, BigInteger.valueOf(value).toByteArray());
+	}
+
+	private static byte[] sequence(byte[]... children) {
+		return tlv(0x30, concat(children));
+	}
+
+	private static byte[] set(byte[]... children) {
+		return tlv(0x31, concat(children));
+	}
+
+	private static byte[] concat(byte[]... children) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		for (byte[] child : children) {
+			out.write(child, 0, child.length);
+		}
+		return out.toByteArray();
+	}
+
+	private static byte[] tlv(int tag, byte[] value) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream(value.length + 6);
+		out.write(tag);
+		int length = value.length;
+		if (length < 0x80) {
+			out.write(length);
+		} else if (length < 0x100) {
+			out.write(0x81);
+			out.write(length);
+		} else if (length < 0x10000) {
+			out.write(0x82);
+			out.write(length >> 8);
+			out.write(length);
+		} else {
+			out.write(0x83);
+			out.write(length >> 16);
+			out.write(length >> 8);
+			out.write(length);
+		}
+		out.write(value, 0, length);
+		return out.toByteArray();
+	}
+}
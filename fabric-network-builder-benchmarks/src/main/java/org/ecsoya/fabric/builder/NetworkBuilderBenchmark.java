@@ -0,0 +1,243 @@
+package org.ecsoya.fabric.builder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.hyperledger.fabric.sdk.NetworkConfig;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.gson.JsonObject;
+
+/**
+ *
+ * Benchmarks of {@link NetworkBuilder}, from building the profile to loading
+ * it by {@link NetworkConfig}.
+ *
+ * The topology is <code>{orgs}x{peers}</code>, the crypto materials are
+ * generated into a temporary directory for every trial.
+ *
+ * @author ecsoya
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class NetworkBuilderBenchmark {
+
+	private static final String DOMAIN = "example.com";
+
+	@Param({ "2x2", "10x4", "50x10", "200x10", "500x20" })
+	public String topology;
+
+	private Path root;
+
+	private String[] orgs;
+
+	private String[] peers;
+
+	private CryptoIndex crypto;
+
+	private JsonObject profile;
+
+	private CompiledTopology compiled;
+
+	private File yamlFile;
+
+	private File jsonFile;
+
+	private File anchoredYamlFile;
+
+	@Setup(Level.Trial)
+	public void setup() throws Exception {
+		String[] size = topology.split("x");
+		orgs = names("org", 1, Integer.parseInt(size[0]));
+		peers = names("peer", 0, Integer.parseInt(size[1]));
+
+		root = Files.createTempDirectory("fabric-network-builder-");
+		new CryptoFixtures().cryptogen(root.resolve("crypto-config"), DOMAIN, orgs.length, peers.length, "orderer");
+
+		crypto = CryptoIndex.scan(root.resolve("crypto-config"));
+		profile = builder().build();
+		compiled = builder().cryptoIndex(crypto).compile();
+		yamlFile = root.resolve("connection.yml").toFile();
+		Profiles.writeYaml(profile, yamlFile);
+		jsonFile = root.resolve("connection.json").toFile();
+		Profiles.writeJson(profile, jsonFile);
+		anchoredYamlFile = root.resolve("connection-anchors.yml").toFile();
+		try (Writer out = Files.newBufferedWriter(anchoredYamlFile.toPath())) {
+			Profiles.writeYaml(profile, out, true);
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		CryptoFixtures.delete(root);
+	}
+
+	@Benchmark
+	public JsonObject build() throws NetworkBuilderException {
+		return builder().build();
+	}
+
+	/**
+	 * Build with a shared index, the crypto tree is not scanned again.
+	 */
+	@Benchmark
+	public JsonObject buildIndexed() throws NetworkBuilderException {
+		return builder().cryptoIndex(crypto).build();
+	}
+
+	@Benchmark
+	public CompiledTopology compile() throws NetworkBuilderException {
+		return builder().compile();
+	}
+
+	/**
+	 * Compile the model with a shared index, without any JSON tree.
+	 */
+	@Benchmark
+	public CompiledTopology compileIndexed() throws NetworkBuilderException {
+		return builder().cryptoIndex(crypto).compile();
+	}
+
+	@Benchmark
+	public long writeYaml() throws IOException {
+		CountingWriter out = new CountingWriter();
+		Profiles.writeYaml(profile, out);
+		return out.count;
+	}
+
+	@Benchmark
+	public long writeYamlWithAnchors() throws IOException {
+		CountingWriter out = new CountingWriter();
+		Profiles.writeYaml(profile, out, true);
+		return out.count;
+	}
+
+	@Benchmark
+	public long writeJson() throws IOException {
+		CountingWriter out = new CountingWriter();
+		Profiles.writeJson(profile, out);
+		return out.count;
+	}
+
+	/**
+	 * Write the profile of a client straight from the compiled model, compare
+	 * with {@link #writeYaml()} with <code>-prof gc</code>.
+	 */
+	@Benchmark
+	public long writeCompiledYaml() throws IOException {
+		return writeCompiled(ProfileFormat.YAML);
+	}
+
+	/**
+	 * Write the profile of a client straight from the compiled model, compare
+	 * with {@link #writeJson()} with <code>-prof gc</code>.
+	 */
+	@Benchmark
+	public long writeCompiledJson() throws IOException {
+		return writeCompiled(ProfileFormat.JSON);
+	}
+
+	private long writeCompiled(ProfileFormat format) throws IOException {
+		CountingWriter out = new CountingWriter();
+		ProfileWriter writer = format.newWriter(out);
+		compiled.write(orgs[0], writer);
+		writer.flush();
+		return out.count;
+	}
+
+	@Benchmark
+	public NetworkConfig loadYaml() throws Exception {
+		return NetworkConfig.fromYamlFile(yamlFile);
+	}
+
+	@Benchmark
+	public NetworkConfig loadYamlWithAnchors() throws Exception {
+		return NetworkConfig.fromYamlFile(anchoredYamlFile);
+	}
+
+	@Benchmark
+	public NetworkConfig loadJson() throws Exception {
+		return NetworkConfig.fromJsonFile(jsonFile);
+	}
+
+	/**
+	 * Load the built profile without any file or text in between.
+	 */
+	@Benchmark
+	public NetworkConfig loadInMemory() throws Exception {
+		return NetworkConfigs.toNetworkConfig(profile);
+	}
+
+	private NetworkBuilder builder() {
+		NetworkBuilder builder = new NetworkBuilder(DOMAIN).name("benchmark-network").clientOrg(orgs[0])
+				.ordererOrg("orderer").orderers("orderer").peerOrgs(orgs).peers(peers).channels("common")
+				.root(root.resolve("crypto-config").toFile()).url("orderer", "*", "10.0.0.1");
+		for (int i = 0; i < orgs.length; i++) {
+			builder.url(orgs[i], "*", "10.0." + (i / 250 + 1) + "." + (i % 250 + 1));
+			for (int p = 0; p < peers.length; p++) {
+				builder.port(orgs[i], peers[p], 7051 + p * 1000);
+			}
+		}
+		return builder;
+	}
+
+	static String[] names(String prefix, int first, int count) {
+		String[] names = new String[count];
+		for (int i = 0; i < count; i++) {
+			names[i] = prefix + (first + i);
+		}
+		return names;
+	}
+
+	/**
+	 * Discard the output, only count the written chars.
+	 */
+	static class CountingWriter extends Writer {
+
+		long count;
+
+		@Override
+		public void write(int c) {
+			count++;
+		}
+
+		@Override
+		public void write(String str, int off, int len) {
+			count += len;
+		}
+
+		@Override
+		public void write(char[] cbuf, int off, int len) {
+			count += len;
+		}
+
+		@Override
+		public void flush() {
+		}
+
+		@Override
+		public void close() {
+		}
+	}
+}
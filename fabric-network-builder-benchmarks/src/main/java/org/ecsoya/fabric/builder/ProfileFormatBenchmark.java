@@ -0,0 +1,103 @@
+package org.ecsoya.fabric.builder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.hyperledger.fabric.sdk.NetworkConfig;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.gson.JsonObject;
+
+/**
+ *
+ * Compare the time of the SDK to load a profile of every {@link ProfileFormat},
+ * at several sizes of the network.
+ *
+ * @author ecsoya
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ProfileFormatBenchmark {
+
+	@Param({ "2x2", "10x4", "50x10", "200x10" })
+	public String topology;
+
+	@Param({ "YAML", "JSON", "COMPACT_JSON" })
+	public ProfileFormat format;
+
+	private Path root;
+
+	private JsonObject profile;
+
+	private File file;
+
+	@Setup(Level.Trial)
+	public void setup() throws Exception {
+		String[] size = topology.split("x");
+		String[] orgs = NetworkBuilderBenchmark.names("org", 1, Integer.parseInt(size[0]));
+		String[] peers = NetworkBuilderBenchmark.names("peer", 0, Integer.parseInt(size[1]));
+
+		root = Files.createTempDirectory("fabric-network-builder-format-");
+		new CryptoFixtures().cryptogen(root.resolve("crypto-config"), "example.com", orgs.length, peers.length,
+				"orderer");
+
+		NetworkBuilder builder = new NetworkBuilder("example.com").name("benchmark-network").clientOrg(orgs[0])
+				.ordererOrg("orderer").orderers("orderer").peerOrgs(orgs).peers(peers).channels("common")
+				.root(root.resolve("crypto-config").toFile()).url("orderer", "*", "10.0.0.1");
+		for (String org : orgs) {
+			builder.url(org, "*", "10.0.0.2");
+		}
+		profile = builder.build();
+
+		file = root.resolve(format.getFileName(orgs[0])).toFile();
+		try (Writer out = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8)) {
+			ProfileWriter writer = format.newWriter(out);
+			Profiles.write(profile, writer);
+			writer.flush();
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		CryptoFixtures.delete(root);
+	}
+
+	@Benchmark
+	public long write() throws IOException {
+		NetworkBuilderBenchmark.CountingWriter out = new NetworkBuilderBenchmark.CountingWriter();
+		ProfileWriter writer = format.newWriter(out);
+		Profiles.write(profile, writer);
+		writer.flush();
+		return out.count;
+	}
+
+	@Benchmark
+	public NetworkConfig load() throws Exception {
+		if (format == ProfileFormat.YAML) {
+			return NetworkConfig.fromYamlFile(file);
+		}
+		return NetworkConfig.fromJsonFile(file);
+	}
+}
@@ -0,0 +1,357 @@
+package org.ecsoya.fabric.builder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ *
+ * Generate the profiles of all the networks of a manifest:
+ *
+ * <pre>
+ * java -jar fabric-network-builder.jar manifest.yml [--threads N] [--validate] [--fail-fast] [--metrics [json]]
+ * </pre>
+ *
+ * The networks are compiled and their profiles written by one pool of
+ * threads. Every profile is written as soon as its network is compiled, and at
+ * most as many networks as threads are compiled and not yet written, so the
+ * memory is bounded however many networks the manifest has. The crypto files
+ * are read through one cache shared by all the networks. With a
+ * <code>cache</code> in the manifest, only the profiles whose inputs changed
+ * since the last run are written, see {@link BuildCache}. With
+ * <code>--validate</code> all the profiles are loaded by the SDK afterwards,
+ * and checked against the topology of their network, see
+ * {@link #validate(ProfileValidator)}. With <code>--metrics</code> the phases of
+ * the builds are measured and summed up, see {@link BuildMetrics}.
+ *
+ * @see NetworkManifest
+ * @author ecsoya
+ *
+ */
+public class NetworkBuilderCli {
+
+	private final NetworkManifest manifest;
+
+	private final int threads;
+
+	private final PrintStream out;
+
+	private final AtomicLong compileNanos = new AtomicLong();
+
+	private final AtomicLong writeNanos = new AtomicLong();
+
+	private final AtomicLong files = new AtomicLong();
+
+	private final AtomicLong bytes = new AtomicLong();
+
+	private final AtomicLong unchanged = new AtomicLong();
+
+	/**
+	 * The cache of the crypto files of all the networks.
+	 */
+	private final PemCache pemCache = new LruPemCache();
+
+	/**
+	 * The files of every network written by the last run, in the order of the
+	 * networks.
+	 */
+	private final List<List<File>> outputs = new ArrayList<>();
+
+	private BuildListener listener = BuildListener.NONE;
+
+	public NetworkBuilderCli(NetworkManifest manifest, int threads, PrintStream out) {
+		this.manifest = manifest;
+		this.threads = threads;
+		this.out = out;
+	}
+
+	/**
+	 * Observe the builds and the writes of all the networks.
+	 */
+	public NetworkBuilderCli listener(BuildListener listener) {
+		this.listener = listener == null ? BuildListener.NONE : listener;
+		return this;
+	}
+
+	public static void main(String[] args) {
+		File file = null;
+		int threads = 0;
+		boolean validate = false;
+		boolean failFast = false;
+		String metrics = null;
+		for (int i = 0; i < args.length; i++) {
+			if ("--threads".equals(args[i]) && i + 1 < args.length) {
+				threads = Integer.parseInt(args[++i]);
+			} else if ("--validate".equals(args[i])) {
+				validate = true;
+			} else if ("--fail-fast".equals(args[i])) {
+				validate = true;
+				failFast = true;
+			} else if ("--metrics".equals(args[i])) {
+				metrics = i + 1 < args.length && "json".equals(args[i + 1]) ? args[++i] : "text";
+			} else if (file == null && !args[i].startsWith("--")) {
+				file = new File(args[i]);
+			} else {
+				file = null;
+				break;
+			}
+		}
+		if (file == null) {
+			System.err.println("Usage: fabric-network-builder <manifest.yml|manifest.json> [--threads N] [--validate] [--fail-fast] [--metrics [json]]");
+			System.exit(2);
+		}
+
+		try {
+			long start = System.nanoTime();
+			NetworkManifest manifest = NetworkManifest.load(file);
+			long parsed = System.nanoTime() - start;
+			if (threads < 1) {
+				threads = manifest.getThreads() > 0 ? manifest.getThreads()
+						: Runtime.getRuntime().availableProcessors();
+			}
+			System.out.println("parse:   " + manifest.getNetworks().size() + " networks in " + millis(parsed) + " ms");
+			BuildMetrics buildMetrics = metrics == null ? null : new BuildMetrics();
+			NetworkBuilderCli cli = new NetworkBuilderCli(manifest, threads, System.out).listener(buildMetrics);
+			cli.run();
+			if (buildMetrics != null) {
+				System.out.println("json".equals(metrics) ? buildMetrics.toJson() : buildMetrics);
+			}
+			ProfileValidator.Report report = null;
+			if (validate) {
+				report = cli.validate(new ProfileValidator().threads(threads).failFast(failFast));
+				for (ProfileValidator.Result failure : report.getFailures()) {
+					System.err.println(failure);
+				}
+				System.out.println("validate: " + report.getResults().size() + " profiles, "
+						+ report.getFailures().size() + " broken" + (report.isAborted() ? ", aborted" : ""));
+			}
+			System.out.println("total:   " + millis(System.nanoTime() - start) + " ms");
+			if (report != null && !report.isValid()) {
+				System.exit(1);
+			}
+		} catch (NetworkBuilderException | IOException e) {
+			System.err.println(e.getMessage());
+			for (Throwable suppressed : e.getSuppressed()) {
+				System.err.println(suppressed.getMessage());
+			}
+			System.exit(1);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Generate the profiles of all the networks, and print the timing of the
+	 * phases.
+	 *
+	 * @return the written files.
+	 * @throws NetworkBuilderException the first failed network, the failures of
+	 *                                 the other networks are suppressed by it.
+	 */
+	public List<File> run() throws NetworkBuilderException, IOException, InterruptedException {
+		outputs.clear();
+		BuildCache cache = manifest.getCache() == null ? null : BuildCache.load(manifest.getCache());
+		ExecutorService executor = Executors.newFixedThreadPool(threads, runnable -> {
+			Thread thread = new Thread(runnable, "network-builder");
+			thread.setDaemon(true);
+			return thread;
+		});
+		Semaphore compiling = new Semaphore(threads);
+		List<CompletableFuture<List<File>>> networks = new ArrayList<>();
+		long start = System.nanoTime();
+		try {
+			for (NetworkManifest.Network network : manifest.getNetworks()) {
+				compiling.acquire();
+				CompletableFuture<List<File>> generated = CompletableFuture
+						.supplyAsync(() -> compile(network, pemCache, cache), executor)
+						.thenCompose(compiled -> write(network, compiled, executor));
+				generated.whenComplete((written, error) -> compiling.release());
+				networks.add(generated);
+			}
+			List<File> written = join(networks);
+			for (CompletableFuture<List<File>> network : networks) {
+				outputs.add(network.join());
+			}
+			if (cache != null) {
+				cache.save();
+			}
+			long wall = System.nanoTime() - start;
+			out.println("compile: " + networks.size() + " networks in " + millis(compileNanos.get())
+					+ " ms, summed over " + threads + " threads");
+			out.println("write:   " + files.get() + " files, " + bytes.get() / 1024 + " KB in "
+					+ millis(writeNanos.get()) + " ms, summed");
+			if (cache != null) {
+				out.println("cache:   " + unchanged.get() + " profiles unchanged");
+			}
+			out.println("wall:    " + millis(wall) + " ms");
+			return written;
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Load the profiles written by the last {@link #run()} with the SDK, network
+	 * by network. The profiles of every network are checked against its
+	 * topology, compiled again through the cache of the crypto files, so only
+	 * one topology is held at a time.
+	 *
+	 * @return the results of all the networks, in the order of the networks.
+	 */
+	public ProfileValidator.Report validate(ProfileValidator validator)
+			throws NetworkBuilderException, InterruptedException {
+		List<NetworkManifest.Network> networks = manifest.getNetworks();
+		if (outputs.size() != networks.size()) {
+			throw new IllegalStateException("The networks are not generated.");
+		}
+		List<ProfileValidator.Result> results = new ArrayList<>();
+		boolean aborted = false;
+		long start = System.nanoTime();
+		for (int i = 0; i < networks.size() && !aborted; i++) {
+			NetworkManifest.Network network = networks.get(i);
+			CompiledTopology topology;
+			try {
+				topology = network.compile(pemCache);
+			} catch (NetworkBuilderException e) {
+				throw new NetworkBuilderException(network.getName() + ": " + e.getMessage(), e);
+			}
+			ProfileValidator.Report report = validator.expect(topology).validate(outputs.get(i));
+			results.addAll(report.getResults());
+			aborted = report.isAborted();
+		}
+		return new ProfileValidator.Report(results, aborted, System.nanoTime() - start);
+	}
+
+	/**
+	 * A compiled network, and the clients to write the profiles of.
+	 */
+	private static class Compiled {
+
+		final CompiledTopology topology;
+
+		final List<String> clients;
+
+		final BuildCache.Plan plan;
+
+		Compiled(CompiledTopology topology, List<String> clients, BuildCache.Plan plan) {
+			this.topology = topology;
+			this.clients = clients;
+			this.plan = plan;
+		}
+	}
+
+	/**
+	 * Compile the network, unless the profiles of all its clients are unchanged.
+	 */
+	private Compiled compile(NetworkManifest.Network network, PemCache pemCache, BuildCache cache) {
+		long start = System.nanoTime();
+		try {
+			if (cache == null) {
+				return new Compiled(network.compile(pemCache, listener), network.getClients(), null);
+			}
+			BuildCache.Plan plan = cache.plan(network.compile(cache.fingerprints()), network.getClients(),
+					network.getOutput(), network.getOptions());
+			unchanged.addAndGet(network.getClients().size() - plan.getStale().size());
+			if (plan.getStale().isEmpty()) {
+				return new Compiled(null, plan.getStale(), plan);
+			}
+			return new Compiled(network.compile(pemCache, listener), plan.getStale(), plan);
+		} catch (NetworkBuilderException e) {
+			throw new CompletionException(new NetworkBuilderException(network.getName() + ": " + e.getMessage(), e));
+		} finally {
+			compileNanos.addAndGet(System.nanoTime() - start);
+		}
+	}
+
+	/**
+	 * Write the profiles of every client of the network as separate tasks.
+	 */
+	private CompletableFuture<List<File>> write(NetworkManifest.Network network, Compiled compiled,
+			ExecutorService executor) {
+		List<CompletableFuture<List<File>>> clients = new ArrayList<>();
+		for (String client : compiled.clients) {
+			clients.add(CompletableFuture.supplyAsync(() -> {
+				List<File> written = write(network, compiled.topology, client);
+				if (compiled.plan != null) {
+					compiled.plan.record(client, written);
+				}
+				return written;
+			}, executor));
+		}
+		return CompletableFuture.allOf(clients.toArray(new CompletableFuture<?>[0])).thenApply(done -> {
+			if (compiled.plan != null) {
+				return compiled.plan.getFiles();
+			}
+			List<File> written = new ArrayList<>();
+			clients.forEach(client -> written.addAll(client.join()));
+			return written;
+		});
+	}
+
+	private List<File> write(NetworkManifest.Network network, CompiledTopology topology, String client) {
+		long start = System.nanoTime();
+		try {
+			List<String> clients = Collections.singletonList(client);
+			List<File> written = network.getVariants() > 0
+					? ProfileBatch.generateVariants(topology, clients, new ProfileVariants(), network.getVariants(),
+							network.getOutput(), network.getFormats(), Runnable::run, listener)
+					: ProfileBatch.generateAll(topology, clients, network.getOutput(), network.getFormats(),
+							Runnable::run, listener);
+			for (File file : written) {
+				bytes.addAndGet(file.length());
+			}
+			files.addAndGet(written.size());
+			return written;
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		} finally {
+			writeNanos.addAndGet(System.nanoTime() - start);
+		}
+	}
+
+	private static List<File> join(List<CompletableFuture<List<File>>> networks)
+			throws NetworkBuilderException, IOException {
+		List<File> files = new ArrayList<>();
+		Exception failure = null;
+		for (CompletableFuture<List<File>> network : networks) {
+			try {
+				files.addAll(network.join());
+			} catch (CompletionException e) {
+				Throwable cause = e.getCause();
+				Exception error = cause instanceof UncheckedIOException ? ((UncheckedIOException) cause).getCause()
+						: cause instanceof Exception ? (Exception) cause : new NetworkBuilderException(cause);
+				if (failure == null) {
+					failure = error;
+				} else {
+					failure.addSuppressed(error);
+				}
+			}
+		}
+		if (failure instanceof IOException) {
+			throw (IOException) failure;
+		}
+		if (failure instanceof NetworkBuilderException) {
+			throw (NetworkBuilderException) failure;
+		}
+		if (failure != null) {
+			throw new NetworkBuilderException(failure.getMessage(), failure);
+		}
+		return files;
+	}
+
+	private static long millis(long nanos) {
+		return TimeUnit.NANOSECONDS.toMillis(nanos);
+	}
+}
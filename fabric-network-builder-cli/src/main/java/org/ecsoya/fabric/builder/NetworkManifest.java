@@ -0,0 +1,456 @@
+package org.ecsoya.fabric.builder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+import org.yaml.snakeyaml.Yaml;
+import org.yaml.snakeyaml.error.YAMLException;
+
+/**
+ *
+ * The networks to generate the profiles of, loaded from a YAML or JSON
+ * manifest:
+ *
+ * <pre>
+ * threads: 8
+ * cache: .build-cache.json      # optional, see BuildCache
+ * networks:
+ * - name: example-fabric
+ *   type: local                 # local (cryptogen) or bbe
+ *   domain: example.com
+ *   root: crypto-config         # relative to the manifest
+ *   ordererOrg: orderer
+ *   orderers: [orderer0, orderer1]
+ *   orgs: [org1, org2]
+ *   peers: [peer0, peer1]       # the number of the peers of every org for bbe
+ *   channels: [mychannel]
+ *   members:                    # optional, all the peers join all the channels
+ *     mychannel: {org1: [peer0], org2: []}
+ *   urls:
+ *     org1: {"*": 192.168.1.10, peer1: 192.168.1.11}
+ *     orderer0: 192.168.1.20
+ *   ports:
+ *     org1: {peer1: 8051}
+ *   tuning: wan
+ *   clients: [org1]             # all the orgs by default
+ *   scope:                      # optional, prune the profile of every client
+ *     endorsement: majority     # or the number of the endorsing orgs
+ *     orgs: [org1, org2]        # the orgs which may endorse, all by default
+ *     peersPerOrg: 1
+ *     channels:                 # optional, the policies of single channels
+ *       mychannel: {endorsement: 2}
+ *   output:
+ *     dir: network/example      # relative to the manifest
+ *     formats: yaml,json        # or yaml-anchors, json-references, compact-json
+ *     variants: 0
+ * </pre>
+ *
+ * A manifest of a single network may omit <code>networks</code>.
+ * <code>scope: true</code> prunes the profiles with the majority policy, see
+ * {@link ClientScope}.
+ *
+ * @author ecsoya
+ *
+ */
+public class NetworkManifest {
+
+	private final int threads;
+
+	private final File cache;
+
+	private final List<Network> networks;
+
+	private NetworkManifest(int threads, File cache, List<Network> networks) {
+		this.threads = threads;
+		this.cache = cache;
+		this.networks = networks;
+	}
+
+	/**
+	 * Load the manifest, the relative paths are resolved against the directory
+	 * of the manifest.
+	 */
+	@SuppressWarnings("unchecked")
+	public static NetworkManifest load(File file) throws IOException, NetworkBuilderException {
+		Object document;
+		try (Reader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+			document = new Yaml().load(reader);
+		} catch (YAMLException e) {
+			throw new NetworkBuilderException("Unable to parse manifest: " + file + ", " + e.getMessage(), e);
+		}
+		if (!(document instanceof Map)) {
+			throw new NetworkBuilderException("The manifest is not a map: " + file);
+		}
+		Map<String, Object> manifest = (Map<String, Object>) document;
+		File base = file.getAbsoluteFile().getParentFile();
+
+		List<Network> networks = new ArrayList<>();
+		if (manifest.containsKey("networks")) {
+			Object list = manifest.get("networks");
+			if (!(list instanceof List)) {
+				throw new NetworkBuilderException("The networks of the manifest is not a list.");
+			}
+			for (Object network : (List<Object>) list) {
+				networks.add(new Network(map(network, "networks[" + networks.size() + "]"), base));
+			}
+		} else {
+			networks.add(new Network(manifest, base));
+		}
+		if (networks.isEmpty()) {
+			throw new NetworkBuilderException("The manifest has no networks.");
+		}
+		Set<File> outputs = new HashSet<>();
+		for (Network network : networks) {
+			if (!outputs.add(network.output)) {
+				throw new NetworkBuilderException("Duplicated output directory: " + network.output);
+			}
+		}
+		Object threads = manifest.get("threads");
+		File cache = manifest.containsKey("cache") ? file(base, string(manifest.get("cache"), "cache")) : null;
+		return new NetworkManifest(threads == null ? 0 : integer(threads, "threads"), cache,
+				Collections.unmodifiableList(networks));
+	}
+
+	/**
+	 * The threads to generate the networks with, 0 when not specified.
+	 */
+	public int getThreads() {
+		return threads;
+	}
+
+	/**
+	 * The file of the {@link BuildCache}, or null to generate all the profiles.
+	 */
+	public File getCache() {
+		return cache;
+	}
+
+	public List<Network> getNetworks() {
+		return networks;
+	}
+
+	/**
+	 * A network of the manifest.
+	 */
+	public static class Network {
+
+		private final String name;
+
+		private final boolean bbe;
+
+		private final String domain;
+
+		private final File root;
+
+		private final String ordererOrg;
+
+		private final String[] orderers;
+
+		private final String[] orgs;
+
+		private final String[] peers;
+
+		private final int peerCount;
+
+		private final String[] channels;
+
+		private final Map<String, Map<String, String[]>> members = new LinkedHashMap<>();
+
+		private final Map<String, Object> urls;
+
+		private final Map<String, Object> ports;
+
+		private final GrpcTuning tuning;
+
+		private final List<String> clients;
+
+		private final ClientScope scope;
+
+		private final File output;
+
+		private final Set<ProfileFormat> formats;
+
+		private final int variants;
+
+		private Network(Map<String, Object> network, File base) throws NetworkBuilderException {
+			this.name = string(network.get("name"), "name");
+			String where = name + ".";
+			String type = network.containsKey("type") ? string(network.get("type"), where + "type") : "local";
+			if (!"local".equals(type) && !"bbe".equals(type)) {
+				throw new NetworkBuilderException("Unknown type: " + type + " of network: " + name);
+			}
+			this.bbe = "bbe".equals(type);
+			this.root = file(base, string(network.get("root"), where + "root"));
+			this.orgs = strings(network.get("orgs"), where + "orgs");
+			this.channels = strings(network.get("channels"), where + "channels");
+			if (bbe) {
+				this.domain = null;
+				this.ordererOrg = null;
+				this.orderers = null;
+				this.peers = null;
+				this.peerCount = network.containsKey("peers") ? integer(network.get("peers"), where + "peers") : 4;
+				if (channels.length != 1) {
+					throw new NetworkBuilderException("The bbe network: " + name + " has exactly 1 channel.");
+				}
+			} else {
+				this.domain = string(network.get("domain"), where + "domain");
+				this.ordererOrg = string(network.get("ordererOrg"), where + "ordererOrg");
+				this.orderers = strings(network.get("orderers"), where + "orderers");
+				this.peers = strings(network.get("peers"), where + "peers");
+				this.peerCount = peers.length;
+			}
+			for (Entry<String, Object> channel : map(network.get("members"), where + "members").entrySet()) {
+				Map<String, String[]> joined = new LinkedHashMap<>();
+				for (Entry<String, Object> org : map(channel.getValue(), where + "members." + channel.getKey())
+						.entrySet()) {
+					joined.put(org.getKey(), org.getValue() == null ? new String[0]
+							: strings(org.getValue(), where + "members." + channel.getKey() + "." + org.getKey()));
+				}
+				members.put(channel.getKey(), joined);
+				if (bbe && !channels[0].equals(channel.getKey())) {
+					throw new NetworkBuilderException(
+							"Unknown channel: " + channel.getKey() + " in the members of network: " + name);
+				}
+			}
+			this.urls = map(network.get("urls"), where + "urls");
+			this.ports = map(network.get("ports"), where + "ports");
+			try {
+				this.tuning = network.containsKey("tuning")
+						? GrpcTuning.valueOf(string(network.get("tuning"), where + "tuning"))
+						: GrpcTuning.DEFAULT;
+			} catch (IllegalArgumentException e) {
+				throw new NetworkBuilderException(e.getMessage() + " of network: " + name);
+			}
+			List<String> clients = new ArrayList<>();
+			Collections.addAll(clients,
+					network.containsKey("clients") ? strings(network.get("clients"), where + "clients") : orgs);
+			this.clients = Collections.unmodifiableList(clients);
+			this.scope = scope(network.get("scope"), where + "scope");
+
+			Map<String, Object> output = map(network.get("output"), where + "output");
+			this.output = file(base, output.containsKey("dir") ? string(output.get("dir"), where + "output.dir")
+					: "network/" + name);
+			try {
+				this.formats = output.containsKey("formats")
+						? ProfileFormat.parse(string(output.get("formats"), where + "output.formats"))
+						: EnumSet.of(ProfileFormat.YAML);
+			} catch (IllegalArgumentException e) {
+				throw new NetworkBuilderException(e.getMessage() + " of network: " + name);
+			}
+			this.variants = output.containsKey("variants")
+					? integer(output.get("variants"), where + "output.variants")
+					: 0;
+			if (variants < 0) {
+				throw new NetworkBuilderException("The " + where + "output.variants is negative.");
+			}
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public List<String> getClients() {
+			return clients;
+		}
+
+		public File getOutput() {
+			return output;
+		}
+
+		public Set<ProfileFormat> getFormats() {
+			return formats;
+		}
+
+		/**
+		 * The variants of every profile, 0 for one profile per client.
+		 */
+		public int getVariants() {
+			return variants;
+		}
+
+		/**
+		 * The scope of the profiles, or null if every client gets all the nodes.
+		 */
+		public ClientScope getScope() {
+			return scope;
+		}
+
+		/**
+		 * The options of the output which are not part of the profiles, for the
+		 * fingerprints of the {@link BuildCache}.
+		 */
+		public String getOptions() {
+			return formats + " " + variants;
+		}
+
+		/**
+		 * Compile the network with the builder of its type.
+		 */
+		public CompiledTopology compile(PemCache pemCache) throws NetworkBuilderException {
+			return compile(pemCache, BuildListener.NONE);
+		}
+
+		/**
+		 * Compile the network with the builder of its type, and report the build to
+		 * the listener.
+		 */
+		public CompiledTopology compile(PemCache pemCache, BuildListener listener) throws NetworkBuilderException {
+			if (bbe) {
+				BbeNetworkBuilder builder = new BbeNetworkBuilder().name(name).root(root).orgs(orgs)
+						.channel(channels[0]).peers(peerCount).tuning(tuning).scope(scope).pemCache(pemCache)
+						.listener(listener);
+				bind(builder::url, builder::port);
+				members.getOrDefault(channels[0], Collections.emptyMap()).forEach(builder::members);
+				return builder.compile();
+			}
+			NetworkBuilder builder = new NetworkBuilder(domain).name(name).root(root).ordererOrg(ordererOrg)
+					.orderers(orderers).peerOrgs(orgs).peers(peers).channels(channels).tuning(tuning).scope(scope)
+					.pemCache(pemCache).listener(listener);
+			bind(builder::url, builder::port);
+			members.forEach(
+					(channel, joined) -> joined.forEach((org, orgPeers) -> builder.members(channel, org, orgPeers)));
+			return builder.compile();
+		}
+
+		private static ClientScope scope(Object value, String key) throws NetworkBuilderException {
+			if (value == null || Boolean.FALSE.equals(value)) {
+				return null;
+			}
+			ClientScope scope = new ClientScope();
+			if (Boolean.TRUE.equals(value)) {
+				return scope;
+			}
+			Map<String, Object> settings = map(value, key);
+			try {
+				endorsement(settings, key, scope::endorsement);
+				for (Entry<String, Object> channel : map(settings.get("channels"), key + ".channels").entrySet()) {
+					endorsement(map(channel.getValue(), key + ".channels." + channel.getKey()),
+							key + ".channels." + channel.getKey(),
+							(count, orgs) -> scope.endorsement(channel.getKey(), count, orgs));
+				}
+				if (settings.containsKey("peersPerOrg")) {
+					scope.peersPerOrg(integer(settings.get("peersPerOrg"), key + ".peersPerOrg"));
+				}
+			} catch (IllegalArgumentException e) {
+				throw new NetworkBuilderException("The " + key + " is invalid: " + e.getMessage());
+			}
+			return scope;
+		}
+
+		private interface Endorsement {
+
+			void endorsement(int count, String... orgs);
+		}
+
+		private static void endorsement(Map<String, Object> settings, String key, Endorsement endorsement)
+				throws NetworkBuilderException {
+			if (!settings.containsKey("endorsement") && !settings.containsKey("orgs")) {
+				return;
+			}
+			Object count = settings.get("endorsement");
+			endorsement.endorsement(
+					count == null || "majority".equals(count) ? ClientScope.MAJORITY
+							: integer(count, key + ".endorsement"),
+					settings.containsKey("orgs") ? strings(settings.get("orgs"), key + ".orgs") : new String[0]);
+		}
+
+		private interface Binding<T> {
+
+			void bind(String org, String peer, T value);
+		}
+
+		private void bind(Binding<String> url, Binding<Integer> port) throws NetworkBuilderException {
+			String where = name + ".";
+			for (Entry<String, Object> org : urls.entrySet()) {
+				if (org.getValue() instanceof Map) {
+					for (Entry<String, Object> peer : map(org.getValue(), where + "urls." + org.getKey()).entrySet()) {
+						url.bind(org.getKey(), peer.getKey(),
+								string(peer.getValue(), where + "urls." + org.getKey() + "." + peer.getKey()));
+					}
+				} else {
+					url.bind(org.getKey(), null, string(org.getValue(), where + "urls." + org.getKey()));
+				}
+			}
+			for (Entry<String, Object> org : ports.entrySet()) {
+				if (org.getValue() instanceof Map) {
+					for (Entry<String, Object> peer : map(org.getValue(), where + "ports." + org.getKey())
+							.entrySet()) {
+						port.bind(org.getKey(), peer.getKey(),
+								integer(peer.getValue(), where + "ports." + org.getKey() + "." + peer.getKey()));
+					}
+				} else {
+					port.bind(org.getKey(), null, integer(org.getValue(), where + "ports." + org.getKey()));
+				}
+			}
+		}
+	}
+
+	private static File file(File base, String path) {
+		File file = new File(path);
+		return file.isAbsolute() ? file : new File(base, path);
+	}
+
+	@SuppressWarnings("unchecked")
+	private static Map<String, Object> map(Object value, String key) throws NetworkBuilderException {
+		if (value == null) {
+			return Collections.emptyMap();
+		}
+		if (!(value instanceof Map)) {
+			throw new NetworkBuilderException("The " + key + " is not a map.");
+		}
+		Map<String, Object> result = new LinkedHashMap<>();
+		for (Entry<Object, Object> entry : ((Map<Object, Object>) value).entrySet()) {
+			result.put(String.valueOf(entry.getKey()), entry.getValue());
+		}
+		return result;
+	}
+
+	private static String string(Object value, String key) throws NetworkBuilderException {
+		if (value == null) {
+			throw new NetworkBuilderException("The " + key + " is not specified.");
+		}
+		if (value instanceof Map || value instanceof List) {
+			throw new NetworkBuilderException("The " + key + " is not a string.");
+		}
+		return value.toString();
+	}
+
+	private static int integer(Object value, String key) throws NetworkBuilderException {
+		if (value instanceof Integer) {
+			return (Integer) value;
+		}
+		try {
+			return Integer.parseInt(string(value, key).trim());
+		} catch (NumberFormatException e) {
+			throw new NetworkBuilderException("The " + key + " is not an integer: " + value);
+		}
+	}
+
+	private static String[] strings(Object value, String key) throws NetworkBuilderException {
+		if (value instanceof List) {
+			List<?> list = (List<?>) value;
+			String[] result = new String[list.size()];
+			for (int i = 0; i < result.length; i++) {
+				result[i] = string(list.get(i), key + "[" + i + "]");
+			}
+			return result;
+		}
+		String[] result = string(value, key).split(",");
+		for (int i = 0; i < result.length; i++) {
+			result[i] = result[i].trim();
+		}
+		return result;
+	}
+}
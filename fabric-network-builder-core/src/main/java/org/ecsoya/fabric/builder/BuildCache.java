@@ -0,0 +1,373 @@
+package org.ecsoya.fabric.builder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParseException;
+
+/**
+ *
+ * An on-disk cache of the builds, so that a regeneration only renders the
+ * profiles whose inputs changed since the last build.
+ *
+ * The inputs of a profile are fingerprinted by a dry build: the network is
+ * built with the SHA-256 hashes of the crypto files instead of their
+ * contents, so the fingerprint covers every URL, port, org, peer, channel and
+ * option which ends up in the profile, and the content of every referenced
+ * crypto file. The hashes are cached by the size and modification time of the
+ * files, only the new and changed files are read. The files are checked on
+ * every build, whatever the index of the crypto materials says.
+ *
+ * The profiles of an unscoped network only differ in their clients, so a
+ * change of any input makes all the clients stale. A scoped profile is
+ * fingerprinted by itself, a rotated certificate only makes the clients which
+ * keep it stale.
+ *
+ * A profile is skipped when its fingerprint is the one recorded for its last
+ * build, and its files are still there as they were written. When nothing is
+ * stale the network is not even compiled.
+ *
+ * The cache is a JSON file, written by {@link #save()}. A cache of another
+ * version of the builder is discarded.
+ *
+ * @author ecsoya
+ *
+ */
+public final class BuildCache {
+
+	private static final int FORMAT = 1;
+
+	private static final Gson GSON = new GsonBuilder().disableHtmlEscaping().create();
+
+	private final File file;
+
+	private final Map<String, Hash> hashes;
+
+	private final Map<String, Output> outputs;
+
+	private final PemCache fingerprints = new PemCache() {
+
+		@Override
+		public String read(Path file) throws IOException {
+			Path key = file.toAbsolutePath().normalize();
+			return read(key, Files.readAttributes(key, BasicFileAttributes.class));
+		}
+
+		@Override
+		public String read(Path file, BasicFileAttributes attributes) throws IOException {
+			return read(file, attributes, BuildListener.NONE);
+		}
+
+		@Override
+		public String read(Path file, BasicFileAttributes attributes, BuildListener listener) throws IOException {
+			// The attributes of a shared index are the ones of its scan, the file may
+			// have been rotated since.
+			Path key = file.toAbsolutePath().normalize();
+			return "sha256:" + hash(key, Files.readAttributes(key, BasicFileAttributes.class), listener);
+		}
+	};
+
+	private BuildCache(File file, Map<String, Hash> hashes, Map<String, Output> outputs) {
+		this.file = file;
+		this.hashes = new ConcurrentHashMap<>(hashes);
+		this.outputs = new ConcurrentHashMap<>(outputs);
+	}
+
+	/**
+	 * Load the cache from the file, or start an empty cache if the file does not
+	 * exist or was written by another version.
+	 */
+	public static BuildCache load(File file) throws IOException {
+		if (file.isFile()) {
+			try (Reader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+				Store store = GSON.fromJson(reader, Store.class);
+				if (store != null && store.format == FORMAT && version().equals(store.version)
+						&& store.hashes != null && store.outputs != null) {
+					return new BuildCache(file, store.hashes, store.outputs);
+				}
+			} catch (JsonParseException e) {
+				// A damaged cache is only a slower build.
+			}
+		}
+		return new BuildCache(file, new LinkedHashMap<>(), new LinkedHashMap<>());
+	}
+
+	/**
+	 * Write the cache back to its file atomically.
+	 */
+	public void save() throws IOException {
+		Store store = new Store();
+		store.format = FORMAT;
+		store.version = version();
+		store.hashes = new TreeMap<>();
+		store.outputs = new TreeMap<>(outputs);
+		// Forget the deleted crypto files.
+		for (Entry<String, Hash> hash : hashes.entrySet()) {
+			if (new File(hash.getKey()).isFile()) {
+				store.hashes.put(hash.getKey(), hash.getValue());
+			}
+		}
+		File parent = file.getAbsoluteFile().getParentFile();
+		if (!parent.mkdirs() && !parent.isDirectory()) {
+			throw new IOException("Unable to create directory: " + parent);
+		}
+		ProfileFiles.write(file.toPath(), out -> GSON.toJson(store, out));
+	}
+
+	/**
+	 * The cache to build the network with for its fingerprints, every PEM is
+	 * replaced by the hash of its file.
+	 */
+	public PemCache fingerprints() {
+		return fingerprints;
+	}
+
+	/**
+	 * Compiles the network with the given cache.
+	 */
+	public interface Compiler {
+
+		CompiledTopology compile(PemCache pemCache) throws NetworkBuilderException;
+	}
+
+	/**
+	 * Writes the profiles of the clients, in the order of the clients.
+	 */
+	public interface Batch {
+
+		List<File> generate(CompiledTopology topology, List<String> clients) throws IOException;
+	}
+
+	/**
+	 * Generate the profiles of the stale clients, and save the cache.
+	 *
+	 * @param compiler  compiles the network, once for the fingerprints, and
+	 *                  once more if any client is stale.
+	 * @param pemCache  the cache to compile the network with.
+	 * @param outputDir the output directory.
+	 * @param options   the options of the batch which are not part of the
+	 *                  profile, such as the formats.
+	 * @param batch     writes the profiles of the stale clients.
+	 * @return the files of all the clients, in the order of the clients.
+	 */
+	public List<File> generate(Compiler compiler, PemCache pemCache, List<String> clients, File outputDir,
+			String options, Batch batch) throws NetworkBuilderException, IOException {
+		Plan plan = plan(compiler.compile(fingerprints), clients, outputDir, options);
+		if (!plan.getStale().isEmpty()) {
+			List<File> written = batch.generate(compiler.compile(pemCache), plan.getStale());
+			int size = written.size() / plan.getStale().size();
+			for (int i = 0; i < plan.getStale().size(); i++) {
+				plan.record(plan.getStale().get(i), written.subList(i * size, (i + 1) * size));
+			}
+		}
+		save();
+		return plan.getFiles();
+	}
+
+	/**
+	 * Find the stale clients of a network.
+	 *
+	 * @param fingerprint the network compiled with the {@link #fingerprints()}.
+	 */
+	public Plan plan(CompiledTopology fingerprint, List<String> clients, File outputDir, String options) {
+		return new Plan(fingerprint, clients, outputDir, options);
+	}
+
+	/**
+	 * The stale clients of a network, the files of the others are kept.
+	 */
+	public final class Plan {
+
+		private final File outputDir;
+
+		private final Map<String, String> fingerprints = new LinkedHashMap<>();
+
+		private final Map<String, List<File>> files = new LinkedHashMap<>();
+
+		private final List<String> stale = new ArrayList<>();
+
+		private Plan(CompiledTopology topology, List<String> clients, File outputDir, String options) {
+			this.outputDir = outputDir.getAbsoluteFile();
+			// The profiles only differ in their clients, serialize the network once.
+			String network = topology.getScope() != null ? null
+					: sha256(topology.profile("").toString().getBytes(StandardCharsets.UTF_8));
+			// The scoped profiles differ in more than their clients, serialize each one.
+			String scoped = topology.getScope() == null ? options : options + "\n" + topology.getScope();
+			for (String client : clients) {
+				String profile = network != null ? network
+						: sha256(topology.profile(client).toString().getBytes(StandardCharsets.UTF_8));
+				String fingerprint = sha256(
+						(profile + "\n" + client + "\n" + scoped).getBytes(StandardCharsets.UTF_8));
+				fingerprints.put(client, fingerprint);
+				Output output = outputs.get(key(client));
+				List<File> kept = output == null ? null : output.check(fingerprint);
+				files.put(client, kept);
+				if (kept == null) {
+					stale.add(client);
+				}
+			}
+		}
+
+		/**
+		 * The clients to generate the profiles of.
+		 */
+		public List<String> getStale() {
+			return stale;
+		}
+
+		/**
+		 * Record the generated files of a stale client.
+		 */
+		public void record(String client, List<File> written) {
+			Output output = new Output();
+			output.fingerprint = fingerprints.get(client);
+			for (File file : written) {
+				output.files.put(file.getAbsolutePath(), new long[] { file.length(), file.lastModified() });
+			}
+			outputs.put(key(client), output);
+			synchronized (this) {
+				files.put(client, new ArrayList<>(written));
+			}
+		}
+
+		/**
+		 * @return the files of all the clients, in the order of the clients.
+		 */
+		public synchronized List<File> getFiles() {
+			List<File> result = new ArrayList<>();
+			for (List<File> client : files.values()) {
+				if (client != null) {
+					result.addAll(client);
+				}
+			}
+			return result;
+		}
+
+		private String key(String client) {
+			return new File(outputDir, client).getPath();
+		}
+	}
+
+	private String hash(Path file, BasicFileAttributes attributes, BuildListener listener) throws IOException {
+		String key = file.toString();
+		long size = attributes.size();
+		long modified = attributes.lastModifiedTime().toMillis();
+		Hash hash = hashes.get(key);
+		if (hash != null && hash.size == size && hash.modified == modified) {
+			listener.cacheHit(file, size);
+			return hash.sha256;
+		}
+		MessageDigest digest = digest();
+		byte[] chunk = new byte[8192];
+		try (InputStream in = Files.newInputStream(file)) {
+			int read;
+			while ((read = in.read(chunk)) != -1) {
+				digest.update(chunk, 0, read);
+			}
+		}
+		hash = new Hash();
+		hash.size = size;
+		hash.modified = modified;
+		hash.sha256 = hex(digest.digest());
+		hashes.put(key, hash);
+		listener.cacheMiss(file, size);
+		return hash.sha256;
+	}
+
+	private static String version() {
+		String version = BuildCache.class.getPackage() == null ? null
+				: BuildCache.class.getPackage().getImplementationVersion();
+		return version == null ? "dev" : version;
+	}
+
+	private static String sha256(byte[] bytes) {
+		return hex(digest().digest(bytes));
+	}
+
+	private static MessageDigest digest() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static String hex(byte[] bytes) {
+		StringBuilder hex = new StringBuilder(bytes.length * 2);
+		for (byte b : bytes) {
+			hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+		}
+		return hex.toString();
+	}
+
+	/**
+	 * The hash of a crypto file, valid while its size and modification time are
+	 * unchanged.
+	 */
+	private static class Hash {
+
+		long size;
+
+		long modified;
+
+		String sha256;
+	}
+
+	/**
+	 * The files of the last build of a client, by their absolute paths, with
+	 * their sizes and modification times.
+	 */
+	private static class Output {
+
+		String fingerprint;
+
+		Map<String, long[]> files = new LinkedHashMap<>();
+
+		/**
+		 * @return the files if they are still fresh, or null.
+		 */
+		List<File> check(String fingerprint) {
+			if (!fingerprint.equals(this.fingerprint) || files == null || files.isEmpty()) {
+				return null;
+			}
+			List<File> result = new ArrayList<>(files.size());
+			for (Entry<String, long[]> entry : files.entrySet()) {
+				File file = new File(entry.getKey());
+				long[] stat = entry.getValue();
+				if (stat == null || stat.length != 2 || file.length() != stat[0] || file.lastModified() != stat[1]) {
+					return null;
+				}
+				result.add(file);
+			}
+			return result;
+		}
+	}
+
+	private static class Store {
+
+		int format;
+
+		String version;
+
+		Map<String, Hash> hashes;
+
+		Map<String, Output> outputs;
+	}
+}
@@ -0,0 +1,103 @@
+package org.ecsoya.fabric.builder;
+
+import java.io.File;
+import java.nio.file.Path;
+
+/**
+ *
+ * Observes the builds of the profiles, such as {@link BuildMetrics}.
+ *
+ * A listener is called by the threads of the builds, concurrently when the
+ * profiles are written by a pool, so it must be thread safe. The durations of
+ * the phases are measured only when a listener is attached, a build without a
+ * listener does not even read the clock.
+ *
+ * @author ecsoya
+ *
+ */
+public interface BuildListener {
+
+	/**
+	 * Ignores everything, the default of the builders.
+	 */
+	BuildListener NONE = new BuildListener() {
+	};
+
+	/**
+	 * The phases of a build, the sections of the profile are built in the order
+	 * of the constants.
+	 */
+	enum Phase {
+
+		/**
+		 * Walk the root directory into a {@link CryptoIndex}.
+		 */
+		SCAN,
+
+		CLIENT,
+
+		CHANNELS,
+
+		ORGANIZATIONS,
+
+		ORDERERS,
+
+		PEERS,
+
+		CERTIFICATE_AUTHORITIES,
+
+		/**
+		 * Probe the peers and assign their roles by their latencies.
+		 */
+		PROBE,
+
+		/**
+		 * Render a profile and write it to its file.
+		 */
+		WRITE
+	}
+
+	/**
+	 * A phase is done.
+	 */
+	default void phase(Phase phase, long nanos) {
+	}
+
+	/**
+	 * The root directory is scanned.
+	 *
+	 * @param files the number of the indexed crypto files.
+	 */
+	default void scanned(Path root, int files) {
+	}
+
+	/**
+	 * A crypto file is served from the memory of the {@link PemCache}.
+	 */
+	default void cacheHit(Path file, long bytes) {
+	}
+
+	/**
+	 * A crypto file is read from the disk.
+	 */
+	default void cacheMiss(Path file, long bytes) {
+	}
+
+	/**
+	 * A section of the profile is built.
+	 *
+	 * @param section the name of the section, such as <code>peers</code>.
+	 * @param count   the number of the nodes in the section.
+	 */
+	default void nodes(String section, int count) {
+	}
+
+	/**
+	 * A profile is written.
+	 *
+	 * @param changed false if the file already had the same content, and was
+	 *                not touched.
+	 */
+	default void written(File file, long bytes, boolean changed) {
+	}
+}
@@ -0,0 +1,252 @@
+package org.ecsoya.fabric.builder;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.google.gson.JsonObject;
+
+/**
+ *
+ * A {@link BuildListener} which sums up the builds in memory, for all the
+ * builds it is attached to.
+ *
+ * The durations of the phases are summed over the threads, so with a pool the
+ * sum of the phases may exceed the wall time. A summary is printed by
+ * {@link #toString()}, or exported by {@link #toJson()}.
+ *
+ * @author ecsoya
+ *
+ */
+public class BuildMetrics implements BuildListener {
+
+	private final Map<Phase, LongAdder> nanos = new EnumMap<>(Phase.class);
+
+	private final Map<Phase, LongAdder> counts = new EnumMap<>(Phase.class);
+
+	private final ConcurrentMap<String, LongAdder> nodes = new ConcurrentHashMap<>();
+
+	private final Set<Path> touched = ConcurrentHashMap.newKeySet();
+
+	private final LongAdder indexed = new LongAdder();
+
+	private final LongAdder hits = new LongAdder();
+
+	private final LongAdder misses = new LongAdder();
+
+	private final LongAdder bytesCached = new LongAdder();
+
+	private final LongAdder bytesRead = new LongAdder();
+
+	private final LongAdder written = new LongAdder();
+
+	private final LongAdder unchanged = new LongAdder();
+
+	private final LongAdder bytesWritten = new LongAdder();
+
+	public BuildMetrics() {
+		// Filled once, so the maps are only read by the listening threads.
+		for (Phase phase : Phase.values()) {
+			nanos.put(phase, new LongAdder());
+			counts.put(phase, new LongAdder());
+		}
+	}
+
+	@Override
+	public void phase(Phase phase, long nanos) {
+		this.nanos.get(phase).add(nanos);
+		counts.get(phase).increment();
+	}
+
+	@Override
+	public void scanned(Path root, int files) {
+		indexed.add(files);
+	}
+
+	@Override
+	public void cacheHit(Path file, long bytes) {
+		hits.increment();
+		bytesCached.add(bytes);
+		touched.add(file);
+	}
+
+	@Override
+	public void cacheMiss(Path file, long bytes) {
+		misses.increment();
+		bytesRead.add(bytes);
+		touched.add(file);
+	}
+
+	@Override
+	public void nodes(String section, int count) {
+		nodes.computeIfAbsent(section, k -> new LongAdder()).add(count);
+	}
+
+	@Override
+	public void written(File file, long bytes, boolean changed) {
+		if (changed) {
+			written.increment();
+			bytesWritten.add(bytes);
+		} else {
+			unchanged.increment();
+		}
+		touched.add(file.toPath());
+	}
+
+	/**
+	 * @return the total duration of the phase, summed over the threads.
+	 */
+	public long getNanos(Phase phase) {
+		return nanos.get(phase).sum();
+	}
+
+	/**
+	 * @return how many times the phase is done.
+	 */
+	public long getCount(Phase phase) {
+		return counts.get(phase).sum();
+	}
+
+	/**
+	 * @return the number of the nodes built in the section, summed over the
+	 *         builds.
+	 */
+	public long getNodes(String section) {
+		LongAdder count = nodes.get(section);
+		return count == null ? 0 : count.sum();
+	}
+
+	public long getIndexedFiles() {
+		return indexed.sum();
+	}
+
+	public long getCacheHits() {
+		return hits.sum();
+	}
+
+	public long getCacheMisses() {
+		return misses.sum();
+	}
+
+	/**
+	 * @return the bytes of the crypto files read from the disk.
+	 */
+	public long getBytesRead() {
+		return bytesRead.sum();
+	}
+
+	/**
+	 * @return the bytes of the crypto files served from the cache.
+	 */
+	public long getBytesCached() {
+		return bytesCached.sum();
+	}
+
+	/**
+	 * @return the number of the distinct crypto and profile files read or
+	 *         written.
+	 */
+	public int getFilesTouched() {
+		return touched.size();
+	}
+
+	public long getFilesWritten() {
+		return written.sum();
+	}
+
+	public long getFilesUnchanged() {
+		return unchanged.sum();
+	}
+
+	public long getBytesWritten() {
+		return bytesWritten.sum();
+	}
+
+	public void reset() {
+		for (Phase phase : Phase.values()) {
+			nanos.get(phase).reset();
+			counts.get(phase).reset();
+		}
+		nodes.clear();
+		touched.clear();
+		for (LongAdder adder : new LongAdder[] { indexed, hits, misses, bytesCached, bytesRead, written, unchanged,
+				bytesWritten }) {
+			adder.reset();
+		}
+	}
+
+	public JsonObject toJson() {
+		JsonObject root = new JsonObject();
+		JsonObject phases = new JsonObject();
+		for (Phase phase : Phase.values()) {
+			JsonObject node = new JsonObject();
+			node.addProperty("count", getCount(phase));
+			node.addProperty("nanos", getNanos(phase));
+			phases.add(name(phase), node);
+		}
+		root.add("phases", phases);
+
+		JsonObject crypto = new JsonObject();
+		crypto.addProperty("indexed", getIndexedFiles());
+		crypto.addProperty("hits", getCacheHits());
+		crypto.addProperty("misses", getCacheMisses());
+		crypto.addProperty("bytesRead", getBytesRead());
+		crypto.addProperty("bytesCached", getBytesCached());
+		root.add("crypto", crypto);
+
+		JsonObject sections = new JsonObject();
+		for (Entry<String, Long> entry : sortedNodes().entrySet()) {
+			sections.addProperty(entry.getKey(), entry.getValue());
+		}
+		root.add("nodes", sections);
+
+		JsonObject files = new JsonObject();
+		files.addProperty("touched", getFilesTouched());
+		files.addProperty("written", getFilesWritten());
+		files.addProperty("unchanged", getFilesUnchanged());
+		files.addProperty("bytesWritten", getBytesWritten());
+		root.add("files", files);
+		return root;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder text = new StringBuilder();
+		text.append(String.format(Locale.ROOT, "%-24s %8s %12s%n", "phase", "count", "ms"));
+		for (Phase phase : Phase.values()) {
+			long count = getCount(phase);
+			if (count > 0) {
+				text.append(String.format(Locale.ROOT, "%-24s %8d %12.3f%n", name(phase), count,
+						getNanos(phase) / (double) TimeUnit.MILLISECONDS.toNanos(1)));
+			}
+		}
+		text.append(String.format(Locale.ROOT, "crypto: %d indexed, %d hits (%d KB), %d misses (%d KB read)%n",
+				getIndexedFiles(), getCacheHits(), getBytesCached() / 1024, getCacheMisses(), getBytesRead() / 1024));
+		text.append("nodes:");
+		for (Entry<String, Long> entry : sortedNodes().entrySet()) {
+			text.append(' ').append(entry.getKey()).append('=').append(entry.getValue());
+		}
+		text.append(String.format(Locale.ROOT, "%nfiles: %d touched, %d written (%d KB), %d unchanged",
+				getFilesTouched(), getFilesWritten(), getBytesWritten() / 1024, getFilesUnchanged()));
+		return text.toString();
+	}
+
+	private Map<String, Long> sortedNodes() {
+		Map<String, Long> sorted = new TreeMap<>();
+		nodes.forEach((section, count) -> sorted.put(section, count.sum()));
+		return sorted;
+	}
+
+	private static String name(Phase phase) {
+		return phase.name().toLowerCase(Locale.ROOT);
+	}
+}
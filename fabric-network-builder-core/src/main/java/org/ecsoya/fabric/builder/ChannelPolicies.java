@@ -0,0 +1,245 @@
+package org.ecsoya.fabric.builder;
+
+import java.time.Duration;
+
+import com.google.gson.JsonObject;
+
+/**
+ *
+ * The <code>policies</code> of a channel: how the client queries the channel
+ * configuration, runs the service discovery and selects the peers of the event
+ * service.
+ *
+ * The policies follow the connection profiles of the Node and Go SDKs, an
+ * unset value is not written and takes the default of the SDK. The durations
+ * are written like <code>500ms</code> or <code>5s</code>.
+ *
+ * The Java SDK (fabric-sdk-java 1.4) ignores the whole <code>policies</code>
+ * node, every key of it: its <code>NetworkConfig</code> only reads the
+ * orderers of a channel and its peers with their roles, the service discovery
+ * and the event service of a Java client are configured by the SDK properties
+ * instead. The policies only matter to the profiles shared with Node or Go
+ * clients.
+ *
+ * @author ecsoya
+ *
+ */
+public class ChannelPolicies {
+
+	private final Query queryChannelConfig = new Query(true);
+
+	private final Query discovery = new Query(false);
+
+	private String resolverStrategy;
+
+	private String balancer;
+
+	private Integer blockHeightLagThreshold;
+
+	private Integer reconnectBlockHeightLagThreshold;
+
+	private Duration peerMonitorPeriod;
+
+	/**
+	 * The policies the profiles were meant to be generated with: the channel
+	 * configuration is queried from 1 peer, and retried 5 times.
+	 */
+	public static ChannelPolicies defaults() {
+		ChannelPolicies policies = new ChannelPolicies();
+		policies.queryChannelConfig().minResponses(1).maxTargets(1).retry(5, Duration.ofMillis(500),
+				Duration.ofSeconds(5), 2.0);
+		return policies;
+	}
+
+	/**
+	 * The policy to query the configuration of the channel.
+	 */
+	public Query queryChannelConfig() {
+		return queryChannelConfig;
+	}
+
+	/**
+	 * The policy of the service discovery.
+	 */
+	public Query discovery() {
+		return discovery;
+	}
+
+	/**
+	 * How the peers of the event service are resolved, such as
+	 * <code>PreferOrg</code>, <code>MinBlockHeight</code> or
+	 * <code>Balanced</code>.
+	 */
+	public ChannelPolicies resolverStrategy(String resolverStrategy) {
+		this.resolverStrategy = resolverStrategy;
+		return this;
+	}
+
+	/**
+	 * How the event service balances the resolved peers, such as
+	 * <code>Random</code> or <code>RoundRobin</code>.
+	 */
+	public ChannelPolicies balancer(String balancer) {
+		this.balancer = balancer;
+		return this;
+	}
+
+	/**
+	 * The peers lagging more blocks behind the highest peer are not used by the
+	 * event service.
+	 */
+	public ChannelPolicies blockHeightLagThreshold(int blockHeightLagThreshold) {
+		this.blockHeightLagThreshold = blockHeightLagThreshold;
+		return this;
+	}
+
+	/**
+	 * The event service reconnects to another peer when the connected peer lags
+	 * more blocks behind.
+	 */
+	public ChannelPolicies reconnectBlockHeightLagThreshold(int reconnectBlockHeightLagThreshold) {
+		this.reconnectBlockHeightLagThreshold = reconnectBlockHeightLagThreshold;
+		return this;
+	}
+
+	/**
+	 * How often the event service checks the block height of the connected peer.
+	 */
+	public ChannelPolicies peerMonitorPeriod(Duration peerMonitorPeriod) {
+		this.peerMonitorPeriod = peerMonitorPeriod;
+		return this;
+	}
+
+	/**
+	 * The policy to query the peers, with retries.
+	 */
+	public class Query {
+
+		private final boolean responses;
+
+		private Integer minResponses;
+
+		private Integer maxTargets;
+
+		private Integer attempts;
+
+		private Duration initialBackoff;
+
+		private Duration maxBackoff;
+
+		private Double backoffFactor;
+
+		private Query(boolean responses) {
+			this.responses = responses;
+		}
+
+		/**
+		 * The responses needed, only for the channel configuration.
+		 */
+		public Query minResponses(int minResponses) {
+			if (!responses) {
+				throw new UnsupportedOperationException("minResponses is only a policy of queryChannelConfig");
+			}
+			this.minResponses = minResponses;
+			return this;
+		}
+
+		/**
+		 * The number of the peers queried at the same time.
+		 */
+		public Query maxTargets(int maxTargets) {
+			this.maxTargets = maxTargets;
+			return this;
+		}
+
+		/**
+		 * Retry the failed queries, the backoff is multiplied by the factor after
+		 * every attempt.
+		 */
+		public Query retry(int attempts, Duration initialBackoff, Duration maxBackoff, double backoffFactor) {
+			this.attempts = attempts;
+			this.initialBackoff = initialBackoff;
+			this.maxBackoff = maxBackoff;
+			this.backoffFactor = backoffFactor;
+			return this;
+		}
+
+		/**
+		 * Back to the channel policies.
+		 */
+		public ChannelPolicies and() {
+			return ChannelPolicies.this;
+		}
+
+		private JsonObject build() {
+			JsonObject node = new JsonObject();
+			if (minResponses != null) {
+				node.addProperty("minResponses", minResponses);
+			}
+			if (maxTargets != null) {
+				node.addProperty("maxTargets", maxTargets);
+			}
+			JsonObject retryOpts = new JsonObject();
+			if (attempts != null) {
+				retryOpts.addProperty("attempts", attempts);
+			}
+			if (initialBackoff != null) {
+				retryOpts.addProperty("initialBackoff", format(initialBackoff));
+			}
+			if (maxBackoff != null) {
+				retryOpts.addProperty("maxBackoff", format(maxBackoff));
+			}
+			if (backoffFactor != null) {
+				retryOpts.addProperty("backoffFactor", backoffFactor);
+			}
+			if (retryOpts.size() > 0) {
+				node.add("retryOpts", retryOpts);
+			}
+			return node;
+		}
+	}
+
+	/**
+	 * @return a new <code>policies</code> node of a channel.
+	 */
+	public JsonObject build() {
+		JsonObject policies = new JsonObject();
+		JsonObject query = queryChannelConfig.build();
+		if (query.size() > 0) {
+			policies.add("queryChannelConfig", query);
+		}
+		JsonObject discovery = this.discovery.build();
+		if (discovery.size() > 0) {
+			policies.add("discovery", discovery);
+		}
+		JsonObject eventService = new JsonObject();
+		if (resolverStrategy != null) {
+			eventService.addProperty("resolverStrategy", resolverStrategy);
+		}
+		if (balancer != null) {
+			eventService.addProperty("balancer", balancer);
+		}
+		if (blockHeightLagThreshold != null) {
+			eventService.addProperty("blockHeightLagThreshold", blockHeightLagThreshold);
+		}
+		if (reconnectBlockHeightLagThreshold != null) {
+			eventService.addProperty("reconnectBlockHeightLagThreshold", reconnectBlockHeightLagThreshold);
+		}
+		if (peerMonitorPeriod != null) {
+			eventService.addProperty("peerMonitorPeriod", format(peerMonitorPeriod));
+		}
+		if (eventService.size() > 0) {
+			policies.add("eventService", eventService);
+		}
+		return policies;
+	}
+
+	private static String format(Duration duration) {
+		long millis = duration.toMillis();
+		if (millis % 1000 != 0) {
+			return millis + "ms";
+		}
+		return millis / 1000 + "s";
+	}
+
+}
@@ -0,0 +1,248 @@
+package org.ecsoya.fabric.builder;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+/**
+ *
+ * Prune the profile of a client to the nodes the client actually uses.
+ *
+ * The SDK creates the channel objects, and the connections, for every peer of
+ * the profile, so a full profile costs every client the whole network. A
+ * scoped profile only keeps:
+ *
+ * <ul>
+ * <li>the joined peers of the client org,</li>
+ * <li>for every channel, the endorsing peers of the fewest other orgs which
+ * satisfy the endorsement policy of the channel,</li>
+ * <li>all the orderers.</li>
+ * </ul>
+ *
+ * Only the client org keeps its admin key, its signed certificate and its CA,
+ * the other orgs keep their MSP ID and their kept peers.
+ *
+ * The endorsement policy of a channel is <code>OutOf(count, orgs)</code>, the
+ * majority of the joined orgs by default, the same as the default endorsement
+ * policy of the chaincodes. The client org is counted first, then the other
+ * orgs in their order. A peer endorses unless its roles say otherwise.
+ *
+ * @author ecsoya
+ *
+ */
+public class ClientScope {
+
+	/**
+	 * The majority of the orgs, such as 2 of 3 or 3 of 4.
+	 */
+	public static final int MAJORITY = -1;
+
+	private static final String ENDORSING_PEER = "endorsingPeer";
+
+	private Endorsement defaults = new Endorsement(MAJORITY, new String[0]);
+
+	private final Map<String, Endorsement> endorsements = new HashMap<>();
+
+	private int peersPerOrg = 1;
+
+	/**
+	 * The endorsement policy of all the channels.
+	 *
+	 * @param count the number of the orgs to endorse, or {@link #MAJORITY}.
+	 * @param orgs  the orgs which may endorse, or none for all the joined orgs.
+	 */
+	public ClientScope endorsement(int count, String... orgs) {
+		this.defaults = new Endorsement(count, orgs);
+		return this;
+	}
+
+	/**
+	 * The endorsement policy of a channel instead of the policy of all the
+	 * channels.
+	 */
+	public ClientScope endorsement(String channel, int count, String... orgs) {
+		endorsements.put(channel, new Endorsement(count, orgs));
+		return this;
+	}
+
+	/**
+	 * The endorsing peers kept of every other endorsing org, 1 by default. More
+	 * peers let the SDK fail over to another peer of the same org.
+	 */
+	public ClientScope peersPerOrg(int peersPerOrg) {
+		if (peersPerOrg < 1) {
+			throw new IllegalArgumentException("peersPerOrg must be positive: " + peersPerOrg);
+		}
+		this.peersPerOrg = peersPerOrg;
+		return this;
+	}
+
+	/**
+	 * Prune the profile for the client.
+	 *
+	 * @param client the client org.
+	 */
+	public Profile apply(Profile profile, String client) {
+		Map<String, Profile.Peer> peers = new HashMap<>();
+		for (Profile.Peer peer : profile.getPeers()) {
+			peers.put(peer.getName(), peer);
+		}
+
+		Set<String> kept = new HashSet<>();
+		Map<Profile.ChannelPeers, Profile.ChannelPeers> distinctPeers = new HashMap<>();
+		Profile.Channel[] channels = new Profile.Channel[profile.getChannels().size()];
+		for (int i = 0; i < channels.length; i++) {
+			Profile.Channel channel = profile.getChannels().get(i);
+			Profile.ChannelPeers scoped = scope(channel, client, peers);
+			// The channels of the same peers still share them.
+			Profile.ChannelPeers interned = distinctPeers.putIfAbsent(scoped, scoped);
+			if (interned != null) {
+				scoped = interned;
+			}
+			kept.addAll(scoped.getPeers());
+			channels[i] = channel.withPeers(scoped);
+		}
+
+		List<Profile.Peer> keptPeers = new ArrayList<>();
+		Set<String> keptOrgs = new HashSet<>();
+		for (Profile.Peer peer : profile.getPeers()) {
+			if (kept.contains(peer.getName())) {
+				keptPeers.add(peer);
+				keptOrgs.add(peer.getOrg());
+			}
+		}
+
+		List<Profile.Org> orgs = new ArrayList<>();
+		String clientCa = null;
+		for (Profile.Org org : profile.getOrganizations()) {
+			boolean isClient = org.getName().equals(client);
+			if (!isClient && !keptOrgs.contains(org.getName())) {
+				continue;
+			}
+			List<String> orgPeers = new ArrayList<>();
+			for (String peer : org.getPeers()) {
+				if (kept.contains(peer)) {
+					orgPeers.add(peer);
+				}
+			}
+			String[] names = orgPeers.toArray(new String[0]);
+			if (isClient) {
+				clientCa = org.getCertificateAuthority();
+				orgs.add(new Profile.Org(org.getName(), clientCa, org.getAdminPrivateKey(), org.getSignedCert(), names));
+			} else {
+				orgs.add(new Profile.Org(org.getName(), null, null, null, names));
+			}
+		}
+
+		List<Profile.CertificateAuthority> cas = new ArrayList<>(1);
+		for (Profile.CertificateAuthority ca : profile.getCertificateAuthorities()) {
+			if (ca.getName().equals(clientCa)) {
+				cas.add(ca);
+			}
+		}
+
+		return new Profile(profile.getName(), profile.getClient().withOrganization(client), channels,
+				orgs.toArray(new Profile.Org[0]), profile.getOrderers().toArray(new Profile.Orderer[0]),
+				keptPeers.toArray(new Profile.Peer[0]), cas.toArray(new Profile.CertificateAuthority[0]));
+	}
+
+	/**
+	 * Keep the peers of the client org, and the endorsing peers of the other
+	 * orgs which are needed by the endorsement policy, in their order.
+	 */
+	private Profile.ChannelPeers scope(Profile.Channel channel, String client, Map<String, Profile.Peer> peers) {
+		Profile.ChannelPeers joined = channel.getPeers();
+
+		// The endorsing peers of the joined orgs, in the order of the orgs.
+		Map<String, List<String>> endorsers = new LinkedHashMap<>();
+		for (int i = 0; i < joined.getPeers().size(); i++) {
+			String name = joined.getPeers().get(i);
+			Profile.Peer peer = peers.get(name);
+			List<String> orgEndorsers = endorsers.computeIfAbsent(peer.getOrg(), k -> new ArrayList<>());
+			if (isEndorsing(joined.role(i))) {
+				orgEndorsers.add(name);
+			}
+		}
+
+		Endorsement endorsement = endorsements.getOrDefault(channel.getName(), defaults);
+		Set<String> candidates = new LinkedHashSet<>(
+				endorsement.orgs.length == 0 ? endorsers.keySet() : Arrays.asList(endorsement.orgs));
+		candidates.retainAll(endorsers.keySet());
+		int count = endorsement.count == MAJORITY ? candidates.size() / 2 + 1
+				: Math.min(endorsement.count, candidates.size());
+
+		Set<String> kept = new HashSet<>();
+		if (candidates.contains(client) && !endorsers.get(client).isEmpty()) {
+			count--;
+		}
+		for (String org : candidates) {
+			if (count <= 0) {
+				break;
+			}
+			List<String> orgEndorsers = endorsers.get(org);
+			if (org.equals(client) || orgEndorsers.isEmpty()) {
+				continue;
+			}
+			kept.addAll(orgEndorsers.subList(0, Math.min(peersPerOrg, orgEndorsers.size())));
+			count--;
+		}
+
+		List<String> names = new ArrayList<>();
+		List<JsonObject> roles = new ArrayList<>();
+		for (int i = 0; i < joined.getPeers().size(); i++) {
+			String name = joined.getPeers().get(i);
+			if (kept.contains(name) || peers.get(name).getOrg().equals(client)) {
+				names.add(name);
+				roles.add(joined.role(i));
+			}
+		}
+		return new Profile.ChannelPeers(names, roles);
+	}
+
+	/**
+	 * The SDK takes a peer without the role as an endorsing peer.
+	 */
+	private static boolean isEndorsing(JsonObject roles) {
+		JsonElement role = roles.get(ENDORSING_PEER);
+		return role == null || !role.isJsonPrimitive() || role.getAsBoolean();
+	}
+
+	/**
+	 * The options of the scope, for the fingerprints of the {@link BuildCache}.
+	 */
+	@Override
+	public String toString() {
+		Map<String, Endorsement> sorted = new TreeMap<>(endorsements);
+		return "scope(" + defaults + sorted + ", " + peersPerOrg + ")";
+	}
+
+	private static class Endorsement {
+
+		final int count;
+
+		final String[] orgs;
+
+		Endorsement(int count, String[] orgs) {
+			if (count < 1 && count != MAJORITY) {
+				throw new IllegalArgumentException("The count of the endorsing orgs must be positive: " + count);
+			}
+			this.count = count;
+			this.orgs = orgs.clone();
+		}
+
+		@Override
+		public String toString() {
+			return (count == MAJORITY ? "MAJORITY" : Integer.toString(count)) + Arrays.toString(orgs);
+		}
+	}
+}
@@ -0,0 +1,207 @@
+package org.ecsoya.fabric.builder;
+
+import java.io.IOException;
+import java.util.Map.Entry;
+
+import org.hyperledger.fabric.sdk.NetworkConfig;
+import org.hyperledger.fabric.sdk.exception.InvalidArgumentException;
+import org.hyperledger.fabric.sdk.exception.NetworkConfigurationException;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+/**
+ *
+ * A network built once for all clients.
+ *
+ * All endpoints, ports, host names and crypto materials are resolved when the
+ * topology is compiled, the profile of a client is a projection which only
+ * swaps the <code>client.organization</code>.
+ *
+ * The compiled sections are shared by all the projected profiles, they must
+ * not be modified. Use {@link JsonObject#deepCopy()} to get a modifiable
+ * profile.
+ *
+ * A topology compiled from a {@link Profile} model writes the profiles
+ * straight from the model, the JSON tree is only built for
+ * {@link #profile(String)}, once.
+ *
+ * A topology scoped by a {@link ClientScope} prunes the model for every client
+ * before the profile is projected or written.
+ *
+ * @author ecsoya
+ *
+ */
+public final class CompiledTopology {
+
+	private static final String CLIENT = "client";
+
+	private static final String ORGANIZATION = "organization";
+
+	private final Profile model;
+
+	private final ClientScope scope;
+
+	private volatile JsonObject template;
+
+	/**
+	 * @param profile the profile built for any client, or without a client. It is
+	 *                owned by the compiled topology and must not be modified
+	 *                afterwards.
+	 */
+	public CompiledTopology(JsonObject profile) {
+		if (profile == null) {
+			throw new NullPointerException("profile == null");
+		}
+		this.model = null;
+		this.scope = null;
+		this.template = profile;
+	}
+
+	/**
+	 * @param profile the model built for any client, or without a client.
+	 */
+	public CompiledTopology(Profile profile) {
+		if (profile == null) {
+			throw new NullPointerException("profile == null");
+		}
+		this.model = profile;
+		this.scope = null;
+	}
+
+	private CompiledTopology(CompiledTopology topology, ClientScope scope) {
+		this.model = topology.model;
+		this.scope = scope;
+		this.template = topology.template;
+	}
+
+	/**
+	 * @return the model of the topology, or null if it is compiled from a JSON
+	 *         tree.
+	 */
+	public Profile getModel() {
+		return model;
+	}
+
+	/**
+	 * The same topology, writing the profiles pruned by the scope for every
+	 * client.
+	 *
+	 * @throws IllegalStateException if the topology is compiled from a JSON tree.
+	 */
+	public CompiledTopology scope(ClientScope scope) {
+		if (scope == null) {
+			return unscoped();
+		}
+		if (model == null) {
+			throw new IllegalStateException("A JSON topology can not be scoped");
+		}
+		return new CompiledTopology(this, scope);
+	}
+
+	/**
+	 * @return the topology with all the nodes for every client.
+	 */
+	public CompiledTopology unscoped() {
+		return scope == null ? this : new CompiledTopology(this, null);
+	}
+
+	/**
+	 * @return the scope of the profiles, or null if every client gets all the
+	 *         nodes.
+	 */
+	public ClientScope getScope() {
+		return scope;
+	}
+
+	private JsonObject template() {
+		JsonObject result = template;
+		if (result == null) {
+			synchronized (this) {
+				result = template;
+				if (result == null) {
+					result = model.toJson();
+					template = result;
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Project the profile of the client.
+	 */
+	public JsonObject profile(String client) {
+		if (scope != null) {
+			return scope.apply(model, client).toJson();
+		}
+		JsonObject template = template();
+		JsonObject result = new JsonObject();
+		for (Entry<String, JsonElement> entry : template.entrySet()) {
+			JsonElement value = entry.getValue();
+			if (CLIENT.equals(entry.getKey()) && value.isJsonObject()) {
+				JsonObject section = new JsonObject();
+				for (Entry<String, JsonElement> child : value.getAsJsonObject().entrySet()) {
+					section.add(child.getKey(), child.getValue());
+				}
+				section.addProperty(ORGANIZATION, client);
+				value = section;
+			}
+			result.add(entry.getKey(), value);
+		}
+		return result;
+	}
+
+	/**
+	 * Create the {@link NetworkConfig} of the client in memory.
+	 *
+	 * @see NetworkConfigs#toNetworkConfig(JsonObject)
+	 */
+	public NetworkConfig networkConfig(String client) throws InvalidArgumentException, NetworkConfigurationException {
+		return NetworkConfigs.toNetworkConfig(profile(client));
+	}
+
+	/**
+	 * Render the profile of the client straight to the writer, without
+	 * projecting it first.
+	 */
+	public void write(String client, ProfileWriter writer) throws IOException {
+		if (scope != null) {
+			scope.apply(model, client).write(writer);
+			return;
+		}
+		if (model != null) {
+			model.write(client, writer);
+			return;
+		}
+		writer.beginObject();
+		for (Entry<String, JsonElement> entry : template.entrySet()) {
+			writer.name(entry.getKey());
+			JsonElement value = entry.getValue();
+			if (CLIENT.equals(entry.getKey()) && value.isJsonObject()) {
+				writeClient(value.getAsJsonObject(), client, writer);
+			} else {
+				Profiles.write(value, writer);
+			}
+		}
+		writer.endObject();
+	}
+
+	private static void writeClient(JsonObject section, String client, ProfileWriter writer) throws IOException {
+		boolean written = false;
+		writer.beginObject();
+		for (Entry<String, JsonElement> entry : section.entrySet()) {
+			writer.name(entry.getKey());
+			if (ORGANIZATION.equals(entry.getKey())) {
+				writer.value(client);
+				written = true;
+			} else {
+				Profiles.write(entry.getValue(), writer);
+			}
+		}
+		if (!written) {
+			writer.name(ORGANIZATION).value(client);
+		}
+		writer.endObject();
+	}
+}
@@ -0,0 +1,57 @@
+package org.ecsoya.fabric.builder;
+
+/**
+ *
+ * The naming of the nodes and the layout of the crypto materials of a network,
+ * such as the <code>crypto-config</code> of <code>cryptogen</code> or the
+ * materials downloaded from BBE.
+ *
+ * A layout is created for one topology, it should compile its templates with
+ * {@link PathTemplate} once when it is created, instead of concatenating the
+ * strings for every lookup.
+ *
+ * The crypto paths are relative to the root directory and separated by '/',
+ * the same as the paths of {@link CryptoIndex}.
+ *
+ * @author ecsoya
+ *
+ */
+public interface CryptoLayout {
+
+	String peerName(String org, String peer);
+
+	String ordererName(String orderer);
+
+	/**
+	 * The name of the CA node, which is also its host name.
+	 */
+	String caHostName(String org);
+
+	/**
+	 * The <code>caName</code> of the CA server, or null to omit it.
+	 */
+	String caName(String org);
+
+	/**
+	 * The <code>host:port</code> of a peer.
+	 */
+	String peerAddress(Endpoints endpoints, String org, String peer) throws NetworkBuilderException;
+
+	String caCertPath(String org);
+
+	String peerTlsCaPath(String org, String peer);
+
+	String ordererTlsCaPath(String orderer);
+
+	/**
+	 * The candidates of the admin certificate, the first existing one is used.
+	 */
+	String[] adminCertPaths(String org);
+
+	/**
+	 * The keystore directory of the admin, the key of the admin certificate is
+	 * used, or the first key by name.
+	 */
+	String adminKeyPath(String org);
+
+}
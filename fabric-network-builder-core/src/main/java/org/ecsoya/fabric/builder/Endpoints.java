@@ -0,0 +1,87 @@
+package org.ecsoya.fabric.builder;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ *
+ * The URLs and ports of the nodes, configured per org and per node.
+ *
+ * A node without its own URL falls back to the URL of its org, then to the
+ * wildcard <code>"*"</code> of the org.
+ *
+ * @author ecsoya
+ *
+ */
+public class Endpoints {
+
+	public static final String ANY = "*";
+
+	private Map<String, Map<String, String>> urls = new LinkedHashMap<>();
+	private Map<String, Map<String, Integer>> ports = new LinkedHashMap<>();
+
+	/**
+	 * @param peer the node, or null for the org itself.
+	 */
+	public Endpoints url(String org, String peer, String url) {
+		Map<String, String> value = urls.get(org);
+		if (value == null) {
+			value = new LinkedHashMap<>();
+			urls.put(org, value);
+		}
+		if (peer == null) {
+			peer = org;
+		}
+		value.put(peer, url);
+		return this;
+	}
+
+	/**
+	 * @param peer the node, or null for the org itself.
+	 */
+	public Endpoints port(String org, String peer, int port) {
+		Map<String, Integer> value = ports.get(org);
+		if (value == null) {
+			value = new LinkedHashMap<>();
+			ports.put(org, value);
+		}
+		if (peer == null) {
+			peer = org;
+		}
+		value.put(peer, port);
+		return this;
+	}
+
+	public String getUrl(String org, String peer) throws NetworkBuilderException {
+		Map<String, String> value = urls.get(org);
+		if (value == null || value.isEmpty()) {
+			throw new NetworkBuilderException("Unnable to find URL for org: " + org);
+		}
+		if (peer == null) {
+			peer = ANY;
+		}
+		if (value.containsKey(peer)) {
+			return value.get(peer);
+		} else if (value.containsKey(org)) {
+			return value.get(org);
+		} else if (value.containsKey(ANY)) {
+			return value.get(ANY);
+		}
+		throw new NetworkBuilderException("Unnable to find URL for peer: " + peer + " in org: " + org);
+	}
+
+	public Integer getPort(String org, String peer, int defaultValue) {
+		Map<String, Integer> value = ports.get(org);
+		if (value == null) {
+			return defaultValue;
+		}
+		if (peer == null) {
+			peer = org;
+		}
+		if (value.containsKey(peer)) {
+			return value.get(peer);
+		}
+		return defaultValue;
+	}
+
+}
@@ -0,0 +1,191 @@
+package org.ecsoya.fabric.builder;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+
+/**
+ *
+ * The gRPC options of the peers and orderers, and the timeouts of the client.
+ *
+ * A tuning is immutable, every <code>with</code> method returns a new tuning,
+ * so the presets can be shared and derived:
+ *
+ * <pre>
+ * GrpcTuning.HIGH_THROUGHPUT.withPeerOption("request-timeout", 600000)
+ * </pre>
+ *
+ * The message sizes are in bytes, the keepalives and timeouts in milliseconds.
+ * <code>grpc.NettyChannelBuilderOption.*</code> options are passed by the Java
+ * SDK to the <code>NettyChannelBuilder</code> of the node.
+ *
+ * @author ecsoya
+ *
+ */
+public final class GrpcTuning {
+
+	private static final String MAX_INBOUND_MESSAGE_SIZE = "grpc.NettyChannelBuilderOption.maxInboundMessageSize";
+
+	private static final String MAX_RECEIVE_MESSAGE_LENGTH = "grpc.max_receive_message_length";
+
+	private static final String MAX_SEND_MESSAGE_LENGTH = "grpc.max_send_message_length";
+
+	private static final String KEEPALIVE_TIME = "grpc.keepalive_time_ms";
+
+	private static final String KEEPALIVE_TIMEOUT = "grpc.keepalive_timeout_ms";
+
+	private static final String REQUEST_TIMEOUT = "request-timeout";
+
+	/**
+	 * The options the profiles have always been generated with.
+	 */
+	public static final GrpcTuning DEFAULT = new GrpcTuning()
+			.withPeerOption("grpc.http2.keepalive_time", 15).withPeerOption(REQUEST_TIMEOUT, 120001)
+			.withOrdererOption("grpc-max-send-message-length", 15).withOrdererOption(KEEPALIVE_TIME, 360000)
+			.withOrdererOption(KEEPALIVE_TIMEOUT, 180000).withTimeouts(30000, 30000, 30000, 30000);
+
+	/**
+	 * Large blocks and long running transactions: 100 MB messages, patient
+	 * timeouts.
+	 */
+	public static final GrpcTuning HIGH_THROUGHPUT = new GrpcTuning()
+			.withPeerOption(MAX_INBOUND_MESSAGE_SIZE, 100 * 1024 * 1024)
+			.withPeerOption(MAX_RECEIVE_MESSAGE_LENGTH, 100 * 1024 * 1024)
+			.withPeerOption(MAX_SEND_MESSAGE_LENGTH, 100 * 1024 * 1024).withPeerOption(KEEPALIVE_TIME, 120000)
+			.withPeerOption(KEEPALIVE_TIMEOUT, 20000).withPeerOption(REQUEST_TIMEOUT, 300000)
+			.withOrdererOption(MAX_INBOUND_MESSAGE_SIZE, 100 * 1024 * 1024)
+			.withOrdererOption(MAX_RECEIVE_MESSAGE_LENGTH, 100 * 1024 * 1024)
+			.withOrdererOption(MAX_SEND_MESSAGE_LENGTH, 100 * 1024 * 1024).withOrdererOption(KEEPALIVE_TIME, 120000)
+			.withOrdererOption(KEEPALIVE_TIMEOUT, 20000).withOrdererOption(REQUEST_TIMEOUT, 300000)
+			.withTimeouts(120000, 120000, 120000, 120000);
+
+	/**
+	 * Interactive calls which should fail fast: short timeouts, and frequent
+	 * keepalives to find the broken connections before a call does.
+	 */
+	public static final GrpcTuning LOW_LATENCY = new GrpcTuning()
+			.withPeerOption(MAX_INBOUND_MESSAGE_SIZE, 16 * 1024 * 1024).withPeerOption(KEEPALIVE_TIME, 10000)
+			.withPeerOption(KEEPALIVE_TIMEOUT, 5000).withPeerOption(REQUEST_TIMEOUT, 10000)
+			.withOrdererOption(MAX_INBOUND_MESSAGE_SIZE, 16 * 1024 * 1024).withOrdererOption(KEEPALIVE_TIME, 10000)
+			.withOrdererOption(KEEPALIVE_TIMEOUT, 5000).withOrdererOption(REQUEST_TIMEOUT, 10000)
+			.withTimeouts(5000, 5000, 5000, 5000);
+
+	/**
+	 * Nodes across a wide area network: keepalives below the idle timeout of the
+	 * usual NAT gateways and load balancers, and the round trips in the
+	 * timeouts.
+	 */
+	public static final GrpcTuning WAN = new GrpcTuning()
+			.withPeerOption(MAX_INBOUND_MESSAGE_SIZE, 32 * 1024 * 1024).withPeerOption(KEEPALIVE_TIME, 60000)
+			.withPeerOption(KEEPALIVE_TIMEOUT, 30000).withPeerOption(REQUEST_TIMEOUT, 180000)
+			.withOrdererOption(MAX_INBOUND_MESSAGE_SIZE, 32 * 1024 * 1024).withOrdererOption(KEEPALIVE_TIME, 60000)
+			.withOrdererOption(KEEPALIVE_TIMEOUT, 30000).withOrdererOption(REQUEST_TIMEOUT, 180000)
+			.withTimeouts(90000, 90000, 90000, 90000);
+
+	private final Map<String, JsonPrimitive> peerOptions;
+
+	private final Map<String, JsonPrimitive> ordererOptions;
+
+	private final int[] timeouts;
+
+	private GrpcTuning() {
+		this(Collections.emptyMap(), Collections.emptyMap(), new int[4]);
+	}
+
+	private GrpcTuning(Map<String, JsonPrimitive> peerOptions, Map<String, JsonPrimitive> ordererOptions,
+			int[] timeouts) {
+		this.peerOptions = peerOptions;
+		this.ordererOptions = ordererOptions;
+		this.timeouts = timeouts;
+	}
+
+	/**
+	 * Look up a preset by its name, such as <code>high-throughput</code>.
+	 */
+	public static GrpcTuning valueOf(String name) {
+		switch (name.trim().toUpperCase(Locale.ROOT).replace('-', '_')) {
+		case "DEFAULT":
+			return DEFAULT;
+		case "HIGH_THROUGHPUT":
+			return HIGH_THROUGHPUT;
+		case "LOW_LATENCY":
+			return LOW_LATENCY;
+		case "WAN":
+			return WAN;
+		default:
+			throw new IllegalArgumentException("Unknown gRPC tuning: " + name);
+		}
+	}
+
+	/**
+	 * Set a gRPC option of the peers, or remove it with a null value.
+	 */
+	public GrpcTuning withPeerOption(String key, Object value) {
+		return new GrpcTuning(with(peerOptions, key, value), ordererOptions, timeouts);
+	}
+
+	/**
+	 * Set a gRPC option of the orderers, or remove it with a null value.
+	 */
+	public GrpcTuning withOrdererOption(String key, Object value) {
+		return new GrpcTuning(peerOptions, with(ordererOptions, key, value), timeouts);
+	}
+
+	/**
+	 * The <code>client.connection.timeout</code> of the profile.
+	 */
+	public GrpcTuning withTimeouts(int endorser, int eventHub, int eventReg, int orderer) {
+		return new GrpcTuning(peerOptions, ordererOptions, new int[] { endorser, eventHub, eventReg, orderer });
+	}
+
+	public Map<String, JsonPrimitive> getPeerOptions() {
+		return peerOptions;
+	}
+
+	public Map<String, JsonPrimitive> getOrdererOptions() {
+		return ordererOptions;
+	}
+
+	/**
+	 * Add the options to the <code>grpcOptions</code> of a node.
+	 */
+	static void addOptions(JsonObject grpcOptions, Map<String, JsonPrimitive> options) {
+		for (Entry<String, JsonPrimitive> option : options.entrySet()) {
+			grpcOptions.add(option.getKey(), option.getValue());
+		}
+	}
+
+	/**
+	 * @return the <code>client.connection.timeout</code> of the profile.
+	 */
+	JsonObject buildTimeout() {
+		JsonObject timeout = new JsonObject();
+		JsonObject peer = new JsonObject();
+		peer.addProperty("endorser", timeouts[0]);
+		peer.addProperty("eventHub", timeouts[1]);
+		peer.addProperty("eventReg", timeouts[2]);
+		timeout.add("peer", peer);
+		timeout.addProperty("orderer", timeouts[3]);
+		return timeout;
+	}
+
+	private static Map<String, JsonPrimitive> with(Map<String, JsonPrimitive> options, String key, Object value) {
+		Map<String, JsonPrimitive> result = new LinkedHashMap<>(options);
+		if (value == null) {
+			result.remove(key);
+		} else if (value instanceof Number) {
+			result.put(key, new JsonPrimitive((Number) value));
+		} else if (value instanceof Boolean) {
+			result.put(key, new JsonPrimitive((Boolean) value));
+		} else {
+			result.put(key, new JsonPrimitive(value.toString()));
+		}
+		return Collections.unmodifiableMap(result);
+	}
+
+}
@@ -0,0 +1,324 @@
+package org.ecsoya.fabric.builder;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+import com.google.gson.stream.JsonWriter;
+
+/**
+ *
+ * Write a connection profile as JSON, which can be loaded by
+ * <code>NetworkConfig.fromJsonFile</code>.
+ *
+ * With {@link #setHoistPems(boolean) hoisted PEMs}, every distinct multi-line
+ * value is written only once into the <code>x-pems</code> section at the end
+ * of the profile, and referenced by <code>{"$ref": "#/x-pems/pem1"}</code>
+ * everywhere else.
+ *
+ * With {@link #setReferences(boolean) references}, an object shared in the
+ * profile tree is written once, and referenced by a JSON pointer to it, such
+ * as <code>{"$ref": "#/channels/mychannel/peers"}</code>, everywhere else.
+ *
+ * The profiles with either kind of references must be resolved by
+ * {@link Profiles#resolveReferences(com.google.gson.JsonObject)} before they
+ * are loaded by the SDK.
+ *
+ * @author ecsoya
+ *
+ */
+public class JsonProfileWriter implements ProfileWriter {
+
+	public static final String PEMS = "x-pems";
+
+	public static final String REF = "$ref";
+
+	private final JsonWriter writer;
+
+	/**
+	 * The names of the hoisted values, or null if PEMs are not hoisted.
+	 */
+	private Map<String, String> pems;
+
+	private int depth;
+
+	/**
+	 * The JSON pointers of the shared objects, or null without references.
+	 */
+	private Map<String, String> shared;
+
+	/**
+	 * The containers being written, to locate the shared objects.
+	 */
+	private final Deque<Level> levels = new ArrayDeque<>();
+
+	/**
+	 * The ID of the next container, which is shared.
+	 */
+	private String pendingShare;
+
+	public JsonProfileWriter(Writer out) {
+		this(out, true);
+	}
+
+	public JsonProfileWriter(Writer out, boolean pretty) {
+		this.writer = new JsonWriter(out);
+		this.writer.setHtmlSafe(false);
+		// A missing PEM is skipped, as Gson does, instead of "pem": null.
+		this.writer.setSerializeNulls(false);
+		if (pretty) {
+			this.writer.setIndent("  ");
+		}
+	}
+
+	public void setHoistPems(boolean hoistPems) {
+		if (!hoistPems) {
+			this.pems = null;
+		} else if (this.pems == null) {
+			this.pems = new LinkedHashMap<>();
+		}
+	}
+
+	public boolean isHoistPems() {
+		return pems != null;
+	}
+
+	public void setReferences(boolean references) {
+		if (!references) {
+			this.shared = null;
+		} else if (this.shared == null) {
+			this.shared = new HashMap<>();
+		}
+	}
+
+	public boolean isReferences() {
+		return shared != null;
+	}
+
+	@Override
+	public boolean isSharing() {
+		return shared != null;
+	}
+
+	@Override
+	public String share() throws IOException {
+		if (shared == null) {
+			throw new UnsupportedOperationException();
+		}
+		pendingShare = "shared" + (shared.size() + 1);
+		return pendingShare;
+	}
+
+	@Override
+	public ProfileWriter reference(String id) throws IOException {
+		String pointer = shared == null ? null : shared.get(id);
+		if (pointer == null) {
+			throw new IllegalStateException("Unknown shared object: " + id);
+		}
+		next();
+		writer.beginObject().name(REF).value(pointer).endObject();
+		return this;
+	}
+
+	@Override
+	public ProfileWriter beginObject() throws IOException {
+		begin(false);
+		writer.beginObject();
+		depth++;
+		return this;
+	}
+
+	@Override
+	public ProfileWriter endObject() throws IOException {
+		if (--depth == 0 && pems != null && !pems.isEmpty()) {
+			writer.name(PEMS).beginObject();
+			for (Entry<String, String> entry : pems.entrySet()) {
+				writer.name(entry.getValue()).value(entry.getKey());
+			}
+			writer.endObject();
+		}
+		writer.endObject();
+		end();
+		return this;
+	}
+
+	@Override
+	public ProfileWriter beginArray() throws IOException {
+		begin(true);
+		writer.beginArray();
+		depth++;
+		return this;
+	}
+
+	@Override
+	public ProfileWriter endArray() throws IOException {
+		writer.endArray();
+		depth--;
+		end();
+		return this;
+	}
+
+	@Override
+	public ProfileWriter name(String name) throws IOException {
+		writer.name(name);
+		if (shared != null && !levels.isEmpty()) {
+			levels.peek().name = name;
+		}
+		return this;
+	}
+
+	@Override
+	public ProfileWriter value(String value) throws IOException {
+		next();
+		if (pems != null && value != null && value.indexOf('\n') >= 0) {
+			String name = pems.get(value);
+			if (name == null) {
+				name = "pem" + (pems.size() + 1);
+				pems.put(value, name);
+			}
+			writer.beginObject().name(REF).value("#/" + PEMS + "/" + name).endObject();
+			return this;
+		}
+		writer.value(value);
+		return this;
+	}
+
+	@Override
+	public ProfileWriter value(boolean value) throws IOException {
+		next();
+		writer.value(value);
+		return this;
+	}
+
+	@Override
+	public ProfileWriter value(long value) throws IOException {
+		next();
+		writer.value(value);
+		return this;
+	}
+
+	@Override
+	public ProfileWriter value(Number value) throws IOException {
+		next();
+		writer.value(value);
+		return this;
+	}
+
+	@Override
+	public ProfileWriter nullValue() throws IOException {
+		next();
+		writer.nullValue();
+		return this;
+	}
+
+	private void begin(boolean array) {
+		if (shared == null) {
+			return;
+		}
+		if (pendingShare != null) {
+			shared.put(pendingShare, pointer());
+			pendingShare = null;
+		}
+		next();
+		levels.push(new Level(array));
+	}
+
+	private void end() {
+		if (shared != null) {
+			levels.pop();
+		}
+	}
+
+	/**
+	 * Count the next element of an array.
+	 */
+	private void next() {
+		if (shared != null && !levels.isEmpty() && levels.peek().array) {
+			levels.peek().index++;
+		}
+	}
+
+	/**
+	 * @return the JSON pointer of the next element.
+	 */
+	private String pointer() {
+		StringBuilder pointer = new StringBuilder("#");
+		Level[] path = levels.toArray(new Level[levels.size()]);
+		for (int i = path.length - 1; i >= 0; i--) {
+			pointer.append('/');
+			if (path[i].array) {
+				// The next element of the innermost array, the current one of the others.
+				pointer.append(i == 0 ? path[i].index + 1 : path[i].index);
+			} else {
+				pointer.append(path[i].name.replace("~", "~0").replace("/", "~1"));
+			}
+		}
+		return pointer.toString();
+	}
+
+	/**
+	 * Find the element of a JSON pointer, such as
+	 * <code>#/channels/mychannel/peers</code>.
+	 *
+	 * @return the element, or null if it is not found.
+	 */
+	static JsonElement lookup(JsonObject root, String pointer) {
+		JsonElement element = root;
+		for (String token : pointer.substring(2).split("/", -1)) {
+			String name = token.replace("~1", "/").replace("~0", "~");
+			if (element.isJsonObject()) {
+				element = element.getAsJsonObject().get(name);
+			} else if (element.isJsonArray()) {
+				try {
+					element = element.getAsJsonArray().get(Integer.parseInt(name));
+				} catch (NumberFormatException | IndexOutOfBoundsException e) {
+					return null;
+				}
+			} else {
+				return null;
+			}
+			if (element == null) {
+				return null;
+			}
+		}
+		return element;
+	}
+
+	private static class Level {
+
+		private final boolean array;
+
+		/**
+		 * The index of the current element of an array, from -1.
+		 */
+		private int index = -1;
+
+		/**
+		 * The name of the current member of an object.
+		 */
+		private String name;
+
+		private Level(boolean array) {
+			this.array = array;
+		}
+	}
+
+	@Override
+	public void flush() throws IOException {
+		writer.flush();
+	}
+
+	@Override
+	public void close() throws IOException {
+		writer.close();
+	}
+
+}
@@ -0,0 +1,149 @@
+package org.ecsoya.fabric.builder;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+/**
+ *
+ * Assign the roles of the peers in the channels of a profile by their latency,
+ * the fastest peers of every org endorse and source the events.
+ *
+ * The roles are only reassigned for the orgs with at least one reachable peer,
+ * the unreachable peers of such an org take no role. An org without any
+ * reachable peer keeps the roles it was built with, so that a profile built
+ * offline is not broken.
+ *
+ * @author ecsoya
+ *
+ */
+public class LatencyRoles {
+
+	/**
+	 * All the reachable peers.
+	 */
+	public static final int ALL = Integer.MAX_VALUE;
+
+	private int endorsers = 1;
+
+	private int eventSources = 1;
+
+	private int chaincodeQueries = ALL;
+
+	private int ledgerQueries = ALL;
+
+	/**
+	 * The number of the fastest peers of every org to endorse, 1 by default.
+	 */
+	public LatencyRoles endorsers(int endorsers) {
+		this.endorsers = endorsers;
+		return this;
+	}
+
+	/**
+	 * The number of the fastest peers of every org to source the events, 1 by
+	 * default.
+	 */
+	public LatencyRoles eventSources(int eventSources) {
+		this.eventSources = eventSources;
+		return this;
+	}
+
+	/**
+	 * The number of the fastest peers of every org to query the chaincodes,
+	 * {@link #ALL} by default.
+	 */
+	public LatencyRoles chaincodeQueries(int chaincodeQueries) {
+		this.chaincodeQueries = chaincodeQueries;
+		return this;
+	}
+
+	/**
+	 * The number of the fastest peers of every org to query the ledger,
+	 * {@link #ALL} by default.
+	 */
+	public LatencyRoles ledgerQueries(int ledgerQueries) {
+		this.ledgerQueries = ledgerQueries;
+		return this;
+	}
+
+	/**
+	 * Probe the peers of the profile and reassign their roles.
+	 *
+	 * @return the latencies of the peers.
+	 */
+	public Map<String, Long> apply(JsonObject profile, PeerProber prober) {
+		Map<String, Long> latencies = prober.probe(profile);
+		apply(profile, latencies);
+		return latencies;
+	}
+
+	/**
+	 * Reassign the roles of the peers in all the channels of the profile.
+	 *
+	 * @param latencies the latencies of the peers by their names, see
+	 *                  {@link PeerProber#probe(JsonObject)}.
+	 */
+	public void apply(JsonObject profile, Map<String, Long> latencies) {
+		Map<String, JsonObject> roles = new HashMap<>();
+		JsonElement organizations = profile.get("organizations");
+		if (organizations == null || !organizations.isJsonObject()) {
+			return;
+		}
+		for (Entry<String, JsonElement> org : organizations.getAsJsonObject().entrySet()) {
+			JsonElement peers = org.getValue().getAsJsonObject().get("peers");
+			if (peers == null || !peers.isJsonArray()) {
+				continue;
+			}
+			List<String> ranked = new ArrayList<>();
+			for (JsonElement peer : peers.getAsJsonArray()) {
+				String name = peer.getAsString();
+				if (latencies.getOrDefault(name, PeerProber.UNREACHABLE) != PeerProber.UNREACHABLE) {
+					ranked.add(name);
+				}
+			}
+			if (ranked.isEmpty()) {
+				continue;
+			}
+			// Stable, the peers of the same latency keep the order of the org.
+			ranked.sort(Comparator.comparingLong(latencies::get));
+			for (JsonElement peer : peers.getAsJsonArray()) {
+				String name = peer.getAsString();
+				int rank = ranked.indexOf(name);
+				if (rank < 0) {
+					rank = Integer.MAX_VALUE;
+				}
+				JsonObject o = new JsonObject();
+				o.addProperty("endorsingPeer", rank < endorsers);
+				o.addProperty("chaincodeQuery", rank < chaincodeQueries);
+				o.addProperty("ledgerQuery", rank < ledgerQueries);
+				o.addProperty("eventSource", rank < eventSources);
+				roles.put(name, o);
+			}
+		}
+
+		JsonElement channels = profile.get("channels");
+		if (channels == null || !channels.isJsonObject()) {
+			return;
+		}
+		for (Entry<String, JsonElement> channel : channels.getAsJsonObject().entrySet()) {
+			JsonElement peers = channel.getValue().getAsJsonObject().get("peers");
+			if (peers == null || !peers.isJsonObject()) {
+				continue;
+			}
+			for (Entry<String, JsonElement> peer : peers.getAsJsonObject().entrySet()) {
+				JsonObject o = roles.get(peer.getKey());
+				if (o != null) {
+					peer.setValue(o.deepCopy());
+				}
+			}
+		}
+	}
+
+}
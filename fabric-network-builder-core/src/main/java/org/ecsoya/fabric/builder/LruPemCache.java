@@ -0,0 +1,161 @@
+package org.ecsoya.fabric.builder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ *
+ * A size-bounded {@link PemCache}, the least recently used files are evicted
+ * first.
+ *
+ * A file is cached by its path, and reread when its modified time or size
+ * changes. The file is checked on every read, the attributes given by the
+ * caller, such as the ones recorded by a {@link CryptoIndex} scan, may be older
+ * than the file. Files with identical contents share a single String instance, so
+ * for example the tlsca cert of an org is held only once for all its peers.
+ *
+ * @author ecsoya
+ *
+ */
+public class LruPemCache implements PemCache {
+
+	/**
+	 * 16M chars, enough for the crypto materials of thousands of nodes.
+	 */
+	public static final long DEFAULT_MAX_SIZE = 16L * 1024 * 1024;
+
+	private final long maxSize;
+
+	private final LinkedHashMap<Path, Entry> entries = new LinkedHashMap<>(64, 0.75f, true);
+
+	private final Map<String, Content> contents = new HashMap<>();
+
+	/**
+	 * Total length of the distinct contents held by the cache.
+	 */
+	private long size;
+
+	public LruPemCache() {
+		this(DEFAULT_MAX_SIZE);
+	}
+
+	/**
+	 * @param maxSize the maximum total length of the distinct cached contents.
+	 */
+	public LruPemCache(long maxSize) {
+		if (maxSize <= 0) {
+			throw new IllegalArgumentException("maxSize must be positive: " + maxSize);
+		}
+		this.maxSize = maxSize;
+	}
+
+	@Override
+	public String read(Path file) throws IOException {
+		Path key = file.toAbsolutePath().normalize();
+		return read(key, Files.readAttributes(key, BasicFileAttributes.class));
+	}
+
+	@Override
+	public String read(Path file, BasicFileAttributes attributes) throws IOException {
+		return read(file, attributes, BuildListener.NONE);
+	}
+
+	@Override
+	public String read(Path file, BasicFileAttributes attributes, BuildListener listener) throws IOException {
+		Path key = file.toAbsolutePath().normalize();
+		// A rotated file keeps its path, only its attributes tell it apart.
+		attributes = Files.readAttributes(key, BasicFileAttributes.class);
+		long modified = attributes.lastModifiedTime().toMillis();
+		long length = attributes.size();
+		synchronized (this) {
+			Entry entry = entries.get(key);
+			if (entry != null && entry.modified == modified && entry.length == length) {
+				listener.cacheHit(key, length);
+				return entry.content.value;
+			}
+		}
+
+		// Read outside of the lock, so the builders of different clients are not
+		// serialized by the disk I/O.
+		String value = new String(Files.readAllBytes(key), StandardCharsets.UTF_8);
+		listener.cacheMiss(key, length);
+
+		synchronized (this) {
+			Content content = contents.get(value);
+			if (content == null) {
+				content = new Content(value);
+				contents.put(value, content);
+				size += value.length();
+			}
+			content.references++;
+			Entry old = entries.put(key, new Entry(modified, length, content));
+			if (old != null) {
+				release(old.content);
+			}
+			evict(key);
+			return content.value;
+		}
+	}
+
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	public synchronized void clear() {
+		entries.clear();
+		contents.clear();
+		size = 0;
+	}
+
+	private void evict(Path keep) {
+		Iterator<Map.Entry<Path, Entry>> iterator = entries.entrySet().iterator();
+		while (size > maxSize && iterator.hasNext()) {
+			Map.Entry<Path, Entry> eldest = iterator.next();
+			if (eldest.getKey().equals(keep)) {
+				continue;
+			}
+			iterator.remove();
+			release(eldest.getValue().content);
+		}
+	}
+
+	private void release(Content content) {
+		if (--content.references == 0) {
+			contents.remove(content.value);
+			size -= content.value.length();
+		}
+	}
+
+	private static class Entry {
+
+		final long modified;
+
+		final long length;
+
+		final Content content;
+
+		Entry(long modified, long length, Content content) {
+			this.modified = modified;
+			this.length = length;
+			this.content = content;
+		}
+	}
+
+	private static class Content {
+
+		final String value;
+
+		int references;
+
+		Content(String value) {
+			this.value = value;
+		}
+	}
+}
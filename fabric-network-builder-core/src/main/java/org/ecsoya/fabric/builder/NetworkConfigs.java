@@ -0,0 +1,138 @@
+package org.ecsoya.fabric.builder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Map.Entry;
+
+import javax.json.Json;
+import javax.json.JsonArrayBuilder;
+import javax.json.JsonBuilderFactory;
+import javax.json.JsonObjectBuilder;
+
+import org.hyperledger.fabric.gateway.Gateway;
+import org.hyperledger.fabric.sdk.NetworkConfig;
+import org.hyperledger.fabric.sdk.exception.InvalidArgumentException;
+import org.hyperledger.fabric.sdk.exception.NetworkConfigurationException;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+
+/**
+ *
+ * Load the profiles built by the network builders into the SDK in memory,
+ * without writing, emitting and parsing any YAML file.
+ *
+ * @author ecsoya
+ *
+ */
+public final class NetworkConfigs {
+
+	/**
+	 * Looking up the JSON provider is expensive, so the factory is created once.
+	 */
+	private static final JsonBuilderFactory FACTORY = Json.createBuilderFactory(null);
+
+	private NetworkConfigs() {
+	}
+
+	/**
+	 * Create the {@link NetworkConfig} of the profile, the JSON tree is
+	 * converted directly to the <code>javax.json</code> tree read by the SDK.
+	 */
+	public static NetworkConfig toNetworkConfig(JsonObject profile)
+			throws InvalidArgumentException, NetworkConfigurationException {
+		return NetworkConfig.fromJsonObject(toJsonObject(profile).build());
+	}
+
+	/**
+	 * Configure the network of the gateway with the profile.
+	 *
+	 * The gateway only accepts a stream, the profile is written to it as compact
+	 * JSON in memory.
+	 */
+	public static Gateway.Builder networkConfig(Gateway.Builder builder, JsonObject profile) throws IOException {
+		return builder.networkConfig(toInputStream(profile));
+	}
+
+	/**
+	 * @return the profile as UTF-8 encoded compact JSON, which can be read by
+	 *         <code>NetworkConfig.fromJsonStream</code>.
+	 */
+	public static InputStream toInputStream(JsonObject profile) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream(8192);
+		Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+		JsonProfileWriter json = new JsonProfileWriter(writer, false);
+		Profiles.write(profile, json);
+		json.flush();
+		return new ByteArrayInputStream(out.toByteArray());
+	}
+
+	private static JsonObjectBuilder toJsonObject(JsonObject object) {
+		JsonObjectBuilder builder = FACTORY.createObjectBuilder();
+		for (Entry<String, JsonElement> entry : object.entrySet()) {
+			String name = entry.getKey();
+			JsonElement value = entry.getValue();
+			if (value == null || value.isJsonNull()) {
+				builder.addNull(name);
+			} else if (value.isJsonObject()) {
+				builder.add(name, toJsonObject(value.getAsJsonObject()));
+			} else if (value.isJsonArray()) {
+				builder.add(name, toJsonArray(value.getAsJsonArray()));
+			} else {
+				JsonPrimitive primitive = value.getAsJsonPrimitive();
+				if (primitive.isBoolean()) {
+					builder.add(name, primitive.getAsBoolean());
+				} else if (isIntegral(primitive)) {
+					builder.add(name, primitive.getAsLong());
+				} else if (primitive.isNumber()) {
+					builder.add(name, primitive.getAsBigDecimal());
+				} else {
+					builder.add(name, primitive.getAsString());
+				}
+			}
+		}
+		return builder;
+	}
+
+	private static JsonArrayBuilder toJsonArray(JsonArray array) {
+		JsonArrayBuilder builder = FACTORY.createArrayBuilder();
+		for (JsonElement value : array) {
+			if (value == null || value.isJsonNull()) {
+				builder.addNull();
+			} else if (value.isJsonObject()) {
+				builder.add(toJsonObject(value.getAsJsonObject()));
+			} else if (value.isJsonArray()) {
+				builder.add(toJsonArray(value.getAsJsonArray()));
+			} else {
+				JsonPrimitive primitive = value.getAsJsonPrimitive();
+				if (primitive.isBoolean()) {
+					builder.add(primitive.getAsBoolean());
+				} else if (isIntegral(primitive)) {
+					builder.add(primitive.getAsLong());
+				} else if (primitive.isNumber()) {
+					builder.add(primitive.getAsBigDecimal());
+				} else {
+					builder.add(primitive.getAsString());
+				}
+			}
+		}
+		return builder;
+	}
+
+	private static boolean isIntegral(JsonPrimitive primitive) {
+		if (!primitive.isNumber()) {
+			return false;
+		}
+		Number number = primitive.getAsNumber();
+		return number instanceof Integer || number instanceof Long || number instanceof Short
+				|| number instanceof Byte;
+	}
+
+}
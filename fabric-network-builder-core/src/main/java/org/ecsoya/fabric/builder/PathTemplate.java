@@ -0,0 +1,168 @@
+package org.ecsoya.fabric.builder;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ *
+ * A compiled path or name template, such as
+ * <code>peerOrganizations/{org}.{domain}/ca/ca.{org}.{domain}-cert.pem</code>.
+ *
+ * The template is parsed once, the variables which are the same for the whole
+ * topology, like <code>{domain}</code>, are folded into the literals by
+ * {@link #bind(String, String)}. Expanding a template only appends the
+ * literals and the parameters into one exactly sized buffer.
+ *
+ * @author ecsoya
+ *
+ */
+public final class PathTemplate {
+
+	private final String pattern;
+
+	private final List<String> tokens;
+
+	private final String[] parameters;
+
+	private final Map<String, String> bindings;
+
+	/**
+	 * The literals around the parameters, <code>literals.length</code> is always
+	 * <code>slots.length + 1</code>.
+	 */
+	private final String[] literals;
+
+	/**
+	 * The index of the parameter of every slot.
+	 */
+	private final int[] slots;
+
+	/**
+	 * The first variable which is neither a parameter nor bound, or null.
+	 */
+	private final String unbound;
+
+	private final int length;
+
+	private PathTemplate(String pattern, List<String> tokens, String[] parameters, Map<String, String> bindings) {
+		this.pattern = pattern;
+		this.tokens = tokens;
+		this.parameters = parameters;
+		this.bindings = bindings;
+
+		List<String> literals = new ArrayList<>();
+		List<Integer> slots = new ArrayList<>();
+		StringBuilder literal = new StringBuilder();
+		String unbound = null;
+		for (int i = 0; i < tokens.size(); i++) {
+			String token = tokens.get(i);
+			if (i % 2 == 0) {
+				literal.append(token);
+				continue;
+			}
+			String value = bindings.get(token);
+			int parameter = Arrays.asList(parameters).indexOf(token);
+			if (value != null) {
+				literal.append(value);
+			} else if (parameter >= 0) {
+				literals.add(literal.toString());
+				literal.setLength(0);
+				slots.add(parameter);
+			} else if (unbound == null) {
+				unbound = token;
+			}
+		}
+		literals.add(literal.toString());
+
+		this.literals = literals.toArray(new String[literals.size()]);
+		this.slots = new int[slots.size()];
+		int length = 0;
+		for (int i = 0; i < this.slots.length; i++) {
+			this.slots[i] = slots.get(i);
+		}
+		for (String value : this.literals) {
+			length += value.length();
+		}
+		this.unbound = unbound;
+		this.length = length;
+	}
+
+	/**
+	 * Compile the template.
+	 *
+	 * @param pattern    the template, the variables are written as
+	 *                   <code>{name}</code>.
+	 * @param parameters the variables given to {@link #expand(String...)}, in
+	 *                   order. The others must be bound.
+	 */
+	public static PathTemplate compile(String pattern, String... parameters) {
+		// Tokens are literals and variable names by turns, starting and ending with
+		// a literal.
+		List<String> tokens = new ArrayList<>();
+		int start = 0;
+		int open;
+		while ((open = pattern.indexOf('{', start)) >= 0) {
+			int close = pattern.indexOf('}', open);
+			if (close < 0) {
+				throw new IllegalArgumentException("Unclosed variable in template: " + pattern);
+			}
+			String name = pattern.substring(open + 1, close);
+			if (name.isEmpty()) {
+				throw new IllegalArgumentException("Empty variable in template: " + pattern);
+			}
+			tokens.add(pattern.substring(start, open));
+			tokens.add(name);
+			start = close + 1;
+		}
+		tokens.add(pattern.substring(start));
+		return new PathTemplate(pattern, tokens, parameters.clone(), new HashMap<String, String>());
+	}
+
+	/**
+	 * Bind a variable which is not a parameter to a constant value.
+	 *
+	 * @return a new template with the value folded into the literals.
+	 */
+	public PathTemplate bind(String variable, String value) {
+		if (value == null) {
+			throw new NullPointerException("value == null");
+		}
+		if (Arrays.asList(parameters).contains(variable)) {
+			throw new IllegalArgumentException("Unable to bind the parameter: " + variable);
+		}
+		Map<String, String> bindings = new HashMap<>(this.bindings);
+		bindings.put(variable, value);
+		return new PathTemplate(pattern, tokens, parameters, bindings);
+	}
+
+	public String expand(String... values) {
+		if (unbound != null) {
+			throw new IllegalStateException("The variable " + unbound + " is not bound: " + pattern);
+		}
+		if (values.length != parameters.length) {
+			throw new IllegalArgumentException(
+					"Expected " + parameters.length + " values but got " + values.length + ": " + pattern);
+		}
+		if (slots.length == 0) {
+			return literals[0];
+		}
+		int capacity = length;
+		for (int slot : slots) {
+			capacity += values[slot].length();
+		}
+		StringBuilder result = new StringBuilder(capacity);
+		result.append(literals[0]);
+		for (int i = 0; i < slots.length; i++) {
+			result.append(values[slots[i]]).append(literals[i + 1]);
+		}
+		return result.toString();
+	}
+
+	@Override
+	public String toString() {
+		return pattern;
+	}
+}
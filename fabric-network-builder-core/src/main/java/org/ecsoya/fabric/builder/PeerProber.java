@@ -0,0 +1,304 @@
+package org.ecsoya.fabric.builder;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.security.KeyStoreException;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateException;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.ssl.SNIHostName;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLException;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.TrustManagerFactory;
+import javax.net.ssl.X509TrustManager;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+/**
+ *
+ * Measure the connect latency from here to every peer of a profile, the peers
+ * are probed in parallel.
+ *
+ * A probe opens a TCP connection to the <code>url</code> of the peer, and with
+ * {@link #tls(boolean) TLS} also completes the handshake of a
+ * <code>grpcs</code> peer, trusting only the <code>tlsCACerts</code> of the
+ * peer. A handshake rejected by the peer after its certificate was trusted, for
+ * example because it requires a client certificate, still measures the round
+ * trips, so it counts as reachable. A peer whose certificate is not trusted,
+ * whose <code>tlsCACerts</code> can not be read, or whose handshake fails
+ * otherwise, is {@link #UNREACHABLE}. The best of all
+ * {@link #attempts(int) attempts} is taken.
+ *
+ * @author ecsoya
+ *
+ */
+public class PeerProber {
+
+	/**
+	 * The latency of the peers which can not be connected.
+	 */
+	public static final long UNREACHABLE = Long.MAX_VALUE;
+
+	private int timeout = 2000;
+
+	private int attempts = 3;
+
+	private boolean tls = true;
+
+	private int threads = 32;
+
+	/**
+	 * The connect and handshake timeout of a probe in milliseconds, 2000 by
+	 * default.
+	 */
+	public PeerProber timeout(int timeout) {
+		this.timeout = timeout;
+		return this;
+	}
+
+	/**
+	 * The attempts of every peer, 3 by default.
+	 */
+	public PeerProber attempts(int attempts) {
+		if (attempts < 1) {
+			throw new IllegalArgumentException("attempts must be positive: " + attempts);
+		}
+		this.attempts = attempts;
+		return this;
+	}
+
+	/**
+	 * Also measure the TLS handshake, true by default.
+	 */
+	public PeerProber tls(boolean tls) {
+		this.tls = tls;
+		return this;
+	}
+
+	/**
+	 * The maximum number of peers probed at the same time, 32 by default.
+	 */
+	public PeerProber threads(int threads) {
+		if (threads < 1) {
+			throw new IllegalArgumentException("threads must be positive: " + threads);
+		}
+		this.threads = threads;
+		return this;
+	}
+
+	/**
+	 * Probe all the peers of the profile.
+	 *
+	 * @return the latency of every peer in nanoseconds, or {@link #UNREACHABLE},
+	 *         in the order of the <code>peers</code> section.
+	 */
+	public Map<String, Long> probe(JsonObject profile) {
+		JsonElement peers = profile.get("peers");
+		if (peers == null || !peers.isJsonObject() || peers.getAsJsonObject().size() == 0) {
+			return Collections.emptyMap();
+		}
+		List<String> names = new ArrayList<>();
+		List<CompletableFuture<Long>> futures = new ArrayList<>();
+		ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, peers.getAsJsonObject().size()),
+				runnable -> {
+					Thread thread = new Thread(runnable, "peer-prober");
+					thread.setDaemon(true);
+					return thread;
+				});
+		try {
+			for (Entry<String, JsonElement> entry : peers.getAsJsonObject().entrySet()) {
+				JsonObject peer = entry.getValue().getAsJsonObject();
+				names.add(entry.getKey());
+				futures.add(CompletableFuture.supplyAsync(() -> probePeer(peer), executor));
+			}
+			Map<String, Long> latencies = new LinkedHashMap<>();
+			for (int i = 0; i < names.size(); i++) {
+				latencies.put(names.get(i), futures.get(i).join());
+			}
+			return latencies;
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	private long probePeer(JsonObject peer) {
+		URI url;
+		try {
+			url = URI.create(peer.get("url").getAsString());
+		} catch (RuntimeException e) {
+			return UNREACHABLE;
+		}
+		if (url.getHost() == null || url.getPort() < 0) {
+			return UNREACHABLE;
+		}
+		TrustedPeer trust = null;
+		if (tls && "grpcs".equalsIgnoreCase(url.getScheme())) {
+			try {
+				trust = new TrustedPeer(readPem(peer));
+			} catch (GeneralSecurityException | IOException | RuntimeException e) {
+				// The certificate of the peer can not be verified.
+				return UNREACHABLE;
+			}
+		}
+		String hostName = getString(peer, "grpcOptions", "hostnameOverride");
+		long best = UNREACHABLE;
+		for (int i = 0; i < attempts; i++) {
+			best = Math.min(best, connect(url, hostName, trust));
+		}
+		return best;
+	}
+
+	private long connect(URI url, String hostName, TrustedPeer trust) {
+		long start = System.nanoTime();
+		try (Socket socket = new Socket()) {
+			socket.connect(new InetSocketAddress(url.getHost(), url.getPort()), timeout);
+			if (trust == null) {
+				return System.nanoTime() - start;
+			}
+			socket.setSoTimeout(timeout);
+			trust.trusted = false;
+			try (SSLSocket ssl = (SSLSocket) trust.context.getSocketFactory().createSocket(socket, url.getHost(),
+					url.getPort(), false)) {
+				if (hostName != null) {
+					SSLParameters parameters = ssl.getSSLParameters();
+					parameters.setServerNames(Collections.singletonList(new SNIHostName(hostName)));
+					ssl.setSSLParameters(parameters);
+				}
+				ssl.startHandshake();
+			} catch (SSLException e) {
+				if (!trust.trusted) {
+					// Not the peer, or not the certificate of the profile.
+					return UNREACHABLE;
+				}
+				// The peer was trusted, but rejected the handshake.
+			}
+			return System.nanoTime() - start;
+		} catch (IOException e) {
+			return UNREACHABLE;
+		}
+	}
+
+	/**
+	 * @return the <code>tlsCACerts</code> of the peer, embedded or read from its
+	 *         path.
+	 */
+	private static String readPem(JsonObject peer) throws IOException {
+		String pem = getString(peer, "tlsCACerts", "pem");
+		if (pem != null) {
+			return pem;
+		}
+		String path = getString(peer, "tlsCACerts", "path");
+		if (path == null) {
+			throw new IOException("The tlsCACerts of the peer is not specified.");
+		}
+		return new String(Files.readAllBytes(Paths.get(path)), StandardCharsets.US_ASCII);
+	}
+
+	/**
+	 * Trust only the <code>tlsCACerts</code> of a peer, and remember whether the
+	 * certificate of the peer was trusted by the last handshake. The attempts of
+	 * a peer are made one by one.
+	 */
+	private static class TrustedPeer implements X509TrustManager {
+
+		final SSLContext context;
+
+		private final X509TrustManager delegate;
+
+		volatile boolean trusted;
+
+		TrustedPeer(String pem) throws GeneralSecurityException, IOException {
+			KeyStore trustStore = KeyStore.getInstance(KeyStore.getDefaultType());
+			trustStore.load(null, null);
+			int index = 0;
+			for (Certificate certificate : CertificateFactory.getInstance("X.509")
+					.generateCertificates(new ByteArrayInputStream(pem.getBytes(StandardCharsets.US_ASCII)))) {
+				trustStore.setCertificateEntry("ca" + index++, certificate);
+			}
+			if (index == 0) {
+				throw new CertificateException("No certificate in the tlsCACerts.");
+			}
+			TrustManagerFactory factory = TrustManagerFactory
+					.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+			factory.init(trustStore);
+			X509TrustManager delegate = null;
+			for (TrustManager manager : factory.getTrustManagers()) {
+				if (manager instanceof X509TrustManager) {
+					delegate = (X509TrustManager) manager;
+				}
+			}
+			if (delegate == null) {
+				throw new KeyStoreException("No X509TrustManager of " + factory.getAlgorithm());
+			}
+			this.delegate = delegate;
+			this.context = SSLContext.getInstance("TLS");
+			this.context.init(null, new TrustManager[] { this }, null);
+		}
+
+		@Override
+		public void checkClientTrusted(X509Certificate[] chain, String authType) throws CertificateException {
+			delegate.checkClientTrusted(chain, authType);
+		}
+
+		@Override
+		public void checkServerTrusted(X509Certificate[] chain, String authType) throws CertificateException {
+			delegate.checkServerTrusted(chain, authType);
+			trusted = true;
+		}
+
+		@Override
+		public X509Certificate[] getAcceptedIssuers() {
+			return delegate.getAcceptedIssuers();
+		}
+	}
+
+	private static String getString(JsonObject peer, String section, String name) {
+		JsonElement value = peer.get(section);
+		if (value == null || !value.isJsonObject()) {
+			return null;
+		}
+		value = value.getAsJsonObject().get(name);
+		return value == null || !value.isJsonPrimitive() ? null : value.getAsString();
+	}
+
+	/**
+	 * Format the latencies in milliseconds, for logging.
+	 */
+	public static String toString(Map<String, Long> latencies) {
+		StringBuilder result = new StringBuilder();
+		for (Entry<String, Long> entry : latencies.entrySet()) {
+			result.append(entry.getKey()).append(": ");
+			if (entry.getValue() == UNREACHABLE) {
+				result.append("unreachable");
+			} else {
+				result.append(String.format("%.2f ms", entry.getValue() / (double) TimeUnit.MILLISECONDS.toNanos(1)));
+			}
+			result.append('\n');
+		}
+		return result.toString();
+	}
+}
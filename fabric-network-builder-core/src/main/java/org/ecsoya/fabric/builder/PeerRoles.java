@@ -0,0 +1,23 @@
+package org.ecsoya.fabric.builder;
+
+import com.google.gson.JsonObject;
+
+/**
+ *
+ * Assign the roles of a peer in a channel, such as <code>endorsingPeer</code>,
+ * <code>chaincodeQuery</code>, <code>ledgerQuery</code> and
+ * <code>eventSource</code>.
+ *
+ * @author ecsoya
+ *
+ */
+public interface PeerRoles {
+
+	/**
+	 * @param index the index of the peer in the peers of the org, from 0.
+	 * @return a new object of the roles, an empty object takes the defaults of
+	 *         the SDK.
+	 */
+	JsonObject roles(String channel, String org, String peer, int index);
+
+}
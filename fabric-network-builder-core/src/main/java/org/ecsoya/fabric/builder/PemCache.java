@@ -0,0 +1,46 @@
+package org.ecsoya.fabric.builder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+
+/**
+ *
+ * Read the PEM files of the crypto materials, a cache can be shared by the
+ * builders of all clients to read every file only once.
+ *
+ * @author ecsoya
+ *
+ */
+public interface PemCache {
+
+	/**
+	 * Read the files without any caching.
+	 */
+	PemCache NONE = file -> new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+
+	String read(Path file) throws IOException;
+
+	/**
+	 * Read a file whose attributes were recorded before, such as the files
+	 * indexed by {@link CryptoIndex}. The file may have changed since, a cache
+	 * must not trust the attributes to tell whether its content is fresh.
+	 */
+	default String read(Path file, BasicFileAttributes attributes) throws IOException {
+		return read(file);
+	}
+
+	/**
+	 * Read a file whose attributes were recorded before, and report to the
+	 * listener whether it was served from the memory or read from the disk. A
+	 * cache without memory reads every file from the disk.
+	 */
+	default String read(Path file, BasicFileAttributes attributes, BuildListener listener) throws IOException {
+		String content = read(file, attributes);
+		listener.cacheMiss(file, attributes.size());
+		return content;
+	}
+
+}
@@ -0,0 +1,885 @@
+package org.ecsoya.fabric.builder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Objects;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+
+/**
+ *
+ * The connection profile of a network as an immutable model, built by the
+ * {@link TopologyEngine}.
+ *
+ * Every node is created once, and its name is shared by all the sections which
+ * reference it. The model is written straight to a {@link ProfileWriter},
+ * without any JSON tree in between, or converted to the JSON tree of the
+ * profile by {@link #toJson()}. The option bags, such as the roles of the
+ * peers and the policies of the channels, are kept as the new JSON objects
+ * built by their {@link PeerRoles} and {@link ChannelPolicies}. The model owns
+ * them, and its getters only hand out copies of them, so the model can not be
+ * modified through them, and the same {@link ChannelPeers} stay equal keys of
+ * the maps which share them.
+ *
+ * @author ecsoya
+ *
+ */
+public final class Profile {
+
+	private final String name;
+
+	private final Client client;
+
+	private final List<Channel> channels;
+
+	private final List<Org> organizations;
+
+	private final List<Orderer> orderers;
+
+	private final List<Peer> peers;
+
+	private final List<CertificateAuthority> certificateAuthorities;
+
+	Profile(String name, Client client, Channel[] channels, Org[] organizations, Orderer[] orderers, Peer[] peers,
+			CertificateAuthority[] certificateAuthorities) {
+		this.name = name;
+		this.client = client;
+		this.channels = list(channels);
+		this.organizations = list(organizations);
+		this.orderers = list(orderers);
+		this.peers = list(peers);
+		this.certificateAuthorities = list(certificateAuthorities);
+	}
+
+	private Profile(Profile profile, Client client) {
+		this.name = profile.name;
+		this.client = client;
+		this.channels = profile.channels;
+		this.organizations = profile.organizations;
+		this.orderers = profile.orderers;
+		this.peers = profile.peers;
+		this.certificateAuthorities = profile.certificateAuthorities;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public Client getClient() {
+		return client;
+	}
+
+	public List<Channel> getChannels() {
+		return channels;
+	}
+
+	public List<Org> getOrganizations() {
+		return organizations;
+	}
+
+	public List<Orderer> getOrderers() {
+		return orderers;
+	}
+
+	public List<Peer> getPeers() {
+		return peers;
+	}
+
+	public List<CertificateAuthority> getCertificateAuthorities() {
+		return certificateAuthorities;
+	}
+
+	/**
+	 * The same profile for another client, all the other sections are shared.
+	 */
+	public Profile withClient(String organization) {
+		return new Profile(this, client.withOrganization(organization));
+	}
+
+	/**
+	 * Write the profile.
+	 */
+	public void write(ProfileWriter writer) throws IOException {
+		write(client.organization, writer);
+	}
+
+	/**
+	 * Write the profile of another client.
+	 */
+	public void write(String organization, ProfileWriter writer) throws IOException {
+		writer.beginObject();
+		writer.name("name").value(name);
+		writer.name("version").value("1.0.0");
+		writer.name("x-type").value("hlfv1");
+
+		writer.name("client");
+		client.write(organization, writer);
+
+		writer.name("channels").beginObject();
+		// The channels of the same peers share them, as anchors or references.
+		Map<ChannelPeers, String> shared = writer.isSharing() ? sharedPeers() : Collections.emptyMap();
+		for (int i = 0; i < channels.size(); i++) {
+			Channel channel = channels.get(i);
+			writer.name(channel.name);
+			channel.write(writer, shared);
+		}
+		writer.endObject();
+
+		writer.name("organizations").beginObject();
+		for (int i = 0; i < organizations.size(); i++) {
+			Org org = organizations.get(i);
+			writer.name(org.name);
+			org.write(writer);
+		}
+		writer.endObject();
+
+		writer.name("orderers").beginObject();
+		for (int i = 0; i < orderers.size(); i++) {
+			Orderer orderer = orderers.get(i);
+			writer.name(orderer.name);
+			orderer.write(writer);
+		}
+		writer.endObject();
+
+		writer.name("peers").beginObject();
+		for (int i = 0; i < peers.size(); i++) {
+			Peer peer = peers.get(i);
+			writer.name(peer.name);
+			peer.write(writer);
+		}
+		writer.endObject();
+
+		writer.name("certificateAuthorities").beginObject();
+		for (int i = 0; i < certificateAuthorities.size(); i++) {
+			CertificateAuthority ca = certificateAuthorities.get(i);
+			writer.name(ca.name);
+			ca.write(writer);
+		}
+		writer.endObject();
+		writer.endObject();
+	}
+
+	/**
+	 * @return the peers of more than one channel, by identity.
+	 */
+	private Map<ChannelPeers, String> sharedPeers() {
+		Map<ChannelPeers, String> seen = new IdentityHashMap<>();
+		Map<ChannelPeers, String> shared = new IdentityHashMap<>();
+		for (Channel channel : channels) {
+			if (!channel.peers.peers.isEmpty() && seen.put(channel.peers, "") != null) {
+				shared.put(channel.peers, "");
+			}
+		}
+		return shared;
+	}
+
+	/**
+	 * Convert the profile to its JSON tree, the channels of the same peers share
+	 * one <code>peers</code> object.
+	 */
+	public JsonObject toJson() {
+		JsonObject root = new JsonObject();
+		root.addProperty("name", name);
+		root.addProperty("version", "1.0.0");
+		root.addProperty("x-type", "hlfv1");
+		root.add("client", client.toJson());
+
+		JsonObject channelsNode = new JsonObject();
+		Map<ChannelPeers, JsonObject> distinctPeers = new IdentityHashMap<>();
+		for (Channel channel : channels) {
+			channelsNode.add(channel.name, channel.toJson(distinctPeers));
+		}
+		root.add("channels", channelsNode);
+
+		JsonObject organizationsNode = new JsonObject();
+		for (Org org : organizations) {
+			organizationsNode.add(org.name, org.toJson());
+		}
+		root.add("organizations", organizationsNode);
+
+		JsonObject orderersNode = new JsonObject();
+		for (Orderer orderer : orderers) {
+			orderersNode.add(orderer.name, orderer.toJson());
+		}
+		root.add("orderers", orderersNode);
+
+		JsonObject peersNode = new JsonObject();
+		for (Peer peer : peers) {
+			peersNode.add(peer.name, peer.toJson());
+		}
+		root.add("peers", peersNode);
+
+		JsonObject caNode = new JsonObject();
+		for (CertificateAuthority ca : certificateAuthorities) {
+			caNode.add(ca.name, ca.toJson());
+		}
+		root.add("certificateAuthorities", caNode);
+		return root;
+	}
+
+	private static <T> List<T> list(T[] values) {
+		return Collections.unmodifiableList(Arrays.asList(values));
+	}
+
+	/**
+	 * A crypto material, embedded as <code>pem</code> or referenced by its
+	 * <code>path</code>.
+	 */
+	public static final class Material {
+
+		private final boolean pem;
+
+		private final String value;
+
+		private Material(boolean pem, String value) {
+			this.pem = pem;
+			this.value = value;
+		}
+
+		static Material pem(String pem) {
+			return new Material(true, pem);
+		}
+
+		static Material path(String path) {
+			return new Material(false, path);
+		}
+
+		public boolean isPem() {
+			return pem;
+		}
+
+		/**
+		 * @return the PEM or the path, the PEM is null if it is not found.
+		 */
+		public String getValue() {
+			return value;
+		}
+
+		void write(ProfileWriter writer) throws IOException {
+			writer.beginObject().name(pem ? "pem" : "path").value(value).endObject();
+		}
+
+		JsonObject toJson() {
+			JsonObject node = new JsonObject();
+			node.addProperty(pem ? "pem" : "path", value);
+			return node;
+		}
+	}
+
+	public static final class Client {
+
+		private final String organization;
+
+		private final JsonObject timeout;
+
+		private final boolean credentialStore;
+
+		Client(String organization, JsonObject timeout, boolean credentialStore) {
+			this.organization = organization;
+			this.timeout = timeout;
+			this.credentialStore = credentialStore;
+		}
+
+		/**
+		 * @return the client organization, or null for all clients.
+		 */
+		public String getOrganization() {
+			return organization;
+		}
+
+		/**
+		 * @return a copy of the <code>connection.timeout</code>.
+		 */
+		public JsonObject getTimeout() {
+			return timeout.deepCopy();
+		}
+
+		public boolean isCredentialStore() {
+			return credentialStore;
+		}
+
+		Client withOrganization(String organization) {
+			return new Client(organization, timeout, credentialStore);
+		}
+
+		void write(String organization, ProfileWriter writer) throws IOException {
+			writer.beginObject();
+			writer.name("logging").beginObject().name("level").value("debug").endObject();
+			writer.name("connection").beginObject().name("timeout");
+			Profiles.writeTree(timeout, writer);
+			writer.endObject();
+			writer.name("organization").value(organization);
+			if (credentialStore) {
+				writer.name("credentialStore").beginObject();
+				writer.name("path").value("tmp/hfc-kvs");
+				writer.name("cryptoStore").beginObject().name("path").value("tmp/hfc-cvs").endObject();
+				writer.name("wallet").value("bts");
+				writer.endObject();
+			}
+			writer.endObject();
+		}
+
+		JsonObject toJson() {
+			JsonObject client = new JsonObject();
+
+			JsonObject logging = new JsonObject();
+			logging.addProperty("level", "debug");
+			client.add("logging", logging);
+
+			JsonObject connection = new JsonObject();
+			connection.add("timeout", timeout.deepCopy());
+			client.add("connection", connection);
+
+			client.addProperty("organization", organization);
+
+			if (credentialStore) {
+				JsonObject store = new JsonObject();
+				store.addProperty("path", "tmp/hfc-kvs");
+
+				JsonObject cryptoStore = new JsonObject();
+				cryptoStore.addProperty("path", "tmp/hfc-cvs");
+				store.add("cryptoStore", cryptoStore);
+
+				store.addProperty("wallet", "bts");
+				client.add("credentialStore", store);
+			}
+			return client;
+		}
+	}
+
+	public static final class Channel {
+
+		private final String name;
+
+		private final List<String> orderers;
+
+		private final ChannelPeers peers;
+
+		private final JsonObject policies;
+
+		Channel(String name, String[] orderers, ChannelPeers peers, JsonObject policies) {
+			this(name, list(orderers), peers, policies);
+		}
+
+		private Channel(String name, List<String> orderers, ChannelPeers peers, JsonObject policies) {
+			this.name = name;
+			this.orderers = orderers;
+			this.peers = peers;
+			this.policies = policies;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		/**
+		 * @return the names of the orderers.
+		 */
+		public List<String> getOrderers() {
+			return orderers;
+		}
+
+		/**
+		 * @return the joined peers, shared by the channels of the same peers.
+		 */
+		public ChannelPeers getPeers() {
+			return peers;
+		}
+
+		/**
+		 * @return a copy of the <code>policies</code>.
+		 */
+		public JsonObject getPolicies() {
+			return policies.deepCopy();
+		}
+
+		/**
+		 * The same channel with other peers, such as the peers kept by a
+		 * {@link ClientScope}.
+		 */
+		Channel withPeers(ChannelPeers peers) {
+			return new Channel(name, orderers, peers, policies);
+		}
+
+		void write(ProfileWriter writer, Map<ChannelPeers, String> shared) throws IOException {
+			writer.beginObject();
+			writer.name("orderers").beginArray();
+			for (int i = 0; i < orderers.size(); i++) {
+				writer.value(orderers.get(i));
+			}
+			writer.endArray();
+
+			writer.name("peers");
+			String id = shared.get(peers);
+			if (id == null) {
+				peers.write(writer);
+			} else if (!id.isEmpty()) {
+				writer.reference(id);
+			} else {
+				shared.put(peers, writer.share());
+				peers.write(writer);
+			}
+
+			writer.name("policies");
+			Profiles.writeTree(policies, writer);
+			writer.endObject();
+		}
+
+		JsonObject toJson(Map<ChannelPeers, JsonObject> distinctPeers) {
+			JsonObject node = new JsonObject();
+			JsonArray orderersNode = new JsonArray();
+			for (String orderer : orderers) {
+				orderersNode.add(orderer);
+			}
+			node.add("orderers", orderersNode);
+			node.add("peers", distinctPeers.computeIfAbsent(peers, ChannelPeers::toJson));
+			node.add("policies", policies.deepCopy());
+			return node;
+		}
+	}
+
+	/**
+	 * The joined peers of a channel and their roles, in the order of the orgs
+	 * and the peers.
+	 */
+	public static final class ChannelPeers {
+
+		private final List<String> peers;
+
+		private final List<JsonObject> roles;
+
+		ChannelPeers(List<String> peers, List<JsonObject> roles) {
+			this.peers = Collections.unmodifiableList(new ArrayList<>(peers));
+			this.roles = Collections.unmodifiableList(new ArrayList<>(roles));
+		}
+
+		/**
+		 * @return the names of the joined peers.
+		 */
+		public List<String> getPeers() {
+			return peers;
+		}
+
+		/**
+		 * @return copies of the roles of the joined peers, in the order of the
+		 *         peers.
+		 */
+		public List<JsonObject> getRoles() {
+			List<JsonObject> copies = new ArrayList<>(roles.size());
+			for (JsonObject role : roles) {
+				copies.add(role.deepCopy());
+			}
+			return Collections.unmodifiableList(copies);
+		}
+
+		/**
+		 * The roles of a peer without copying them, only read by the
+		 * {@link ClientScope} and kept in its own channel peers.
+		 */
+		JsonObject role(int index) {
+			return roles.get(index);
+		}
+
+		void write(ProfileWriter writer) throws IOException {
+			writer.beginObject();
+			for (int i = 0; i < peers.size(); i++) {
+				writer.name(peers.get(i));
+				Profiles.writeTree(roles.get(i), writer);
+			}
+			writer.endObject();
+		}
+
+		JsonObject toJson() {
+			JsonObject node = new JsonObject();
+			for (int i = 0; i < peers.size(); i++) {
+				node.add(peers.get(i), roles.get(i).deepCopy());
+			}
+			return node;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj) {
+				return true;
+			}
+			if (!(obj instanceof ChannelPeers)) {
+				return false;
+			}
+			ChannelPeers other = (ChannelPeers) obj;
+			return peers.equals(other.peers) && roles.equals(other.roles);
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(peers, roles);
+		}
+	}
+
+	public static final class Org {
+
+		private final String name;
+
+		private final String certificateAuthority;
+
+		private final Material adminPrivateKey;
+
+		private final Material signedCert;
+
+		private final List<String> peers;
+
+		Org(String name, String certificateAuthority, Material adminPrivateKey, Material signedCert, String[] peers) {
+			this.name = name;
+			this.certificateAuthority = certificateAuthority;
+			this.adminPrivateKey = adminPrivateKey;
+			this.signedCert = signedCert;
+			this.peers = list(peers);
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public String getMspId() {
+			return name + "MSP";
+		}
+
+		/**
+		 * @return the name of the CA of the org, null if it is pruned by a
+		 *         {@link ClientScope}.
+		 */
+		public String getCertificateAuthority() {
+			return certificateAuthority;
+		}
+
+		/**
+		 * @return the admin key, null if it is pruned by a {@link ClientScope}.
+		 */
+		public Material getAdminPrivateKey() {
+			return adminPrivateKey;
+		}
+
+		/**
+		 * @return the admin certificate, null if it is pruned by a
+		 *         {@link ClientScope}.
+		 */
+		public Material getSignedCert() {
+			return signedCert;
+		}
+
+		/**
+		 * @return the names of the peers of the org.
+		 */
+		public List<String> getPeers() {
+			return peers;
+		}
+
+		void write(ProfileWriter writer) throws IOException {
+			writer.beginObject();
+			writer.name("mspid").value(getMspId());
+			if (certificateAuthority != null) {
+				writer.name("certificateAuthorities").beginArray().value(certificateAuthority).endArray();
+			}
+			if (adminPrivateKey != null) {
+				writer.name("adminPrivateKey");
+				adminPrivateKey.write(writer);
+			}
+			if (signedCert != null) {
+				writer.name("signedCert");
+				signedCert.write(writer);
+			}
+			if (!peers.isEmpty()) {
+				writer.name("peers").beginArray();
+				for (int i = 0; i < peers.size(); i++) {
+					writer.value(peers.get(i));
+				}
+				writer.endArray();
+			}
+			writer.endObject();
+		}
+
+		JsonObject toJson() {
+			JsonObject node = new JsonObject();
+			node.addProperty("mspid", getMspId());
+			if (certificateAuthority != null) {
+				JsonArray cas = new JsonArray();
+				cas.add(certificateAuthority);
+				node.add("certificateAuthorities", cas);
+			}
+			if (adminPrivateKey != null) {
+				node.add("adminPrivateKey", adminPrivateKey.toJson());
+			}
+			if (signedCert != null) {
+				node.add("signedCert", signedCert.toJson());
+			}
+			if (!peers.isEmpty()) {
+				JsonArray peersNode = new JsonArray();
+				for (String peer : peers) {
+					peersNode.add(peer);
+				}
+				node.add("peers", peersNode);
+			}
+			return node;
+		}
+	}
+
+	public static final class Orderer {
+
+		private final String name;
+
+		private final String url;
+
+		private final Options grpcOptions;
+
+		private final Material tlsCACerts;
+
+		Orderer(String name, String url, Options grpcOptions, Material tlsCACerts) {
+			this.name = name;
+			this.url = url;
+			this.grpcOptions = grpcOptions;
+			this.tlsCACerts = tlsCACerts;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public String getUrl() {
+			return url;
+		}
+
+		/**
+		 * @return the tuned gRPC options, without the host name override.
+		 */
+		public Map<String, JsonPrimitive> getGrpcOptions() {
+			return grpcOptions.options;
+		}
+
+		public Material getTlsCACerts() {
+			return tlsCACerts;
+		}
+
+		void write(ProfileWriter writer) throws IOException {
+			writer.beginObject();
+			writer.name("url").value(url);
+			writer.name("grpcOptions").beginObject();
+			grpcOptions.write(writer);
+			writer.name("hostnameOverride").value(name);
+			writer.endObject();
+			writer.name("tlsCACerts");
+			tlsCACerts.write(writer);
+			writer.endObject();
+		}
+
+		JsonObject toJson() {
+			JsonObject node = new JsonObject();
+			node.addProperty("url", url);
+			JsonObject options = new JsonObject();
+			GrpcTuning.addOptions(options, grpcOptions.options);
+			options.addProperty("hostnameOverride", name);
+			node.add("grpcOptions", options);
+			node.add("tlsCACerts", tlsCACerts.toJson());
+			return node;
+		}
+	}
+
+	public static final class Peer {
+
+		private final String name;
+
+		private final String org;
+
+		private final String url;
+
+		private final Options grpcOptions;
+
+		private final Material tlsCACerts;
+
+		Peer(String name, String org, String url, Options grpcOptions, Material tlsCACerts) {
+			this.name = name;
+			this.org = org;
+			this.url = url;
+			this.grpcOptions = grpcOptions;
+			this.tlsCACerts = tlsCACerts;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		/**
+		 * @return the org of the peer.
+		 */
+		public String getOrg() {
+			return org;
+		}
+
+		public String getUrl() {
+			return url;
+		}
+
+		/**
+		 * @return the tuned gRPC options, without the host name overrides.
+		 */
+		public Map<String, JsonPrimitive> getGrpcOptions() {
+			return grpcOptions.options;
+		}
+
+		public Material getTlsCACerts() {
+			return tlsCACerts;
+		}
+
+		void write(ProfileWriter writer) throws IOException {
+			writer.beginObject();
+			writer.name("url").value(url);
+			writer.name("grpcOptions").beginObject();
+			writer.name("ssl-target-name-override").value(name);
+			grpcOptions.write(writer);
+			writer.name("hostnameOverride").value(name);
+			writer.endObject();
+			writer.name("tlsCACerts");
+			tlsCACerts.write(writer);
+			writer.endObject();
+		}
+
+		JsonObject toJson() {
+			JsonObject node = new JsonObject();
+			node.addProperty("url", url);
+			JsonObject options = new JsonObject();
+			options.addProperty("ssl-target-name-override", name);
+			GrpcTuning.addOptions(options, grpcOptions.options);
+			options.addProperty("hostnameOverride", name);
+			node.add("grpcOptions", options);
+			node.add("tlsCACerts", tlsCACerts.toJson());
+			return node;
+		}
+	}
+
+	public static final class CertificateAuthority {
+
+		private final String name;
+
+		private final String caName;
+
+		private final String url;
+
+		private final Material tlsCACerts;
+
+		CertificateAuthority(String name, String caName, String url, Material tlsCACerts) {
+			this.name = name;
+			this.caName = caName;
+			this.url = url;
+			this.tlsCACerts = tlsCACerts;
+		}
+
+		/**
+		 * @return the name of the CA node, which is also its host name.
+		 */
+		public String getName() {
+			return name;
+		}
+
+		/**
+		 * @return the <code>caName</code> of the CA server, or null.
+		 */
+		public String getCaName() {
+			return caName;
+		}
+
+		public String getUrl() {
+			return url;
+		}
+
+		public Material getTlsCACerts() {
+			return tlsCACerts;
+		}
+
+		void write(ProfileWriter writer) throws IOException {
+			writer.beginObject();
+			if (caName != null) {
+				writer.name("caName").value(caName);
+			}
+			writer.name("url").value(url);
+			writer.name("grpcOptions").beginObject();
+			writer.name("ssl-target-name-override").value(name);
+			writer.name("allow-insecure").value(0);
+			writer.name("trustServerCertificate").value(true);
+			writer.name("hostnameOverride").value(name);
+			writer.endObject();
+			writer.name("httpOptions").beginObject().name("verify").value(false).endObject();
+			writer.name("registrar").beginArray();
+			writer.beginObject().name("enrollId").value("admin").name("enrollSecret").value("adminpw").endObject();
+			writer.endArray();
+			writer.name("tlsCACerts");
+			tlsCACerts.write(writer);
+			writer.endObject();
+		}
+
+		JsonObject toJson() {
+			JsonObject node = new JsonObject();
+			if (caName != null) {
+				node.addProperty("caName", caName);
+			}
+			node.addProperty("url", url);
+
+			JsonObject grpcOptions = new JsonObject();
+			grpcOptions.addProperty("ssl-target-name-override", name);
+			grpcOptions.addProperty("allow-insecure", 0);
+			grpcOptions.addProperty("trustServerCertificate", true);
+			grpcOptions.addProperty("hostnameOverride", name);
+			node.add("grpcOptions", grpcOptions);
+
+			JsonObject httpOptions = new JsonObject();
+			httpOptions.addProperty("verify", false);
+			node.add("httpOptions", httpOptions);
+
+			JsonArray registrar = new JsonArray();
+			JsonObject admin = new JsonObject();
+			admin.addProperty("enrollId", "admin");
+			admin.addProperty("enrollSecret", "adminpw");
+			registrar.add(admin);
+			node.add("registrar", registrar);
+
+			node.add("tlsCACerts", tlsCACerts.toJson());
+			return node;
+		}
+	}
+
+	/**
+	 * The tuned gRPC options of the nodes, shared by all the nodes of the same
+	 * tuning, and held as arrays to write them without any iterator.
+	 */
+	static final class Options {
+
+		private final Map<String, JsonPrimitive> options;
+
+		private final String[] names;
+
+		private final JsonPrimitive[] values;
+
+		Options(Map<String, JsonPrimitive> options) {
+			this.options = options;
+			this.names = new String[options.size()];
+			this.values = new JsonPrimitive[options.size()];
+			int i = 0;
+			for (Entry<String, JsonPrimitive> option : options.entrySet()) {
+				names[i] = option.getKey();
+				values[i++] = option.getValue();
+			}
+		}
+
+		void write(ProfileWriter writer) throws IOException {
+			for (int i = 0; i < names.length; i++) {
+				writer.name(names[i]);
+				Profiles.writeTree(values[i], writer);
+			}
+		}
+	}
+}
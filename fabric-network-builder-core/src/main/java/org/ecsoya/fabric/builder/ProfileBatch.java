@@ -0,0 +1,188 @@
+package org.ecsoya.fabric.builder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+
+/**
+ *
+ * Generate the connection profiles of many clients from one compiled
+ * topology.
+ *
+ * The topology is only read while the profiles are rendered, so the profiles
+ * of all clients can be written concurrently. The content of every profile
+ * only depends on its client, the output is the same as writing them one
+ * after another. The files are written by {@link ProfileFiles}, the
+ * unchanged profiles are not rewritten. The writes are reported to a
+ * {@link BuildListener} as the {@link BuildListener.Phase#WRITE} phase.
+ *
+ * @author ecsoya
+ *
+ */
+public final class ProfileBatch {
+
+	private ProfileBatch() {
+	}
+
+	/**
+	 * Write <code>connection-{client}.yml</code> for every client into the output
+	 * directory.
+	 *
+	 * @see #generateAll(CompiledTopology, List, File, Set, Executor)
+	 */
+	public static List<File> generateAll(CompiledTopology topology, List<String> clients, File outputDir,
+			Executor executor) throws IOException {
+		return generateAll(topology, clients, outputDir, EnumSet.of(ProfileFormat.YAML), executor);
+	}
+
+	/**
+	 * Write the profile of every client into the output directory, once in every
+	 * format.
+	 *
+	 * @param topology  the compiled topology.
+	 * @param clients   the client organizations.
+	 * @param outputDir the output directory.
+	 * @param formats   the formats, such as YAML and JSON.
+	 * @param executor  the executor to render and write the profiles, for example
+	 *                  a fork-join pool or a virtual thread per task executor.
+	 * @return the written files, in the order of the clients and the formats.
+	 */
+	public static List<File> generateAll(CompiledTopology topology, List<String> clients, File outputDir,
+			Set<ProfileFormat> formats, Executor executor) throws IOException {
+		return generateAll(topology, clients, outputDir, formats, executor, BuildListener.NONE);
+	}
+
+	/**
+	 * Write the profile of every client into the output directory, once in every
+	 * format, and report every write to the listener.
+	 *
+	 * @see #generateAll(CompiledTopology, List, File, Set, Executor)
+	 */
+	public static List<File> generateAll(CompiledTopology topology, List<String> clients, File outputDir,
+			Set<ProfileFormat> formats, Executor executor, BuildListener listener) throws IOException {
+		check(clients, outputDir, formats);
+
+		List<CompletableFuture<List<File>>> futures = new ArrayList<>(clients.size());
+		for (String client : clients) {
+			futures.add(CompletableFuture.supplyAsync(
+					() -> write(outputDir, client, formats, writer -> topology.write(client, writer), listener),
+					executor));
+		}
+		return join(futures, clients.size() * formats.size());
+	}
+
+	/**
+	 * Write the variants of the profile of every client into the output
+	 * directory, as <code>connection-{client}-{variant}.{extension}</code>. An
+	 * instance of the application selects its variant by
+	 * {@link ProfileVariants#select(String, int)}.
+	 *
+	 * @param count the number of the variants of every client.
+	 * @return the written files, in the order of the clients, the variants and
+	 *         the formats.
+	 */
+	public static List<File> generateVariants(CompiledTopology topology, List<String> clients, ProfileVariants variants,
+			int count, File outputDir, Set<ProfileFormat> formats, Executor executor) throws IOException {
+		return generateVariants(topology, clients, variants, count, outputDir, formats, executor, BuildListener.NONE);
+	}
+
+	/**
+	 * Write the variants of the profile of every client into the output
+	 * directory, and report every write to the listener.
+	 *
+	 * @see #generateVariants(CompiledTopology, List, ProfileVariants, int, File,
+	 *      Set, Executor)
+	 */
+	public static List<File> generateVariants(CompiledTopology topology, List<String> clients, ProfileVariants variants,
+			int count, File outputDir, Set<ProfileFormat> formats, Executor executor, BuildListener listener)
+			throws IOException {
+		if (count < 1) {
+			throw new IllegalArgumentException("count must be positive: " + count);
+		}
+		check(clients, outputDir, formats);
+
+		List<CompletableFuture<List<File>>> futures = new ArrayList<>(clients.size() * count);
+		for (String client : clients) {
+			for (int i = 0; i < count; i++) {
+				String key = Integer.toString(i);
+				futures.add(CompletableFuture.supplyAsync(() -> write(outputDir, client + "-" + key, formats,
+						writer -> Profiles.write(variants.variant(topology.profile(client), key), writer), listener),
+						executor));
+			}
+		}
+		return join(futures, clients.size() * count * formats.size());
+	}
+
+	private interface Render {
+
+		void render(ProfileWriter writer) throws IOException;
+	}
+
+	private static void check(List<String> clients, File outputDir, Set<ProfileFormat> formats) throws IOException {
+		ProfileFormat.check(formats);
+		Set<String> distinct = new HashSet<>(clients);
+		if (distinct.size() != clients.size()) {
+			throw new IllegalArgumentException("Duplicated clients: " + clients);
+		}
+		if (!outputDir.mkdirs() && !outputDir.isDirectory()) {
+			throw new IOException("Unable to create output directory: " + outputDir);
+		}
+	}
+
+	private static List<File> write(File outputDir, String name, Set<ProfileFormat> formats, Render render,
+			BuildListener listener) {
+		List<File> written = new ArrayList<>(formats.size());
+		for (ProfileFormat format : formats) {
+			File file = new File(outputDir, format.getFileName(name));
+			long start = listener == BuildListener.NONE ? 0 : System.nanoTime();
+			try {
+				boolean changed = ProfileFiles.write(file.toPath(), out -> {
+					ProfileWriter writer = format.newWriter(out);
+					render.render(writer);
+					writer.flush();
+				});
+				if (listener != BuildListener.NONE) {
+					listener.phase(BuildListener.Phase.WRITE, System.nanoTime() - start);
+					listener.written(file, file.length(), changed);
+				}
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			written.add(file);
+		}
+		return written;
+	}
+
+	private static List<File> join(List<CompletableFuture<List<File>>> futures, int size) throws IOException {
+		List<File> files = new ArrayList<>(size);
+		IOException failure = null;
+		for (CompletableFuture<List<File>> future : futures) {
+			try {
+				files.addAll(future.join());
+			} catch (CompletionException e) {
+				Throwable cause = e.getCause();
+				IOException error = cause instanceof UncheckedIOException ? ((UncheckedIOException) cause).getCause()
+						: new IOException(cause);
+				if (failure == null) {
+					failure = error;
+				} else {
+					failure.addSuppressed(error);
+				}
+			}
+		}
+		if (failure != null) {
+			throw failure;
+		}
+		return files;
+	}
+}
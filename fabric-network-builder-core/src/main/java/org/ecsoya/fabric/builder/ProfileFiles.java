@@ -0,0 +1,144 @@
+package org.ecsoya.fabric.builder;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ *
+ * Write the profiles to files, so that the readers never see a half written
+ * file, and an unchanged file is not touched at all.
+ *
+ * The profile is streamed into a temporary file in the same directory, and
+ * hashed with SHA-256 on the way, so even a large profile is never held in
+ * memory. The temporary file is compared with the existing file by its size
+ * and hash: an unchanged profile is deleted, a changed one is moved over the
+ * existing file atomically. A file watcher only sees the files which really
+ * changed, and every change as one event.
+ *
+ * @author ecsoya
+ *
+ */
+public final class ProfileFiles {
+
+	private ProfileFiles() {
+	}
+
+	/**
+	 * Renders the content of a file.
+	 */
+	public interface Content {
+
+		void render(Writer out) throws IOException;
+	}
+
+	/**
+	 * Write the content as UTF-8 into the file, unless the file has the same
+	 * content already.
+	 *
+	 * @return true if the file was written, false if it was unchanged.
+	 */
+	public static boolean write(Path file, Content content) throws IOException {
+		Path temp = temp(file);
+		try {
+			MessageDigest digest = sha256();
+			// The writer buffers the encoded bytes, the digest sees them in chunks.
+			try (Writer out = new OutputStreamWriter(
+					new DigestOutputStream(Files.newOutputStream(temp, StandardOpenOption.CREATE_NEW), digest),
+					StandardCharsets.UTF_8)) {
+				content.render(out);
+			}
+			if (isUnchanged(file, Files.size(temp), digest.digest())) {
+				return false;
+			}
+			move(temp, file);
+		} finally {
+			Files.deleteIfExists(temp);
+		}
+		return true;
+	}
+
+	/**
+	 * Write the bytes into the file, unless the file has the same content
+	 * already.
+	 *
+	 * @return true if the file was written, false if it was unchanged.
+	 */
+	public static boolean write(Path file, byte[] bytes) throws IOException {
+		if (isUnchanged(file, bytes.length, sha256().digest(bytes))) {
+			return false;
+		}
+		Path temp = temp(file);
+		try {
+			try (OutputStream out = Files.newOutputStream(temp, StandardOpenOption.CREATE_NEW)) {
+				out.write(bytes);
+			}
+			move(temp, file);
+		} finally {
+			Files.deleteIfExists(temp);
+		}
+		return true;
+	}
+
+	/**
+	 * Not Files.createTempFile, the permissions of the profile follow the umask.
+	 */
+	private static Path temp(Path file) {
+		return file.toAbsolutePath().resolveSibling(
+				"." + file.getFileName() + "." + Long.toHexString(ThreadLocalRandom.current().nextLong()) + ".tmp");
+	}
+
+	private static void move(Path temp, Path file) throws IOException {
+		try {
+			Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	/**
+	 * @param size     the size of the new content.
+	 * @param expected the SHA-256 hash of the new content.
+	 */
+	private static boolean isUnchanged(Path file, long size, byte[] expected) throws IOException {
+		try {
+			if (Files.size(file) != size) {
+				return false;
+			}
+		} catch (NoSuchFileException e) {
+			return false;
+		}
+		MessageDigest digest = sha256();
+		byte[] chunk = new byte[8192];
+		try (InputStream in = Files.newInputStream(file)) {
+			int read;
+			while ((read = in.read(chunk)) != -1) {
+				digest.update(chunk, 0, read);
+			}
+		}
+		return Arrays.equals(expected, digest.digest());
+	}
+
+	private static MessageDigest sha256() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			// Every Java platform supports SHA-256.
+			throw new IllegalStateException(e);
+		}
+	}
+}
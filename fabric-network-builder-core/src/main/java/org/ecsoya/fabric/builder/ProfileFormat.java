@@ -0,0 +1,155 @@
+package org.ecsoya.fabric.builder;
+
+import java.io.Writer;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ *
+ * The output formats of the connection profiles.
+ *
+ * The SDK loads JSON profiles with <code>NetworkConfig.fromJsonFile</code>
+ * faster than YAML ones with <code>NetworkConfig.fromYamlFile</code>, the
+ * difference grows with the size of the network.
+ *
+ * Every format of a batch needs its own file extension, so only one of the
+ * YAML formats, and one of the JSON formats, can be written together.
+ *
+ * @author ecsoya
+ *
+ */
+public enum ProfileFormat {
+
+	/**
+	 * Block style YAML, <code>connection-{client}.yml</code>.
+	 */
+	YAML("yml"),
+
+	/**
+	 * Pretty printed JSON, <code>connection-{client}.json</code>.
+	 */
+	JSON("json"),
+
+	/**
+	 * JSON without any whitespace, <code>connection-{client}.json</code>.
+	 */
+	COMPACT_JSON("json"),
+
+	/**
+	 * Block style YAML, <code>connection-{client}.yml</code>, with every
+	 * distinct PEM written once as an anchor and referenced by aliases, see
+	 * {@link YamlProfileWriter#setAnchors(boolean)}. The channels of the same
+	 * peers share them the same way. The SDK loads it as it is.
+	 */
+	YAML_ANCHORS("yml"),
+
+	/**
+	 * Pretty printed JSON, <code>connection-{client}.json</code>, with every
+	 * distinct PEM hoisted into the <code>x-pems</code> section and referenced
+	 * by <code>$ref</code>, see {@link JsonProfileWriter#setHoistPems(boolean)}.
+	 * The channels of the same peers share them, the first channel writes them
+	 * and the others reference them by <code>$ref</code>, see
+	 * {@link JsonProfileWriter#setReferences(boolean)}.
+	 *
+	 * The SDK can not load it as it is: a referenced profile must be resolved
+	 * by {@link Profiles#resolveReferences(com.google.gson.JsonObject)} before
+	 * it is passed to <code>NetworkConfig</code>, such as with
+	 * {@link NetworkConfigs#toNetworkConfig(com.google.gson.JsonObject)}.
+	 */
+	JSON_REFERENCES("json");
+
+	private final String extension;
+
+	private ProfileFormat(String extension) {
+		this.extension = extension;
+	}
+
+	public String getExtension() {
+		return extension;
+	}
+
+	/**
+	 * @return <code>connection-{client}.{extension}</code>
+	 */
+	public String getFileName(String client) {
+		return "connection-" + client + "." + extension;
+	}
+
+	/**
+	 * @return whether the profiles must be resolved by
+	 *         {@link Profiles#resolveReferences(com.google.gson.JsonObject)}
+	 *         before the SDK can load them.
+	 */
+	public boolean isReferenced() {
+		return this == JSON_REFERENCES;
+	}
+
+	public ProfileWriter newWriter(Writer out) {
+		switch (this) {
+		case JSON:
+			return new JsonProfileWriter(out, true);
+		case COMPACT_JSON:
+			return new JsonProfileWriter(out, false);
+		case YAML_ANCHORS:
+			return new YamlProfileWriter(out, true);
+		case JSON_REFERENCES:
+			JsonProfileWriter writer = new JsonProfileWriter(out, true);
+			writer.setHoistPems(true);
+			writer.setReferences(true);
+			return writer;
+		default:
+			return new YamlProfileWriter(out);
+		}
+	}
+
+	/**
+	 * Parse the formats separated by ',', such as <code>yaml</code>,
+	 * <code>json</code>, <code>compact-json</code>, <code>yaml-anchors</code>,
+	 * <code>json-references</code> or <code>yaml,json</code>. <code>both</code>
+	 * means YAML and JSON.
+	 */
+	public static Set<ProfileFormat> parse(String formats) {
+		Set<ProfileFormat> result = EnumSet.noneOf(ProfileFormat.class);
+		for (String format : formats.split(",")) {
+			String name = format.trim().toUpperCase(Locale.ROOT).replace('-', '_');
+			if (name.isEmpty()) {
+				continue;
+			}
+			if ("BOTH".equals(name)) {
+				result.add(YAML);
+				result.add(JSON);
+			} else if ("YML".equals(name)) {
+				result.add(YAML);
+			} else {
+				try {
+					result.add(valueOf(name));
+				} catch (IllegalArgumentException e) {
+					throw new IllegalArgumentException("Unknown profile format: " + format.trim());
+				}
+			}
+		}
+		check(result);
+		return result;
+	}
+
+	/**
+	 * Check the formats can be written together, every format needs its own
+	 * file extension.
+	 */
+	static void check(Set<ProfileFormat> formats) {
+		if (formats.isEmpty()) {
+			throw new IllegalArgumentException("The profile formats are not specified.");
+		}
+		Map<String, ProfileFormat> extensions = new HashMap<>();
+		for (ProfileFormat format : formats) {
+			ProfileFormat other = extensions.putIfAbsent(format.extension, format);
+			if (other != null) {
+				throw new IllegalArgumentException(
+						other + " and " + format + " are both written to *." + format.extension);
+			}
+		}
+	}
+}
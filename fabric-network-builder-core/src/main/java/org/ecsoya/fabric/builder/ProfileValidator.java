@@ -0,0 +1,441 @@
+package org.ecsoya.fabric.builder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.hyperledger.fabric.sdk.NetworkConfig;
+import org.yaml.snakeyaml.Yaml;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+/**
+ *
+ * Load the generated profiles with the SDK, and check that every peer,
+ * orderer, organization and certificate authority which the profile
+ * references is resolved by the {@link NetworkConfig}.
+ *
+ * The profiles written with references, such as
+ * {@link ProfileFormat#JSON_REFERENCES}, are resolved before they are loaded.
+ * The profiles are loaded in parallel. With {@link #expect(CompiledTopology)}
+ * the numbers of the nodes are also checked against the topology the profiles
+ * were generated from. Every result has the time to load the profile, and the
+ * heap allocated by the loading thread where the JVM can measure it.
+ *
+ * @author ecsoya
+ *
+ */
+public class ProfileValidator {
+
+	private int threads = Runtime.getRuntime().availableProcessors();
+
+	private boolean failFast;
+
+	private CompiledTopology topology;
+
+	/**
+	 * The threads to load the profiles with, the number of the processors by
+	 * default.
+	 */
+	public ProfileValidator threads(int threads) {
+		this.threads = Math.max(1, threads);
+		return this;
+	}
+
+	/**
+	 * Stop at the first broken profile, the profiles not loaded yet are not
+	 * reported.
+	 */
+	public ProfileValidator failFast(boolean failFast) {
+		this.failFast = failFast;
+		return this;
+	}
+
+	/**
+	 * The topology the profiles were generated from, the profile of every client
+	 * must have the same nodes.
+	 */
+	public ProfileValidator expect(CompiledTopology topology) {
+		this.topology = topology;
+		return this;
+	}
+
+	/**
+	 * Validate the <code>connection-*</code> profiles of the directory.
+	 */
+	public Report validate(File directory) throws InterruptedException {
+		File[] files = directory.listFiles((dir, name) -> name.startsWith("connection-")
+				&& (name.endsWith(".yml") || name.endsWith(".yaml") || name.endsWith(".json")));
+		if (files == null) {
+			files = new File[0];
+		}
+		Arrays.sort(files);
+		return validate(Arrays.asList(files));
+	}
+
+	public Report validate(Collection<File> files) throws InterruptedException {
+		List<File> inputs = new ArrayList<>(files);
+		Result[] results = new Result[inputs.size()];
+		ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, Math.max(1, inputs.size())),
+				runnable -> {
+					Thread thread = new Thread(runnable, "profile-validator");
+					thread.setDaemon(true);
+					return thread;
+				});
+		boolean aborted = false;
+		long start = System.nanoTime();
+		try {
+			CompletionService<Result> completion = new ExecutorCompletionService<>(executor);
+			Map<Future<Result>, Integer> futures = new IdentityHashMap<>();
+			for (int i = 0; i < inputs.size(); i++) {
+				File file = inputs.get(i);
+				futures.put(completion.submit(() -> check(file)), i);
+			}
+			for (int i = 0; i < inputs.size(); i++) {
+				Future<Result> future = completion.take();
+				Result result;
+				try {
+					result = future.get();
+				} catch (ExecutionException e) {
+					result = new Result(inputs.get(futures.get(future)));
+					result.problems.add("Unable to validate: " + e.getCause());
+				}
+				results[futures.get(future)] = result;
+				if (failFast && !result.isValid()) {
+					aborted = true;
+					futures.keySet().forEach(running -> running.cancel(true));
+					break;
+				}
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+		List<Result> reported = new ArrayList<>(results.length);
+		for (Result result : results) {
+			if (result != null) {
+				reported.add(result);
+			}
+		}
+		return new Report(reported, aborted, System.nanoTime() - start);
+	}
+
+	private Result check(File file) {
+		Result result = new Result(file);
+		JsonObject profile;
+		boolean referenced;
+		try {
+			JsonObject written = read(file);
+			// The profiles written with references are resolved before they are loaded.
+			profile = Profiles.resolveReferences(written);
+			referenced = !profile.equals(written);
+		} catch (IOException | RuntimeException e) {
+			result.problems.add("Unable to read: " + e);
+			return result;
+		}
+
+		long allocated = allocatedBytes();
+		long start = System.nanoTime();
+		NetworkConfig config;
+		try {
+			config = referenced ? NetworkConfigs.toNetworkConfig(profile)
+					: file.getName().endsWith(".json") ? NetworkConfig.fromJsonFile(file)
+							: NetworkConfig.fromYamlFile(file);
+		} catch (Exception e) {
+			result.problems.add("Unable to load: " + e);
+			return result;
+		} finally {
+			result.loadNanos = System.nanoTime() - start;
+			long after = allocatedBytes();
+			result.allocatedBytes = allocated < 0 || after < 0 ? -1 : after - allocated;
+		}
+		JsonObject client = object(profile, "client");
+		result.client = client.has("organization") ? client.get("organization").getAsString() : null;
+		if (config.getClientOrganization() == null) {
+			result.problems.add("Client organization is not resolved: " + result.client);
+		}
+
+		Set<String> peers = new HashSet<>(config.getPeerNames());
+		Set<String> orderers = new HashSet<>(config.getOrdererNames());
+		Set<String> cas = object(profile, "certificateAuthorities").keySet();
+		result.peers = peers.size();
+		result.orderers = orderers.size();
+		result.channels = config.getChannelNames().size();
+		result.certificateAuthorities = cas.size();
+		compare(result, "peer", object(profile, "peers").keySet(), peers);
+		compare(result, "orderer", object(profile, "orderers").keySet(), orderers);
+		compare(result, "channel", object(profile, "channels").keySet(), config.getChannelNames());
+
+		for (Entry<String, JsonElement> channel : object(profile, "channels").entrySet()) {
+			JsonObject node = channel.getValue().getAsJsonObject();
+			for (String peer : object(node, "peers").keySet()) {
+				if (!peers.contains(peer)) {
+					result.problems.add("Channel " + channel.getKey() + " references unknown peer: " + peer);
+				}
+			}
+			if (node.has("orderers")) {
+				for (JsonElement orderer : node.getAsJsonArray("orderers")) {
+					if (!orderers.contains(orderer.getAsString())) {
+						result.problems.add("Channel " + channel.getKey() + " references unknown orderer: "
+								+ orderer.getAsString());
+					}
+				}
+			}
+		}
+
+		Set<String> orgs = new HashSet<>();
+		for (NetworkConfig.OrgInfo org : config.getOrganizationInfos()) {
+			orgs.add(org.getName());
+			JsonObject node = object(object(profile, "organizations"), org.getName());
+			for (String peer : org.getPeerNames()) {
+				if (!peers.contains(peer)) {
+					result.problems.add("Organization " + org.getName() + " references unknown peer: " + peer);
+				}
+			}
+			int declared = node.has("certificateAuthorities") ? node.getAsJsonArray("certificateAuthorities").size()
+					: 0;
+			if (org.getCertificateAuthorities().size() != declared) {
+				result.problems.add("Organization " + org.getName() + " resolves "
+						+ org.getCertificateAuthorities().size() + " of " + declared + " certificate authorities");
+			}
+		}
+		result.organizations = orgs.size();
+		compare(result, "organization", object(profile, "organizations").keySet(), orgs);
+
+		if (topology != null && result.client != null) {
+			JsonObject expected = topology.profile(result.client);
+			count(result, "peers", object(expected, "peers").size(), result.peers);
+			count(result, "orderers", object(expected, "orderers").size(), result.orderers);
+			count(result, "organizations", object(expected, "organizations").size(), result.organizations);
+			count(result, "channels", object(expected, "channels").size(), result.channels);
+			count(result, "certificate authorities", object(expected, "certificateAuthorities").size(),
+					result.certificateAuthorities);
+		}
+		return result;
+	}
+
+	private static void compare(Result result, String kind, Set<String> declared, Set<String> loaded) {
+		for (String name : declared) {
+			if (!loaded.contains(name)) {
+				result.problems.add("The " + kind + " is not loaded: " + name);
+			}
+		}
+	}
+
+	private static void count(Result result, String kind, int expected, int loaded) {
+		if (expected != loaded) {
+			result.problems.add("Expected " + expected + " " + kind + ", loaded " + loaded);
+		}
+	}
+
+	private static JsonObject read(File file) throws IOException {
+		try (Reader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+			// YAML is a superset of JSON.
+			Object document = new Yaml().load(reader);
+			JsonElement tree = new Gson().toJsonTree(document);
+			if (!tree.isJsonObject()) {
+				throw new IOException("The profile is not an object: " + file);
+			}
+			return tree.getAsJsonObject();
+		}
+	}
+
+	private static JsonObject object(JsonObject parent, String name) {
+		JsonElement value = parent.get(name);
+		return value != null && value.isJsonObject() ? value.getAsJsonObject() : new JsonObject();
+	}
+
+	/**
+	 * @return the bytes allocated by the current thread, or -1 if the JVM does
+	 *         not measure them.
+	 */
+	private static long allocatedBytes() {
+		java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		if (threads instanceof com.sun.management.ThreadMXBean) {
+			com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) threads;
+			if (bean.isThreadAllocatedMemorySupported() && bean.isThreadAllocatedMemoryEnabled()) {
+				return bean.getThreadAllocatedBytes(Thread.currentThread().getId());
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * The validation of a profile.
+	 */
+	public static class Result {
+
+		private final File file;
+
+		private final List<String> problems = new ArrayList<>();
+
+		private String client;
+
+		private long loadNanos;
+
+		private long allocatedBytes;
+
+		private int peers;
+
+		private int orderers;
+
+		private int organizations;
+
+		private int channels;
+
+		private int certificateAuthorities;
+
+		Result(File file) {
+			this.file = file;
+		}
+
+		public File getFile() {
+			return file;
+		}
+
+		public boolean isValid() {
+			return problems.isEmpty();
+		}
+
+		public List<String> getProblems() {
+			return Collections.unmodifiableList(problems);
+		}
+
+		public String getClient() {
+			return client;
+		}
+
+		/**
+		 * The time to load the profile by the SDK.
+		 */
+		public long getLoadNanos() {
+			return loadNanos;
+		}
+
+		/**
+		 * The heap allocated to load the profile by the SDK, or -1 if it was not
+		 * measured.
+		 */
+		public long getAllocatedBytes() {
+			return allocatedBytes;
+		}
+
+		public int getPeers() {
+			return peers;
+		}
+
+		public int getOrderers() {
+			return orderers;
+		}
+
+		public int getOrganizations() {
+			return organizations;
+		}
+
+		public int getChannels() {
+			return channels;
+		}
+
+		public int getCertificateAuthorities() {
+			return certificateAuthorities;
+		}
+
+		@Override
+		public String toString() {
+			StringBuilder line = new StringBuilder();
+			line.append(isValid() ? "OK     " : "BROKEN ").append(file.getName()).append(": ")
+					.append(TimeUnit.NANOSECONDS.toMillis(loadNanos)).append(" ms");
+			if (allocatedBytes >= 0) {
+				line.append(", ").append(allocatedBytes / 1024).append(" KB allocated");
+			}
+			line.append(", ").append(peers).append(" peers, ").append(orderers).append(" orderers, ")
+					.append(organizations).append(" orgs, ").append(channels).append(" channels, ")
+					.append(certificateAuthorities).append(" CAs");
+			for (String problem : problems) {
+				line.append(System.lineSeparator()).append("       ").append(problem);
+			}
+			return line.toString();
+		}
+	}
+
+	/**
+	 * The results of all the validated profiles, in the order of the files.
+	 */
+	public static class Report {
+
+		private final List<Result> results;
+
+		private final boolean aborted;
+
+		private final long nanos;
+
+		Report(List<Result> results, boolean aborted, long nanos) {
+			this.results = Collections.unmodifiableList(results);
+			this.aborted = aborted;
+			this.nanos = nanos;
+		}
+
+		public List<Result> getResults() {
+			return results;
+		}
+
+		/**
+		 * @return true if all the profiles were validated, and all are valid.
+		 */
+		public boolean isValid() {
+			return !aborted && results.stream().allMatch(Result::isValid);
+		}
+
+		/**
+		 * @return true if the validation stopped at a broken profile.
+		 */
+		public boolean isAborted() {
+			return aborted;
+		}
+
+		public List<Result> getFailures() {
+			List<Result> failures = new ArrayList<>();
+			for (Result result : results) {
+				if (!result.isValid()) {
+					failures.add(result);
+				}
+			}
+			return failures;
+		}
+
+		@Override
+		public String toString() {
+			StringBuilder report = new StringBuilder();
+			for (Result result : results) {
+				report.append(result).append(System.lineSeparator());
+			}
+			report.append(results.size()).append(" profiles, ").append(getFailures().size()).append(" broken");
+			if (aborted) {
+				report.append(", aborted");
+			}
+			report.append(", ").append(TimeUnit.NANOSECONDS.toMillis(nanos)).append(" ms");
+			return report.toString();
+		}
+	}
+}
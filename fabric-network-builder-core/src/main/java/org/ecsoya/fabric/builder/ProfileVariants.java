@@ -0,0 +1,231 @@
+package org.ecsoya.fabric.builder;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+/**
+ *
+ * Spread the instances of an application over the peers, every instance uses
+ * a variant of the profile of its client.
+ *
+ * A variant is derived from a key, such as the ID of the instance. The peers
+ * of every org are ranked by rendezvous hashing of the key and the peer name:
+ * the first peers serve the queries and source the events, and the peers and
+ * the orderers are listed in the order of their rank. The endorsing roles are
+ * kept. Over many keys every peer is ranked first equally often, and adding a
+ * peer only moves the keys which rank the new peer first.
+ *
+ * @author ecsoya
+ *
+ */
+public class ProfileVariants {
+
+	private int queryPeers = 1;
+
+	private int eventSources = 1;
+
+	/**
+	 * The number of the peers of every org to serve the chaincode and ledger
+	 * queries, 1 by default.
+	 */
+	public ProfileVariants queryPeers(int queryPeers) {
+		this.queryPeers = queryPeers;
+		return this;
+	}
+
+	/**
+	 * The number of the peers of every org to source the events, 1 by default.
+	 */
+	public ProfileVariants eventSources(int eventSources) {
+		this.eventSources = eventSources;
+		return this;
+	}
+
+	/**
+	 * Select one of the variants for the instance, the selection of most
+	 * instances is kept when variants are added.
+	 *
+	 * @return the index of the variant, from 0.
+	 */
+	public static int select(String instance, int variants) {
+		if (variants < 1) {
+			throw new IllegalArgumentException("variants must be positive: " + variants);
+		}
+		int selected = 0;
+		long best = Long.MIN_VALUE;
+		for (int i = 0; i < variants; i++) {
+			long score = score(instance, Integer.toString(i));
+			if (score > best) {
+				best = score;
+				selected = i;
+			}
+		}
+		return selected;
+	}
+
+	/**
+	 * Derive the variant of the profile for the key. The profile is not
+	 * modified, the unchanged sections are shared with the variant.
+	 */
+	public JsonObject variant(JsonObject profile, String key) {
+		Map<String, Integer> ranks = new HashMap<>();
+		JsonElement organizations = profile.get("organizations");
+		if (organizations != null && organizations.isJsonObject()) {
+			for (Entry<String, JsonElement> org : organizations.getAsJsonObject().entrySet()) {
+				JsonElement peers = org.getValue().getAsJsonObject().get("peers");
+				if (peers == null || !peers.isJsonArray()) {
+					continue;
+				}
+				List<String> ranked = new ArrayList<>();
+				for (JsonElement peer : peers.getAsJsonArray()) {
+					ranked.add(peer.getAsString());
+				}
+				List<String> order = rank(key, ranked);
+				for (int i = 0; i < order.size(); i++) {
+					ranks.put(order.get(i), i);
+				}
+			}
+		}
+
+		JsonObject result = new JsonObject();
+		for (Entry<String, JsonElement> entry : profile.entrySet()) {
+			JsonElement value = entry.getValue();
+			if (value.isJsonObject()) {
+				switch (entry.getKey()) {
+				case "channels":
+					value = channels(value.getAsJsonObject(), key, ranks);
+					break;
+				case "peers":
+					value = reorder(value.getAsJsonObject(), byRank(value.getAsJsonObject().keySet(), ranks));
+					break;
+				case "orderers":
+					value = reorder(value.getAsJsonObject(), rank(key, value.getAsJsonObject().keySet()));
+					break;
+				default:
+					break;
+				}
+			}
+			result.add(entry.getKey(), value);
+		}
+		return result;
+	}
+
+	@Override
+	public String toString() {
+		return "ProfileVariants [queryPeers=" + queryPeers + ", eventSources=" + eventSources + "]";
+	}
+
+	private JsonObject channels(JsonObject channels, String key, Map<String, Integer> ranks) {
+		JsonObject result = new JsonObject();
+		for (Entry<String, JsonElement> channel : channels.entrySet()) {
+			if (!channel.getValue().isJsonObject()) {
+				result.add(channel.getKey(), channel.getValue());
+				continue;
+			}
+			JsonObject node = new JsonObject();
+			for (Entry<String, JsonElement> entry : channel.getValue().getAsJsonObject().entrySet()) {
+				JsonElement value = entry.getValue();
+				if ("orderers".equals(entry.getKey()) && value.isJsonArray()) {
+					List<String> orderers = new ArrayList<>();
+					for (JsonElement orderer : value.getAsJsonArray()) {
+						orderers.add(orderer.getAsString());
+					}
+					JsonArray array = new JsonArray();
+					for (String orderer : rank(key, orderers)) {
+						array.add(orderer);
+					}
+					value = array;
+				} else if ("peers".equals(entry.getKey()) && value.isJsonObject()) {
+					value = peers(value.getAsJsonObject(), ranks);
+				}
+				node.add(entry.getKey(), value);
+			}
+			result.add(channel.getKey(), node);
+		}
+		return result;
+	}
+
+	private JsonObject peers(JsonObject peers, Map<String, Integer> ranks) {
+		JsonObject result = new JsonObject();
+		for (String name : byRank(peers.keySet(), ranks)) {
+			JsonElement value = peers.get(name);
+			Integer rank = ranks.get(name);
+			if (rank != null && value.isJsonObject()) {
+				JsonObject roles = value.getAsJsonObject().deepCopy();
+				roles.addProperty("chaincodeQuery", rank < queryPeers);
+				roles.addProperty("ledgerQuery", rank < queryPeers);
+				roles.addProperty("eventSource", rank < eventSources);
+				value = roles;
+			}
+			result.add(name, value);
+		}
+		return result;
+	}
+
+	/**
+	 * Sort the peers by their rank in their orgs, so the peers of the same rank
+	 * are in the order of their orgs, and the peers of no org are at the end.
+	 */
+	private static List<String> byRank(Collection<String> peers, Map<String, Integer> ranks) {
+		List<String> order = new ArrayList<>(peers);
+		order.sort((a, b) -> Integer.compare(ranks.getOrDefault(a, Integer.MAX_VALUE),
+				ranks.getOrDefault(b, Integer.MAX_VALUE)));
+		return order;
+	}
+
+	private static JsonObject reorder(JsonObject section, List<String> order) {
+		JsonObject result = new JsonObject();
+		for (String name : order) {
+			result.add(name, section.get(name));
+		}
+		return result;
+	}
+
+	/**
+	 * @return the nodes by their score for the key, the highest first.
+	 */
+	private static List<String> rank(String key, Iterable<String> nodes) {
+		Map<String, Long> scores = new LinkedHashMap<>();
+		for (String node : nodes) {
+			scores.put(node, score(key, node));
+		}
+		List<String> order = new ArrayList<>(scores.keySet());
+		Collections.sort(order, (a, b) -> Long.compare(scores.get(b), scores.get(a)));
+		return order;
+	}
+
+	/**
+	 * The rendezvous score of the node for the key, FNV-1a of both finished by
+	 * the mixer of MurmurHash3, so that it is the same in every JVM.
+	 */
+	private static long score(String key, String node) {
+		long hash = 0xcbf29ce484222325L;
+		hash = fnv(hash, key);
+		hash = (hash ^ 0xff) * 0x100000001b3L;
+		hash = fnv(hash, node);
+		hash ^= hash >>> 33;
+		hash *= 0xff51afd7ed558ccdL;
+		hash ^= hash >>> 33;
+		hash *= 0xc4ceb9fe1a85ec53L;
+		hash ^= hash >>> 33;
+		return hash;
+	}
+
+	private static long fnv(long hash, String value) {
+		for (int i = 0; i < value.length(); i++) {
+			hash = (hash ^ value.charAt(i)) * 0x100000001b3L;
+		}
+		return hash;
+	}
+
+}
@@ -0,0 +1,66 @@
+package org.ecsoya.fabric.builder;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+
+/**
+ *
+ * Streaming writer of a fabric network connection profile.
+ *
+ * The events are written to the underlying stream as soon as they are
+ * received, so no intermediate copy of the profile is ever held in memory.
+ *
+ * A member of an object with a null value is skipped, like a missing PEM, only
+ * the null elements of an array are written.
+ *
+ * @author ecsoya
+ *
+ */
+public interface ProfileWriter extends Closeable, Flushable {
+
+	ProfileWriter beginObject() throws IOException;
+
+	ProfileWriter endObject() throws IOException;
+
+	ProfileWriter beginArray() throws IOException;
+
+	ProfileWriter endArray() throws IOException;
+
+	ProfileWriter name(String name) throws IOException;
+
+	ProfileWriter value(String value) throws IOException;
+
+	ProfileWriter value(boolean value) throws IOException;
+
+	ProfileWriter value(long value) throws IOException;
+
+	ProfileWriter value(Number value) throws IOException;
+
+	ProfileWriter nullValue() throws IOException;
+
+	/**
+	 * Whether an object or array can be written once and referenced afterwards,
+	 * see {@link #share()} and {@link #reference(String)}. False by default.
+	 */
+	default boolean isSharing() {
+		return false;
+	}
+
+	/**
+	 * Share the next object or array.
+	 *
+	 * @return the ID to reference it.
+	 */
+	default String share() throws IOException {
+		throw new UnsupportedOperationException();
+	}
+
+	/**
+	 * Write a reference to a shared object or array, which has been written.
+	 */
+	default ProfileWriter reference(String id) throws IOException {
+		throw new UnsupportedOperationException();
+	}
+
+}
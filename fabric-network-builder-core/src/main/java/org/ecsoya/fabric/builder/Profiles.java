@@ -0,0 +1,265 @@
+package org.ecsoya.fabric.builder;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+
+/**
+ *
+ * Serialize the connection profiles built by the network builders.
+ *
+ * The profile is streamed from the builder's JSON tree straight to the output
+ * in one pass, without any intermediate String or Map copies.
+ *
+ * @author ecsoya
+ *
+ */
+public final class Profiles {
+
+	private Profiles() {
+	}
+
+	/**
+	 * Write the profile as YAML, the writer is flushed but not closed.
+	 */
+	public static void writeYaml(JsonObject profile, Writer out) throws IOException {
+		YamlProfileWriter writer = new YamlProfileWriter(out);
+		write(profile, writer);
+		writer.flush();
+	}
+
+	/**
+	 * Write the profile as UTF-8 encoded YAML, the stream is flushed but not
+	 * closed.
+	 */
+	public static void writeYaml(JsonObject profile, OutputStream out) throws IOException {
+		writeYaml(profile, new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8)));
+	}
+
+	/**
+	 * Write the profile into the file atomically, an unchanged file is not
+	 * rewritten.
+	 *
+	 * @see ProfileFiles#write(java.nio.file.Path, ProfileFiles.Content)
+	 */
+	public static void writeYaml(JsonObject profile, File file) throws IOException {
+		ProfileFiles.write(file.toPath(), out -> writeYaml(profile, out));
+	}
+
+	/**
+	 * Write the profile as YAML, with every distinct PEM written once as an
+	 * anchor and referenced by aliases. The writer is flushed but not closed.
+	 */
+	public static void writeYaml(JsonObject profile, Writer out, boolean anchors) throws IOException {
+		YamlProfileWriter writer = new YamlProfileWriter(out, anchors);
+		write(profile, writer);
+		writer.flush();
+	}
+
+	/**
+	 * Write the profile as pretty printed JSON, the writer is flushed but not
+	 * closed.
+	 */
+	public static void writeJson(JsonObject profile, Writer out) throws IOException {
+		JsonProfileWriter writer = new JsonProfileWriter(out);
+		write(profile, writer);
+		writer.flush();
+	}
+
+	/**
+	 * Write the profile as UTF-8 encoded JSON, the stream is flushed but not
+	 * closed.
+	 */
+	public static void writeJson(JsonObject profile, OutputStream out) throws IOException {
+		writeJson(profile, new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8)));
+	}
+
+	/**
+	 * Write the profile into the file atomically, an unchanged file is not
+	 * rewritten.
+	 *
+	 * @see ProfileFiles#write(java.nio.file.Path, ProfileFiles.Content)
+	 */
+	public static void writeJson(JsonObject profile, File file) throws IOException {
+		ProfileFiles.write(file.toPath(), out -> writeJson(profile, out));
+	}
+
+	/**
+	 * Write the profile as pretty printed JSON, with every distinct PEM hoisted
+	 * into the <code>x-pems</code> section. The writer is flushed but not closed.
+	 *
+	 * @see #resolveReferences(JsonObject)
+	 */
+	public static void writeJson(JsonObject profile, Writer out, boolean hoistPems) throws IOException {
+		JsonProfileWriter writer = new JsonProfileWriter(out);
+		writer.setHoistPems(hoistPems);
+		write(profile, writer);
+		writer.flush();
+	}
+
+	/**
+	 * Resolve all the references written by {@link JsonProfileWriter}, the
+	 * hoisted PEMs and the shared objects, the result can be loaded by the SDK.
+	 * The resolved values are shared, not copied.
+	 */
+	public static JsonObject resolveReferences(JsonObject profile) {
+		Map<JsonElement, JsonElement> resolved = new IdentityHashMap<>();
+		JsonObject result = new JsonObject();
+		for (Entry<String, JsonElement> entry : profile.entrySet()) {
+			if (!JsonProfileWriter.PEMS.equals(entry.getKey())) {
+				result.add(entry.getKey(), resolve(entry.getValue(), profile, resolved));
+			}
+		}
+		return result;
+	}
+
+	private static JsonElement resolve(JsonElement element, JsonObject root, Map<JsonElement, JsonElement> resolved) {
+		if (element.isJsonObject()) {
+			JsonObject object = element.getAsJsonObject();
+			JsonElement ref = object.get(JsonProfileWriter.REF);
+			if (object.size() == 1 && ref != null && ref.isJsonPrimitive() && ref.getAsString().startsWith("#/")) {
+				JsonElement target = JsonProfileWriter.lookup(root, ref.getAsString());
+				if (target == null) {
+					throw new IllegalArgumentException("Unresolved reference: " + ref.getAsString());
+				}
+				if (!target.isJsonObject() && !target.isJsonArray()) {
+					return target;
+				}
+				JsonElement result = resolved.get(target);
+				if (result == null) {
+					result = resolve(target, root, resolved);
+					resolved.put(target, result);
+				}
+				return result;
+			}
+			JsonObject result = new JsonObject();
+			for (Entry<String, JsonElement> entry : object.entrySet()) {
+				result.add(entry.getKey(), resolve(entry.getValue(), root, resolved));
+			}
+			return result;
+		} else if (element.isJsonArray()) {
+			JsonArray result = new JsonArray();
+			for (JsonElement child : element.getAsJsonArray()) {
+				result.add(resolve(child, root, resolved));
+			}
+			return result;
+		}
+		return element;
+	}
+
+	/**
+	 * Walk the JSON tree and send every node to the writer.
+	 *
+	 * If the writer is {@link ProfileWriter#isSharing() sharing}, an object or
+	 * array which is found more than once in the tree (by identity, not by
+	 * equality) is written once, and referenced everywhere else.
+	 */
+	public static void write(JsonElement element, ProfileWriter writer) throws IOException {
+		if (writer.isSharing()) {
+			Set<JsonElement> shared = Collections.newSetFromMap(new IdentityHashMap<>());
+			findShared(element, Collections.newSetFromMap(new IdentityHashMap<>()), shared);
+			if (!shared.isEmpty()) {
+				write(element, writer, shared, new IdentityHashMap<>());
+				return;
+			}
+		}
+		writeTree(element, writer);
+	}
+
+	private static void findShared(JsonElement element, Set<JsonElement> seen, Set<JsonElement> shared) {
+		if (element.isJsonObject()) {
+			if (element.getAsJsonObject().size() == 0) {
+				return;
+			}
+			if (!seen.add(element)) {
+				shared.add(element);
+				return;
+			}
+			for (Entry<String, JsonElement> entry : element.getAsJsonObject().entrySet()) {
+				findShared(entry.getValue(), seen, shared);
+			}
+		} else if (element.isJsonArray()) {
+			if (element.getAsJsonArray().size() == 0) {
+				return;
+			}
+			if (!seen.add(element)) {
+				shared.add(element);
+				return;
+			}
+			for (JsonElement child : element.getAsJsonArray()) {
+				findShared(child, seen, shared);
+			}
+		}
+	}
+
+	private static void write(JsonElement element, ProfileWriter writer, Set<JsonElement> shared,
+			Map<JsonElement, String> ids) throws IOException {
+		if (shared.contains(element)) {
+			String id = ids.get(element);
+			if (id != null) {
+				writer.reference(id);
+				return;
+			}
+			ids.put(element, writer.share());
+		}
+		if (element.isJsonObject()) {
+			writer.beginObject();
+			for (Entry<String, JsonElement> entry : element.getAsJsonObject().entrySet()) {
+				writer.name(entry.getKey());
+				write(entry.getValue(), writer, shared, ids);
+			}
+			writer.endObject();
+		} else if (element.isJsonArray()) {
+			writer.beginArray();
+			for (JsonElement child : (JsonArray) element) {
+				write(child, writer, shared, ids);
+			}
+			writer.endArray();
+		} else {
+			writeTree(element, writer);
+		}
+	}
+
+	static void writeTree(JsonElement element, ProfileWriter writer) throws IOException {
+		if (element == null || element.isJsonNull()) {
+			writer.nullValue();
+		} else if (element.isJsonObject()) {
+			writer.beginObject();
+			for (Entry<String, JsonElement> entry : element.getAsJsonObject().entrySet()) {
+				writer.name(entry.getKey());
+				writeTree(entry.getValue(), writer);
+			}
+			writer.endObject();
+		} else if (element.isJsonArray()) {
+			writer.beginArray();
+			for (JsonElement child : (JsonArray) element) {
+				writeTree(child, writer);
+			}
+			writer.endArray();
+		} else {
+			JsonPrimitive primitive = element.getAsJsonPrimitive();
+			if (primitive.isBoolean()) {
+				writer.value(primitive.getAsBoolean());
+			} else if (primitive.isNumber()) {
+				writer.value(primitive.getAsNumber());
+			} else {
+				writer.value(primitive.getAsString());
+			}
+		}
+	}
+}
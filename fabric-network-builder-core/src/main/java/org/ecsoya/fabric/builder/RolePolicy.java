@@ -0,0 +1,211 @@
+package org.ecsoya.fabric.builder;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.google.gson.JsonObject;
+
+/**
+ *
+ * Declare the roles of the peers by rules, such as the first K peers endorse or
+ * every Nth peer sources the events.
+ *
+ * The rules are declared by scope: the {@link #defaults()}, an
+ * {@link #org(String) org}, a {@link #channel(String) channel}, or an org in a
+ * channel. The most specific declared scope of a peer is used alone, the
+ * scopes are not merged. In a scope, a peer takes the roles of all the rules it
+ * matches, unless it has {@link Rules#peer(String, Role...) explicit roles}.
+ *
+ * A peer matched by any rule has all the roles written, true or false. A peer
+ * matched by none is written as an empty object, which takes the defaults of
+ * the SDK.
+ *
+ * @author ecsoya
+ *
+ */
+public class RolePolicy implements PeerRoles {
+
+	/**
+	 * The roles of a peer in a channel.
+	 */
+	public enum Role {
+
+		ENDORSING_PEER("endorsingPeer"),
+
+		CHAINCODE_QUERY("chaincodeQuery"),
+
+		LEDGER_QUERY("ledgerQuery"),
+
+		EVENT_SOURCE("eventSource");
+
+		private final String property;
+
+		private Role(String property) {
+			this.property = property;
+		}
+
+		public String getProperty() {
+			return property;
+		}
+	}
+
+	/**
+	 * The rules of a scope, evaluated in constant time for every rule, so that
+	 * the number of peers does not matter.
+	 */
+	public static class Rules {
+
+		private final List<int[]> rules = new ArrayList<>();
+
+		private final Map<String, Integer> peers = new HashMap<>();
+
+		private Rules() {
+		}
+
+		/**
+		 * The first <code>count</code> peers take the roles.
+		 */
+		public Rules first(int count, Role... roles) {
+			return add(0, 1, count, roles);
+		}
+
+		/**
+		 * The peers with an index of <code>offset</code>,
+		 * <code>offset + step</code>, <code>offset + 2 * step</code>... take the
+		 * roles.
+		 */
+		public Rules every(int step, int offset, Role... roles) {
+			if (step < 1) {
+				throw new IllegalArgumentException("step must be positive: " + step);
+			}
+			return add(offset, step, Integer.MAX_VALUE, roles);
+		}
+
+		/**
+		 * The peer at the index takes the roles.
+		 */
+		public Rules index(int index, Role... roles) {
+			return add(index, 1, 1, roles);
+		}
+
+		/**
+		 * All the peers take the roles.
+		 */
+		public Rules all(Role... roles) {
+			return add(0, 1, Integer.MAX_VALUE, roles);
+		}
+
+		/**
+		 * The peer takes exactly the roles, whatever the other rules are.
+		 */
+		public Rules peer(String peer, Role... roles) {
+			peers.put(peer, mask(roles));
+			return this;
+		}
+
+		private Rules add(int start, int step, int count, Role... roles) {
+			if (start < 0 || count < 0) {
+				throw new IllegalArgumentException("The index and count must not be negative.");
+			}
+			rules.add(new int[] { start, step, count, mask(roles) });
+			return this;
+		}
+
+		/**
+		 * @return the mask of the roles, or -1 if no rule matches.
+		 */
+		private int evaluate(String peer, int index) {
+			Integer explicit = peers.get(peer);
+			if (explicit != null) {
+				return explicit;
+			}
+			int mask = -1;
+			for (int[] rule : rules) {
+				int offset = index - rule[0];
+				if (offset >= 0 && offset % rule[1] == 0 && offset / rule[1] < rule[2]) {
+					mask = Math.max(mask, 0) | rule[3];
+				}
+			}
+			return mask;
+		}
+
+		private static int mask(Role... roles) {
+			int mask = 0;
+			for (Role role : roles) {
+				mask |= 1 << role.ordinal();
+			}
+			return mask;
+		}
+	}
+
+	private static final Role[] ROLES = Role.values();
+
+	private final Rules defaults = new Rules();
+
+	private final Map<String, Rules> scopes = new HashMap<>();
+
+	/**
+	 * The rules of the peers without a more specific scope.
+	 */
+	public Rules defaults() {
+		return defaults;
+	}
+
+	/**
+	 * The rules of the peers of the org in all channels.
+	 */
+	public Rules org(String org) {
+		return scope(null, org);
+	}
+
+	/**
+	 * The rules of all the peers in the channel.
+	 */
+	public Rules channel(String channel) {
+		return scope(channel, null);
+	}
+
+	/**
+	 * The rules of the peers of the org in the channel.
+	 */
+	public Rules channel(String channel, String org) {
+		return scope(channel, org);
+	}
+
+	private Rules scope(String channel, String org) {
+		return scopes.computeIfAbsent(key(channel, org), k -> new Rules());
+	}
+
+	private static String key(String channel, String org) {
+		return (channel == null ? "" : channel) + '\0' + (org == null ? "" : org);
+	}
+
+	private Rules find(String channel, String org) {
+		if (scopes.isEmpty()) {
+			return defaults;
+		}
+		Rules rules = scopes.get(key(channel, org));
+		if (rules == null) {
+			rules = scopes.get(key(null, org));
+		}
+		if (rules == null) {
+			rules = scopes.get(key(channel, null));
+		}
+		return rules == null ? defaults : rules;
+	}
+
+	@Override
+	public JsonObject roles(String channel, String org, String peer, int index) {
+		JsonObject o = new JsonObject();
+		int mask = find(channel, org).evaluate(peer, index);
+		if (mask >= 0) {
+			for (Role role : ROLES) {
+				o.addProperty(role.getProperty(), (mask & 1 << role.ordinal()) != 0);
+			}
+		}
+		return o;
+	}
+
+}
@@ -0,0 +1,510 @@
+package org.ecsoya.fabric.builder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+
+/**
+ *
+ * Build the connection profile of a network, the nodes are named and their
+ * crypto materials are located by a {@link CryptoLayout}. The profile is built
+ * as an immutable {@link Profile} model, and converted to its JSON tree only
+ * on demand.
+ *
+ * The engine is shared by all the network builders, it does not validate the
+ * configuration, which is done by the builders.
+ *
+ * @author ecsoya
+ *
+ */
+public class TopologyEngine {
+
+	private final CryptoLayout layout;
+
+	private String name;
+
+	private String[] orgs;
+
+	private String[] peers;
+
+	private String[] orderers;
+
+	private String[] channels;
+
+	private Endpoints endpoints = new Endpoints();
+
+	private File root;
+
+	private PemCache pemCache = PemCache.NONE;
+
+	private CryptoIndex crypto;
+
+	private boolean usePem = true;
+
+	private boolean credentialStore;
+
+	private PeerRoles roles;
+
+	private GrpcTuning tuning = GrpcTuning.DEFAULT;
+
+	private final Map<String, GrpcTuning> nodeTunings = new HashMap<>();
+
+	private ChannelPolicies policies = ChannelPolicies.defaults();
+
+	private BuildListener listener = BuildListener.NONE;
+
+	private final Map<String, ChannelPolicies> channelPolicies = new HashMap<>();
+
+	/**
+	 * The joined peers of the orgs by channel, the channels not in it are joined
+	 * by all the peers.
+	 */
+	private final Map<String, Map<String, String[]>> members = new HashMap<>();
+
+	public TopologyEngine(CryptoLayout layout) {
+		if (layout == null) {
+			throw new NullPointerException("layout == null");
+		}
+		this.layout = layout;
+	}
+
+	public TopologyEngine name(String name) {
+		this.name = name;
+		return this;
+	}
+
+	public TopologyEngine orgs(String... orgs) {
+		this.orgs = orgs;
+		return this;
+	}
+
+	/**
+	 * The peers of every org.
+	 */
+	public TopologyEngine peers(String... peers) {
+		this.peers = peers;
+		return this;
+	}
+
+	public TopologyEngine orderers(String... orderers) {
+		this.orderers = orderers;
+		return this;
+	}
+
+	public TopologyEngine channels(String... channels) {
+		this.channels = channels;
+		return this;
+	}
+
+	public TopologyEngine endpoints(Endpoints endpoints) {
+		this.endpoints = endpoints;
+		return this;
+	}
+
+	public TopologyEngine root(File root) {
+		this.root = root;
+		return this;
+	}
+
+	public TopologyEngine pemCache(PemCache pemCache) {
+		this.pemCache = pemCache == null ? PemCache.NONE : pemCache;
+		return this;
+	}
+
+	/**
+	 * The index of the root directory, the root is scanned when the index is
+	 * null and the PEMs are used.
+	 */
+	public TopologyEngine cryptoIndex(CryptoIndex crypto) {
+		this.crypto = crypto;
+		return this;
+	}
+
+	/**
+	 * Embed the PEMs, or reference the crypto files by their relative paths.
+	 */
+	public TopologyEngine usePem(boolean usePem) {
+		this.usePem = usePem;
+		return this;
+	}
+
+	/**
+	 * Add the <code>credentialStore</code> to the client.
+	 */
+	public TopologyEngine credentialStore(boolean credentialStore) {
+		this.credentialStore = credentialStore;
+		return this;
+	}
+
+	public TopologyEngine roles(PeerRoles roles) {
+		this.roles = roles;
+		return this;
+	}
+
+	/**
+	 * The gRPC options of all the nodes and the timeouts of the client.
+	 */
+	public TopologyEngine tuning(GrpcTuning tuning) {
+		this.tuning = tuning == null ? GrpcTuning.DEFAULT : tuning;
+		return this;
+	}
+
+	/**
+	 * The gRPC options of a node instead of the tuning of all the nodes.
+	 *
+	 * @param node the name of the peer or orderer in the profile, such as
+	 *             <code>peer0.org1.example.com</code>.
+	 */
+	public TopologyEngine tuning(String node, GrpcTuning tuning) {
+		if (tuning == null) {
+			nodeTunings.remove(node);
+		} else {
+			nodeTunings.put(node, tuning);
+		}
+		return this;
+	}
+
+	/**
+	 * The policies of all the channels.
+	 */
+	public TopologyEngine policies(ChannelPolicies policies) {
+		this.policies = policies == null ? ChannelPolicies.defaults() : policies;
+		return this;
+	}
+
+	/**
+	 * The policies of a channel instead of the policies of all the channels.
+	 */
+	public TopologyEngine policies(String channel, ChannelPolicies policies) {
+		if (policies == null) {
+			channelPolicies.remove(channel);
+		} else {
+			channelPolicies.put(channel, policies);
+		}
+		return this;
+	}
+
+	/**
+	 * Join the peers of the org to the channel. Once a member is declared, the
+	 * channel only lists its declared members, instead of all the peers of all
+	 * the orgs.
+	 *
+	 * @param peers the joined peers, or none for all the peers of the org.
+	 */
+	public TopologyEngine members(String channel, String org, String... peers) {
+		members.computeIfAbsent(channel, k -> new LinkedHashMap<>()).put(org, peers);
+		return this;
+	}
+
+	/**
+	 * Observe the phases, the crypto reads and the sections of the builds.
+	 */
+	public TopologyEngine listener(BuildListener listener) {
+		this.listener = listener == null ? BuildListener.NONE : listener;
+		return this;
+	}
+
+	/**
+	 * @return the index used by the last build, it can be reused by the next
+	 *         builds of the same root until files are added or removed.
+	 */
+	public CryptoIndex getCryptoIndex() {
+		return crypto;
+	}
+
+	/**
+	 * Build the JSON tree of the profile.
+	 *
+	 * @param clientOrg the organization of the client, or null to build the
+	 *                  profile for all clients.
+	 * @see #model(String)
+	 */
+	public JsonObject build(String clientOrg) throws NetworkBuilderException {
+		return model(clientOrg).toJson();
+	}
+
+	/**
+	 * Build the immutable model of the profile, every node is created once.
+	 *
+	 * @param clientOrg the organization of the client, or null to build the
+	 *                  profile for all clients.
+	 */
+	public Profile model(String clientOrg) throws NetworkBuilderException {
+		long start = lap(null, 0);
+		if (usePem && crypto == null) {
+			try {
+				crypto = CryptoIndex.scan(root.toPath());
+			} catch (IOException e) {
+				throw new NetworkBuilderException("Unable to scan the network root directory.", e);
+			}
+			start = lap(BuildListener.Phase.SCAN, start);
+			listener.scanned(crypto.getRoot(), crypto.size());
+		}
+		// The names of the peers, by org and peer, are shared by all the sections.
+		String[][] peerNames = new String[orgs.length][peers.length];
+		for (int o = 0; o < orgs.length; o++) {
+			for (int p = 0; p < peers.length; p++) {
+				peerNames[o][p] = layout.peerName(orgs[o], peers[p]);
+			}
+		}
+		String[] ordererNames = new String[orderers.length];
+		for (int i = 0; i < orderers.length; i++) {
+			ordererNames[i] = layout.ordererName(orderers[i]);
+		}
+
+		// The gRPC options by the tunings.
+		Map<Map<String, JsonPrimitive>, Profile.Options> options = new IdentityHashMap<>();
+
+		// client
+		Profile.Client client = new Profile.Client(clientOrg, tuning.buildTimeout(), credentialStore);
+		start = lap(BuildListener.Phase.CLIENT, start);
+
+		// channels
+		Profile.Channel[] channels = buildChannels(peerNames, ordererNames);
+		start = lap(BuildListener.Phase.CHANNELS, start);
+		listener.nodes("channels", channels.length);
+
+		// organizations
+		Profile.Org[] organizations = buildOrganizations(peerNames);
+		start = lap(BuildListener.Phase.ORGANIZATIONS, start);
+		listener.nodes("organizations", organizations.length);
+
+		// orderers
+		Profile.Orderer[] orderers = buildOrderers(ordererNames, options);
+		start = lap(BuildListener.Phase.ORDERERS, start);
+		listener.nodes("orderers", orderers.length);
+
+		// peers
+		Profile.Peer[] peers = buildPeers(peerNames, options);
+		start = lap(BuildListener.Phase.PEERS, start);
+		listener.nodes("peers", peers.length);
+
+		// certificateAuthorities
+		Profile.CertificateAuthority[] certificateAuthorities = buildCertificateAuthorities();
+		lap(BuildListener.Phase.CERTIFICATE_AUTHORITIES, start);
+		listener.nodes("certificateAuthorities", certificateAuthorities.length);
+		return new Profile(name, client, channels, organizations, orderers, peers, certificateAuthorities);
+	}
+
+	/**
+	 * Report the phase started at <code>start</code>, the clock is only read
+	 * when a listener is attached.
+	 *
+	 * @param phase the finished phase, or null to start the first one.
+	 * @return the start of the next phase.
+	 */
+	private long lap(BuildListener.Phase phase, long start) {
+		if (listener == BuildListener.NONE) {
+			return 0;
+		}
+		long now = System.nanoTime();
+		if (phase != null) {
+			listener.phase(phase, now - start);
+		}
+		return now;
+	}
+
+	private Profile.CertificateAuthority[] buildCertificateAuthorities() throws NetworkBuilderException {
+		Profile.CertificateAuthority[] result = new Profile.CertificateAuthority[orgs.length];
+		for (int i = 0; i < orgs.length; i++) {
+			String org = orgs[i];
+			Profile.Material tlsCACerts = usePem ? Profile.Material.pem(getCaCertPem(org))
+					: Profile.Material.path(layout.caCertPath(org));
+			result[i] = new Profile.CertificateAuthority(layout.caHostName(org), layout.caName(org),
+					"https://" + endpoints.getUrl(org, null) + ":7054", tlsCACerts);
+		}
+		return result;
+	}
+
+	private Profile.Peer[] buildPeers(String[][] peerNames, Map<Map<String, JsonPrimitive>, Profile.Options> options)
+			throws NetworkBuilderException {
+		Profile.Peer[] result = new Profile.Peer[orgs.length * peers.length];
+		int index = 0;
+		for (int o = 0; o < orgs.length; o++) {
+			String org = orgs[o];
+			for (int p = 0; p < peers.length; p++) {
+				String name = peerNames[o][p];
+				String url = "grpcs://" + layout.peerAddress(endpoints, org, peers[p]);
+				Profile.Material tlsCACerts = usePem ? Profile.Material.pem(getPeerCertPem(org, peers[p]))
+						: Profile.Material.path(layout.peerTlsCaPath(org, peers[p]));
+				result[index++] = new Profile.Peer(name, org, url,
+						options.computeIfAbsent(getTuning(name).getPeerOptions(), Profile.Options::new), tlsCACerts);
+			}
+		}
+		return result;
+	}
+
+	private Profile.Orderer[] buildOrderers(String[] ordererNames,
+			Map<Map<String, JsonPrimitive>, Profile.Options> options) throws NetworkBuilderException {
+		Profile.Orderer[] result = new Profile.Orderer[orderers.length];
+		for (int i = 0; i < orderers.length; i++) {
+			String orderer = orderers[i];
+			String name = ordererNames[i];
+			String url = "grpcs://" + endpoints.getUrl(orderer, null) + ":7050";
+			Profile.Material tlsCACerts = usePem ? Profile.Material.pem(getOrdererCertPem(orderer))
+					: Profile.Material.path(layout.ordererTlsCaPath(orderer));
+			result[i] = new Profile.Orderer(name, url,
+					options.computeIfAbsent(getTuning(name).getOrdererOptions(), Profile.Options::new), tlsCACerts);
+		}
+		return result;
+	}
+
+	private Profile.Org[] buildOrganizations(String[][] peerNames) throws NetworkBuilderException {
+		Profile.Org[] result = new Profile.Org[orgs.length];
+		for (int o = 0; o < orgs.length; o++) {
+			String org = orgs[o];
+			Profile.Material adminPrivateKey = usePem ? Profile.Material.pem(getAdminPrivateKeyPem(org))
+					: Profile.Material.path(layout.adminKeyPath(org));
+			Profile.Material signedCert = usePem ? Profile.Material.pem(getAdminCertPem(org))
+					: Profile.Material.path(layout.adminCertPaths(org)[0]);
+			// The peers of an org are always numbered from peer0.
+			String[] orgPeers = new String[peers.length];
+			for (int i = 0; i < peers.length; i++) {
+				String peer = "peer" + i;
+				orgPeers[i] = peer.equals(peers[i]) ? peerNames[o][i] : layout.peerName(org, peer);
+			}
+			result[o] = new Profile.Org(org, layout.caHostName(org), adminPrivateKey, signedCert, orgPeers);
+		}
+		return result;
+	}
+
+	private GrpcTuning getTuning(String node) {
+		return nodeTunings.isEmpty() ? tuning : nodeTunings.getOrDefault(node, tuning);
+	}
+
+	private String readPem(String path) throws IOException {
+		return crypto.read(path, pemCache, listener);
+	}
+
+	private String getCaCertPem(String org) {
+		try {
+			return readPem(layout.caCertPath(org));
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
+	private String getOrdererCertPem(String orderer) throws NetworkBuilderException {
+		try {
+			return readPem(layout.ordererTlsCaPath(orderer));
+		} catch (IOException e) {
+			throw new NetworkBuilderException(e);
+		}
+	}
+
+	private String getPeerCertPem(String org, String peer) throws NetworkBuilderException {
+		try {
+			return readPem(layout.peerTlsCaPath(org, peer));
+		} catch (IOException e) {
+			throw new NetworkBuilderException(e);
+		}
+	}
+
+	/**
+	 * @return the first indexed candidate of the admin certificate, or null.
+	 */
+	private String getAdminCertPath(String org) {
+		for (String path : layout.adminCertPaths(org)) {
+			if (crypto.contains(path)) {
+				return path;
+			}
+		}
+		return null;
+	}
+
+	private String getAdminCertPem(String org) {
+		String path = getAdminCertPath(org);
+		if (path == null) {
+			return null;
+		}
+		try {
+			return readPem(path);
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * The key of the admin certificate, the profile always pairs them.
+	 */
+	private String getAdminPrivateKeyPem(String org) throws NetworkBuilderException {
+		try {
+			return crypto.readKey(layout.adminKeyPath(org), getAdminCertPath(org), pemCache, listener);
+		} catch (IOException e) {
+			throw new NetworkBuilderException(e);
+		}
+	}
+
+	private Profile.Channel[] buildChannels(String[][] peerNames, String[] ordererNames)
+			throws NetworkBuilderException {
+		Profile.Channel[] result = new Profile.Channel[channels.length];
+		Map<Profile.ChannelPeers, Profile.ChannelPeers> distinctPeers = new HashMap<>();
+
+		for (int i = 0; i < channels.length; i++) {
+			String channel = channels[i];
+			// peers, the same peers of the channels are shared.
+			Profile.ChannelPeers peersNode = buildChannelPeers(channel, peerNames);
+			Profile.ChannelPeers interned = distinctPeers.putIfAbsent(peersNode, peersNode);
+			result[i] = new Profile.Channel(channel, ordererNames, interned == null ? peersNode : interned,
+					channelPolicies.getOrDefault(channel, policies).build());
+		}
+		return result;
+	}
+
+	private Profile.ChannelPeers buildChannelPeers(String channel, String[][] peerNames)
+			throws NetworkBuilderException {
+		List<String> names = new ArrayList<>();
+		List<JsonObject> roles = new ArrayList<>();
+		Map<String, String[]> joined = members.get(channel);
+		if (joined == null) {
+			for (int o = 0; o < orgs.length; o++) {
+				for (int i = 0; i < peers.length; i++) {
+					names.add(peerNames[o][i]);
+					roles.add(this.roles.roles(channel, orgs[o], peers[i], i));
+				}
+			}
+			return new Profile.ChannelPeers(names, roles);
+		}
+		Set<String> allOrgs = new HashSet<>(Arrays.asList(orgs));
+		Set<String> allPeers = new HashSet<>(Arrays.asList(peers));
+		for (Map.Entry<String, String[]> entry : joined.entrySet()) {
+			if (!allOrgs.contains(entry.getKey())) {
+				throw new NetworkBuilderException(
+						"Unknown org: " + entry.getKey() + " in the members of channel: " + channel);
+			}
+			for (String peer : entry.getValue()) {
+				if (!allPeers.contains(peer)) {
+					throw new NetworkBuilderException(
+							"Unknown peer: " + peer + " of org: " + entry.getKey() + " in channel: " + channel);
+				}
+			}
+		}
+		// In the order of the orgs and the peers, whatever the order of the members.
+		for (int o = 0; o < orgs.length; o++) {
+			String[] orgPeers = joined.get(orgs[o]);
+			if (orgPeers == null) {
+				continue;
+			}
+			Set<String> member = orgPeers.length == 0 ? allPeers : new HashSet<>(Arrays.asList(orgPeers));
+			for (int i = 0; i < peers.length; i++) {
+				if (member.contains(peers[i])) {
+					names.add(peerNames[o][i]);
+					roles.add(this.roles.roles(channel, orgs[o], peers[i], i));
+				}
+			}
+		}
+		return new Profile.ChannelPeers(names, roles);
+	}
+
+}
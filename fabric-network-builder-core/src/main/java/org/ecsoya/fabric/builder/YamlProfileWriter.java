@@ -0,0 +1,525 @@
+package org.ecsoya.fabric.builder;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ *
+ * Write a connection profile as block style YAML, which can be loaded by
+ * <code>NetworkConfig.fromYamlFile</code>.
+ *
+ * Multi-line values (the PEMs) are written as literal block scalars, so they
+ * are copied to the output as they are.
+ *
+ * With {@link #setAnchors(boolean) anchors}, every distinct multi-line value
+ * is written only once as an anchor, and referenced by an alias everywhere
+ * else. For example the tlsca cert of an org is written once for all its
+ * peers. An object shared in the profile tree, such as the same peers of
+ * several channels, is also written once as an anchor.
+ *
+ * Note that SnakeYAML 1.26 and later refuse more than 50 aliases of objects
+ * by default, the aliases of the multi-line values are not limited.
+ *
+ * @author ecsoya
+ *
+ */
+public class YamlProfileWriter implements ProfileWriter {
+
+	private static final int INDENT = 2;
+
+	private static final Set<String> RESERVED = new HashSet<>(
+			Arrays.asList("y", "n", "yes", "no", "true", "false", "on", "off", "null"));
+
+	private final Writer out;
+
+	private final Deque<Frame> stack = new ArrayDeque<>();
+
+	private String pendingName;
+
+	/**
+	 * The current line holds a "- " which is not followed by any content yet.
+	 */
+	private boolean inline;
+
+	private boolean started;
+
+	/**
+	 * The anchors of the written multi-line values, or null if anchors are
+	 * disabled.
+	 */
+	private Map<String, String> anchors;
+
+	private int shared;
+
+	/**
+	 * The anchor of the next container.
+	 */
+	private String pendingAnchor;
+
+	public YamlProfileWriter(Writer out) {
+		this.out = out;
+	}
+
+	public YamlProfileWriter(Writer out, boolean anchors) {
+		this(out);
+		setAnchors(anchors);
+	}
+
+	public void setAnchors(boolean anchors) {
+		if (!anchors) {
+			this.anchors = null;
+		} else if (this.anchors == null) {
+			this.anchors = new HashMap<>();
+		}
+	}
+
+	public boolean isAnchors() {
+		return anchors != null;
+	}
+
+	@Override
+	public boolean isSharing() {
+		return anchors != null;
+	}
+
+	@Override
+	public String share() throws IOException {
+		if (anchors == null) {
+			throw new UnsupportedOperationException();
+		}
+		pendingAnchor = "shared" + ++shared;
+		return pendingAnchor;
+	}
+
+	@Override
+	public ProfileWriter reference(String id) throws IOException {
+		beginScalar();
+		out.write('*');
+		out.write(id);
+		return this;
+	}
+
+	@Override
+	public ProfileWriter beginObject() throws IOException {
+		return begin(true);
+	}
+
+	@Override
+	public ProfileWriter endObject() throws IOException {
+		return end(true);
+	}
+
+	@Override
+	public ProfileWriter beginArray() throws IOException {
+		return begin(false);
+	}
+
+	@Override
+	public ProfileWriter endArray() throws IOException {
+		return end(false);
+	}
+
+	@Override
+	public ProfileWriter name(String name) throws IOException {
+		Frame frame = stack.peek();
+		if (frame == null || !frame.mapping || pendingName != null) {
+			throw new IllegalStateException("Unexpected name: " + name);
+		}
+		if (name == null) {
+			throw new NullPointerException("name == null");
+		}
+		pendingName = name;
+		return this;
+	}
+
+	@Override
+	public ProfileWriter value(String value) throws IOException {
+		if (value == null) {
+			return nullValue();
+		}
+		int indent = beginScalar();
+		writeString(value, indent + INDENT);
+		return this;
+	}
+
+	@Override
+	public ProfileWriter value(boolean value) throws IOException {
+		beginScalar();
+		out.write(value ? "true" : "false");
+		return this;
+	}
+
+	@Override
+	public ProfileWriter value(long value) throws IOException {
+		beginScalar();
+		out.write(Long.toString(value));
+		return this;
+	}
+
+	@Override
+	public ProfileWriter value(Number value) throws IOException {
+		if (value == null) {
+			return nullValue();
+		}
+		beginScalar();
+		double d = value.doubleValue();
+		if (Double.isNaN(d)) {
+			out.write(".nan");
+		} else if (Double.isInfinite(d)) {
+			out.write(d > 0 ? ".inf" : "-.inf");
+		} else {
+			out.write(value.toString());
+		}
+		return this;
+	}
+
+	@Override
+	public ProfileWriter nullValue() throws IOException {
+		if (pendingName != null) {
+			// A null member is skipped, as Gson does by default.
+			pendingName = null;
+			return this;
+		}
+		beginScalar();
+		out.write("null");
+		return this;
+	}
+
+	@Override
+	public void flush() throws IOException {
+		out.flush();
+	}
+
+	@Override
+	public void close() throws IOException {
+		out.close();
+		if (!stack.isEmpty()) {
+			throw new IOException("Incomplete document");
+		}
+	}
+
+	private ProfileWriter begin(boolean mapping) throws IOException {
+		Frame parent = stack.peek();
+		if (parent == null) {
+			if (started) {
+				throw new IllegalStateException("Only one document can be written.");
+			}
+			stack.push(new Frame(mapping, null, false, 0, 0));
+			return this;
+		}
+		writeHeader(parent);
+		String key = null;
+		if (parent.mapping) {
+			key = takeName();
+		}
+		Frame frame = new Frame(mapping, key, !parent.mapping, parent.indent, parent.indent + INDENT);
+		frame.anchor = pendingAnchor;
+		pendingAnchor = null;
+		stack.push(frame);
+		return this;
+	}
+
+	private ProfileWriter end(boolean mapping) throws IOException {
+		Frame frame = stack.peek();
+		if (frame == null || frame.mapping != mapping || pendingName != null) {
+			throw new IllegalStateException("Unexpected end of " + (mapping ? "object" : "array"));
+		}
+		stack.pop();
+		if (!frame.headerWritten) {
+			// Empty container, written in flow style.
+			String empty = mapping ? "{}" : "[]";
+			if (frame.key != null) {
+				writeEntryStart(frame.parentIndent);
+				writeKey(frame.key);
+				out.write(": ");
+			} else if (frame.sequenceItem) {
+				writeEntryStart(frame.parentIndent);
+				out.write("- ");
+			}
+			if (frame.anchor != null) {
+				out.write('&');
+				out.write(frame.anchor);
+				out.write(' ');
+			}
+			out.write(empty);
+			started = true;
+		}
+		if (stack.isEmpty()) {
+			if (!started) {
+				out.write("{}");
+			}
+			out.write('\n');
+		}
+		return this;
+	}
+
+	/**
+	 * Start a scalar entry in the current container.
+	 *
+	 * @return the indentation of the entry.
+	 */
+	private int beginScalar() throws IOException {
+		Frame frame = stack.peek();
+		if (frame == null) {
+			throw new IllegalStateException("A profile must start with an object.");
+		}
+		writeHeader(frame);
+		writeEntryStart(frame.indent);
+		if (frame.mapping) {
+			writeKey(takeName());
+			out.write(": ");
+		} else {
+			out.write("- ");
+		}
+		return frame.indent;
+	}
+
+	private String takeName() {
+		if (pendingName == null) {
+			throw new IllegalStateException("A name is expected.");
+		}
+		String name = pendingName;
+		pendingName = null;
+		return name;
+	}
+
+	/**
+	 * The header of a container is deferred until its first entry, so empty
+	 * containers can be written in flow style.
+	 */
+	private void writeHeader(Frame frame) throws IOException {
+		if (frame.headerWritten) {
+			return;
+		}
+		frame.headerWritten = true;
+		if (frame.key != null) {
+			writeEntryStart(frame.parentIndent);
+			writeKey(frame.key);
+			out.write(':');
+			if (frame.anchor != null) {
+				out.write(" &");
+				out.write(frame.anchor);
+			}
+		} else if (frame.sequenceItem) {
+			writeEntryStart(frame.parentIndent);
+			if (frame.anchor != null) {
+				// The entries start on the next line, or the anchor would be of the first key.
+				out.write("- &");
+				out.write(frame.anchor);
+			} else {
+				out.write("- ");
+				inline = true;
+			}
+		}
+	}
+
+	private void writeEntryStart(int indent) throws IOException {
+		if (inline) {
+			inline = false;
+			return;
+		}
+		if (started) {
+			out.write('\n');
+		}
+		writeIndent(indent);
+		started = true;
+	}
+
+	private void writeIndent(int indent) throws IOException {
+		for (int i = 0; i < indent; i++) {
+			out.write(' ');
+		}
+	}
+
+	private void writeKey(String key) throws IOException {
+		if (isPlain(key)) {
+			out.write(key);
+		} else {
+			writeQuoted(key);
+		}
+	}
+
+	private void writeString(String value, int blockIndent) throws IOException {
+		if (anchors != null && value.indexOf('\n') >= 0) {
+			String anchor = anchors.get(value);
+			if (anchor != null) {
+				out.write('*');
+				out.write(anchor);
+				return;
+			}
+			anchor = "pem" + (anchors.size() + 1);
+			anchors.put(value, anchor);
+			out.write('&');
+			out.write(anchor);
+			out.write(' ');
+		}
+		if (isPlain(value)) {
+			out.write(value);
+		} else if (isLiteral(value)) {
+			writeLiteral(value, blockIndent);
+		} else {
+			writeQuoted(value);
+		}
+	}
+
+	private void writeLiteral(String value, int indent) throws IOException {
+		int end = value.length();
+		while (end > 0 && value.charAt(end - 1) == '\n') {
+			end--;
+		}
+		int trailing = value.length() - end;
+		out.write('|');
+		if (trailing == 0) {
+			out.write('-');
+		} else if (trailing > 1) {
+			out.write('+');
+		}
+		int start = 0;
+		while (start <= end) {
+			int next = value.indexOf('\n', start);
+			if (next < 0 || next > end) {
+				next = end;
+			}
+			out.write('\n');
+			if (next > start) {
+				writeIndent(indent);
+				out.write(value, start, next - start);
+			}
+			start = next + 1;
+		}
+		for (int i = 1; i < trailing; i++) {
+			out.write('\n');
+		}
+	}
+
+	private void writeQuoted(String value) throws IOException {
+		out.write('"');
+		int length = value.length();
+		int last = 0;
+		for (int i = 0; i < length; i++) {
+			char c = value.charAt(i);
+			String replacement;
+			switch (c) {
+			case '"':
+				replacement = "\\\"";
+				break;
+			case '\\':
+				replacement = "\\\\";
+				break;
+			case '\n':
+				replacement = "\\n";
+				break;
+			case '\r':
+				replacement = "\\r";
+				break;
+			case '\t':
+				replacement = "\\t";
+				break;
+			default:
+				if (!needsEscape(c)) {
+					continue;
+				}
+				replacement = String.format("\\u%04x", (int) c);
+			}
+			if (last < i) {
+				out.write(value, last, i - last);
+			}
+			out.write(replacement);
+			last = i + 1;
+		}
+		if (last < length) {
+			out.write(value, last, length - last);
+		}
+		out.write('"');
+	}
+
+	/**
+	 * Only simple names are written without quotes, everything else (numbers,
+	 * IP addresses, booleans...) is quoted so it is always loaded as a string.
+	 */
+	static boolean isPlain(String value) {
+		int length = value.length();
+		if (length == 0) {
+			return false;
+		}
+		char first = value.charAt(0);
+		if (!isAsciiLetter(first) && first != '_') {
+			return false;
+		}
+		for (int i = 1; i < length; i++) {
+			char c = value.charAt(i);
+			if (!isAsciiLetter(c) && !(c >= '0' && c <= '9') && c != '_' && c != '-' && c != '.' && c != '/'
+					&& c != '@') {
+				return false;
+			}
+		}
+		return length > 5 || !RESERVED.contains(value.toLowerCase());
+	}
+
+	private static boolean isLiteral(String value) {
+		int length = value.length();
+		int content = -1;
+		for (int i = 0; i < length; i++) {
+			char c = value.charAt(i);
+			if (c == '\n') {
+				continue;
+			}
+			if (content < 0) {
+				content = i;
+			}
+			if (c != '\t' && needsEscape(c)) {
+				return false;
+			}
+		}
+		// The indentation of the block is detected from the first line with
+		// content, which must not start with a space.
+		return content >= 0 && value.indexOf('\n') >= 0 && value.charAt(content) != ' ';
+	}
+
+	private static boolean needsEscape(char c) {
+		return c < 0x20 || (c >= 0x7f && c <= 0x9f) || c == '\u2028' || c == '\u2029' || c == '\ufeff';
+	}
+
+	private static boolean isAsciiLetter(char c) {
+		return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+	}
+
+	private static class Frame {
+
+		final boolean mapping;
+
+		/**
+		 * The key of this container in the parent mapping.
+		 */
+		final String key;
+
+		final boolean sequenceItem;
+
+		final int parentIndent;
+
+		/**
+		 * The indentation of the entries of this container.
+		 */
+		final int indent;
+
+		boolean headerWritten;
+
+		String anchor;
+
+		Frame(boolean mapping, String key, boolean sequenceItem, int parentIndent, int indent) {
+			this.mapping = mapping;
+			this.key = key;
+			this.sequenceItem = sequenceItem;
+			this.parentIndent = parentIndent;
+			this.indent = indent;
+			this.headerWritten = key == null && !sequenceItem;
+		}
+	}
+}
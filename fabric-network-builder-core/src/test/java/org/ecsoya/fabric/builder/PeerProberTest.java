@@ -0,0 +1,180 @@
+package org.ecsoya.fabric.builder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.security.KeyStore;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLServerSocket;
+import javax.net.ssl.SSLSocket;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.google.gson.JsonObject;
+
+/**
+ *
+ * Probe local stand-in listeners: plain sockets, TLS sockets with the
+ * certificate of <code>tls/peer.p12</code>, and closed ports.
+ *
+ * @author ecsoya
+ *
+ */
+public class PeerProberTest {
+
+	private static final char[] PASSWORD = "changeit".toCharArray();
+
+	private final List<ServerSocket> listeners = new ArrayList<>();
+
+	private final PeerProber prober = new PeerProber().timeout(1000).attempts(2);
+
+	@After
+	public void close() throws IOException {
+		for (ServerSocket listener : listeners) {
+			listener.close();
+		}
+	}
+
+	@Test
+	public void plainListenerIsReachable() throws Exception {
+		int port = listen(new ServerSocket(0, 50, InetAddress.getLoopbackAddress()), false);
+		Map<String, Long> latencies = prober.probe(profile(peer("grpc://127.0.0.1:" + port, null)));
+		assertNotEquals(PeerProber.UNREACHABLE, (long) latencies.get("peer0"));
+	}
+
+	@Test
+	public void closedPortIsUnreachable() throws Exception {
+		int port;
+		try (ServerSocket socket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress())) {
+			port = socket.getLocalPort();
+		}
+		Map<String, Long> latencies = prober.probe(profile(peer("grpc://127.0.0.1:" + port, null)));
+		assertEquals(PeerProber.UNREACHABLE, (long) latencies.get("peer0"));
+	}
+
+	@Test
+	public void trustedPeerIsReachable() throws Exception {
+		int port = listen(tlsListener(false), true);
+		Map<String, Long> latencies = prober
+				.probe(profile(peer("grpcs://localhost:" + port, resource("tls/peer-cert.pem"))));
+		assertNotEquals(PeerProber.UNREACHABLE, (long) latencies.get("peer0"));
+	}
+
+	@Test
+	public void rejectedClientCertificateIsReachable() throws Exception {
+		int port = listen(tlsListener(true), true);
+		Map<String, Long> latencies = prober
+				.probe(profile(peer("grpcs://localhost:" + port, resource("tls/peer-cert.pem"))));
+		assertNotEquals(PeerProber.UNREACHABLE, (long) latencies.get("peer0"));
+	}
+
+	@Test
+	public void untrustedPeerIsUnreachable() throws Exception {
+		int port = listen(tlsListener(false), true);
+		Map<String, Long> latencies = prober
+				.probe(profile(peer("grpcs://localhost:" + port, resource("tls/other-cert.pem"))));
+		assertEquals(PeerProber.UNREACHABLE, (long) latencies.get("peer0"));
+	}
+
+	@Test
+	public void plainListenerOfTlsPeerIsUnreachable() throws Exception {
+		int port = listen(new ServerSocket(0, 50, InetAddress.getLoopbackAddress()), false);
+		Map<String, Long> latencies = prober
+				.probe(profile(peer("grpcs://localhost:" + port, resource("tls/peer-cert.pem"))));
+		assertEquals(PeerProber.UNREACHABLE, (long) latencies.get("peer0"));
+	}
+
+	@Test
+	public void malformedCertificateIsUnreachable() throws Exception {
+		int port = listen(tlsListener(false), true);
+		String garbage = "-----BEGIN CERTIFICATE-----\nnot a certificate\n-----END CERTIFICATE-----\n";
+		JsonObject profile = profile(peer("grpcs://localhost:" + port, garbage),
+				peer("grpcs://localhost:" + port, resource("tls/peer-cert.pem")));
+		Map<String, Long> latencies = prober.probe(profile);
+		assertEquals(Arrays.asList("peer0", "peer1"), new ArrayList<>(latencies.keySet()));
+		assertEquals(PeerProber.UNREACHABLE, (long) latencies.get("peer0"));
+		assertNotEquals(PeerProber.UNREACHABLE, (long) latencies.get("peer1"));
+	}
+
+	private SSLServerSocket tlsListener(boolean clientAuth) throws Exception {
+		KeyStore keyStore = KeyStore.getInstance("PKCS12");
+		try (InputStream in = getClass().getClassLoader().getResourceAsStream("tls/peer.p12")) {
+			keyStore.load(in, PASSWORD);
+		}
+		KeyManagerFactory keys = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+		keys.init(keyStore, PASSWORD);
+		SSLContext context = SSLContext.getInstance("TLS");
+		context.init(keys.getKeyManagers(), null, null);
+		SSLServerSocket listener = (SSLServerSocket) context.getServerSocketFactory().createServerSocket(0, 50,
+				InetAddress.getLoopbackAddress());
+		listener.setNeedClientAuth(clientAuth);
+		return listener;
+	}
+
+	/**
+	 * Accept the connections until the listener is closed, the TLS ones are
+	 * handshaken.
+	 *
+	 * @return the port of the listener.
+	 */
+	private int listen(ServerSocket listener, boolean tls) {
+		listeners.add(listener);
+		Thread thread = new Thread(() -> {
+			while (!listener.isClosed()) {
+				try (Socket socket = listener.accept()) {
+					if (tls) {
+						((SSLSocket) socket).startHandshake();
+						// Wait for the client to close the connection.
+						socket.getInputStream().read();
+					}
+				} catch (IOException e) {
+					// The handshake is rejected, or the listener is closed.
+				}
+			}
+		}, "stand-in-peer");
+		thread.setDaemon(true);
+		thread.start();
+		return listener.getLocalPort();
+	}
+
+	private static JsonObject peer(String url, String pem) {
+		JsonObject peer = new JsonObject();
+		peer.addProperty("url", url);
+		if (pem != null) {
+			JsonObject tlsCACerts = new JsonObject();
+			tlsCACerts.addProperty("pem", pem);
+			peer.add("tlsCACerts", tlsCACerts);
+		}
+		return peer;
+	}
+
+	private static JsonObject profile(JsonObject... peers) {
+		JsonObject node = new JsonObject();
+		for (int i = 0; i < peers.length; i++) {
+			node.add("peer" + i, peers[i]);
+		}
+		JsonObject profile = new JsonObject();
+		profile.add("peers", node);
+		return profile;
+	}
+
+	private static String resource(String name) throws Exception {
+		return new String(Files.readAllBytes(Paths.get(PeerProberTest.class.getClassLoader().getResource(name).toURI())),
+				StandardCharsets.US_ASCII);
+	}
+}
@@ -0,0 +1,105 @@
+package org.ecsoya.fabric.builder;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ *
+ * Write the profiles through a temporary file, and skip the unchanged ones.
+ *
+ * @author ecsoya
+ *
+ */
+public class ProfileFilesTest {
+
+	private static final FileTime WRITTEN = FileTime.fromMillis(1_000_000_000_000L);
+
+	private Path directory;
+
+	private Path file;
+
+	@Before
+	public void create() throws IOException {
+		directory = Files.createTempDirectory("profile-files");
+		file = directory.resolve("connection-org1.yml");
+	}
+
+	@After
+	public void delete() throws IOException {
+		try (Stream<Path> files = Files.walk(directory)) {
+			files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+		}
+	}
+
+	@Test
+	public void unchangedFileIsNotTouched() throws Exception {
+		assertTrue(ProfileFiles.write(file, out -> out.write("name: network\n")));
+		Files.setLastModifiedTime(file, WRITTEN);
+
+		assertFalse(ProfileFiles.write(file, out -> out.write("name: network\n")));
+		assertEquals(WRITTEN, Files.getLastModifiedTime(file));
+		assertFalse(ProfileFiles.write(file, "name: network\n".getBytes(StandardCharsets.UTF_8)));
+		assertEquals(1, count());
+	}
+
+	@Test
+	public void changedFileIsReplaced() throws Exception {
+		ProfileFiles.write(file, out -> out.write("name: network\n"));
+		// The same size, another content.
+		assertTrue(ProfileFiles.write(file, out -> out.write("name: networx\n")));
+		assertEquals("name: networx\n", read());
+		// A large content, written through the buffers of the writer.
+		StringBuilder large = new StringBuilder();
+		for (int i = 0; i < 100_000; i++) {
+			large.append("peer").append(i).append(": é\n");
+		}
+		assertTrue(ProfileFiles.write(file, out -> out.write(large.toString())));
+		assertArrayEquals(large.toString().getBytes(StandardCharsets.UTF_8), Files.readAllBytes(file));
+		assertFalse(ProfileFiles.write(file, large.toString().getBytes(StandardCharsets.UTF_8)));
+		assertEquals(1, count());
+	}
+
+	@Test
+	public void failedRenderKeepsTheFile() throws Exception {
+		ProfileFiles.write(file, out -> out.write("name: network\n"));
+		try {
+			ProfileFiles.write(file, out -> {
+				out.write("name: broken\n");
+				throw new IOException("render failed");
+			});
+			fail("The failure was not thrown.");
+		} catch (IOException e) {
+			assertEquals("render failed", e.getMessage());
+		}
+		assertEquals("name: network\n", read());
+		assertEquals(1, count());
+	}
+
+	private String read() throws IOException {
+		return new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * The files of the directory, the temporary files must be deleted.
+	 */
+	private long count() throws IOException {
+		try (Stream<Path> files = Files.list(directory)) {
+			return files.count();
+		}
+	}
+}
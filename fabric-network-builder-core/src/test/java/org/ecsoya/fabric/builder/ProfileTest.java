@@ -0,0 +1,83 @@
+package org.ecsoya.fabric.builder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Test;
+
+import com.google.gson.JsonObject;
+
+/**
+ *
+ * The option bags of a {@link Profile} can not be modified through its
+ * getters.
+ *
+ * @author ecsoya
+ *
+ */
+public class ProfileTest {
+
+	@Test
+	public void gettersHandOutCopies() {
+		Profile profile = profile();
+		JsonObject written = profile.toJson();
+		Profile.ChannelPeers peers = profile.getChannels().get(0).getPeers();
+		int hash = peers.hashCode();
+
+		profile.getClient().getTimeout().addProperty("orderer", 1);
+		profile.getChannels().get(0).getPolicies().add("discovery", new JsonObject());
+		peers.getRoles().get(0).addProperty("endorsingPeer", false);
+
+		assertEquals(written, profile.toJson());
+		assertEquals(hash, peers.hashCode());
+		assertEquals(peers, profile.getChannels().get(1).getPeers());
+	}
+
+	@Test
+	public void scopedChannelsSharePeers() {
+		Profile profile = profile();
+		Profile scoped = new ClientScope().apply(profile, "org1");
+
+		Profile.Channel channel = scoped.getChannels().get(0);
+		assertSame(channel.getPeers(), scoped.getChannels().get(1).getPeers());
+		assertEquals(Arrays.asList("peer0.org1", "peer1.org1", "peer0.org2"), channel.getPeers().getPeers());
+		assertEquals(profile.getChannels().get(0).getPolicies(), channel.getPolicies());
+		assertEquals(profile.getChannels().get(0).getOrderers(), channel.getOrderers());
+	}
+
+	/**
+	 * Two orgs of two peers, and two channels of the same peers.
+	 */
+	private static Profile profile() {
+		Profile.Options options = new Profile.Options(Collections.emptyMap());
+		Profile.Material pem = Profile.Material.pem("-----BEGIN CERTIFICATE-----\n");
+		String[][] names = { { "peer0.org1", "peer1.org1" }, { "peer0.org2", "peer1.org2" } };
+		Profile.Peer[] peers = new Profile.Peer[4];
+		Profile.Org[] orgs = new Profile.Org[2];
+		for (int o = 0; o < orgs.length; o++) {
+			String org = "org" + (o + 1);
+			orgs[o] = new Profile.Org(org, null, null, null, names[o]);
+			for (int p = 0; p < names[o].length; p++) {
+				peers[o * 2 + p] = new Profile.Peer(names[o][p], org, "grpcs://localhost:" + (7051 + o * 2 + p),
+						options, pem);
+			}
+		}
+		Profile.Channel[] channels = new Profile.Channel[2];
+		for (int i = 0; i < channels.length; i++) {
+			JsonObject endorsing = new JsonObject();
+			endorsing.addProperty("endorsingPeer", true);
+			JsonObject querying = new JsonObject();
+			querying.addProperty("endorsingPeer", false);
+			Profile.ChannelPeers channelPeers = new Profile.ChannelPeers(
+					Arrays.asList("peer0.org1", "peer1.org1", "peer0.org2", "peer1.org2"),
+					Arrays.asList(endorsing, querying, endorsing.deepCopy(), querying.deepCopy()));
+			channels[i] = new Profile.Channel("channel" + i, new String[] { "orderer" }, channelPeers,
+					ChannelPolicies.defaults().build());
+		}
+		return new Profile("test", new Profile.Client("org1", GrpcTuning.DEFAULT.buildTimeout(), false), channels,
+				orgs, new Profile.Orderer[0], peers, new Profile.CertificateAuthority[0]);
+	}
+}
@@ -0,0 +1,117 @@
+package org.ecsoya.fabric.builder;
+
+/**
+ *
+ * The layout of the <code>crypto-config</code> generated by
+ * <code>cryptogen</code>, the nodes are named like
+ * <code>peer0.org1.example.com</code>.
+ *
+ * @author ecsoya
+ *
+ */
+public class CryptogenLayout implements CryptoLayout {
+
+	private final String ordererOrg;
+
+	private final PathTemplate peerName;
+	private final PathTemplate ordererName;
+	private final PathTemplate caHostName;
+	private final PathTemplate caName;
+	private final PathTemplate caCertPath;
+	private final PathTemplate peerTlsCaPath;
+	private final PathTemplate ordererTlsCaPath;
+	private final PathTemplate adminCertPath;
+	private final PathTemplate adminSignCertPath;
+	private final PathTemplate adminKeyPath;
+
+	private final String[] ordererAdminCertPaths;
+	private final String ordererAdminKeyPath;
+
+	public CryptogenLayout(String domain, String ordererOrg) {
+		this.ordererOrg = ordererOrg;
+		peerName = PathTemplate.compile("{peer}.{org}.{domain}", "org", "peer").bind("domain", domain);
+		ordererName = PathTemplate.compile("{orderer}.{domain}", "orderer").bind("domain", domain);
+		caHostName = PathTemplate.compile("ca.{org}.{domain}", "org").bind("domain", domain);
+		caName = PathTemplate.compile("ca-{org}", "org");
+		caCertPath = PathTemplate.compile("peerOrganizations/{org}.{domain}/ca/ca.{org}.{domain}-cert.pem", "org")
+				.bind("domain", domain);
+		peerTlsCaPath = PathTemplate.compile(
+				"peerOrganizations/{org}.{domain}/peers/{peer}.{org}.{domain}/msp/tlscacerts/tlsca.{org}.{domain}-cert.pem",
+				"org", "peer").bind("domain", domain);
+		ordererTlsCaPath = PathTemplate
+				.compile("ordererOrganizations/{domain}/orderers/{orderer}.{domain}/msp/tlscacerts/tlsca.{domain}-cert.pem",
+						"orderer")
+				.bind("domain", domain);
+		String msp = "peerOrganizations/{org}.{domain}/users/Admin@{org}.{domain}/msp";
+		adminCertPath = PathTemplate.compile(msp + "/admincerts/Admin@{org}.{domain}-cert.pem", "org").bind("domain",
+				domain);
+		adminSignCertPath = PathTemplate.compile(msp + "/signcerts/Admin@{org}.{domain}-cert.pem", "org")
+				.bind("domain", domain);
+		adminKeyPath = PathTemplate.compile(msp + "/keystore", "org").bind("domain", domain);
+
+		String ordererMsp = "ordererOrganizations/" + domain + "/users/Admin@" + domain + "/msp";
+		ordererAdminCertPaths = new String[] { ordererMsp + "/admincerts/Admin@" + domain + "-cert.pem",
+				ordererMsp + "/signcerts/Admin@" + domain + "-cert.pem" };
+		ordererAdminKeyPath = ordererMsp + "/keystore";
+	}
+
+	@Override
+	public String peerName(String org, String peer) {
+		return peerName.expand(org, peer);
+	}
+
+	@Override
+	public String ordererName(String orderer) {
+		return ordererName.expand(orderer);
+	}
+
+	@Override
+	public String caHostName(String org) {
+		return caHostName.expand(org);
+	}
+
+	@Override
+	public String caName(String org) {
+		return caName.expand(org);
+	}
+
+	@Override
+	public String peerAddress(Endpoints endpoints, String org, String peer) throws NetworkBuilderException {
+		return endpoints.getUrl(org, Endpoints.ANY) + ":" + endpoints.getPort(org, peer, 7051);
+	}
+
+	@Override
+	public String caCertPath(String org) {
+		return caCertPath.expand(org);
+	}
+
+	@Override
+	public String peerTlsCaPath(String org, String peer) {
+		return peerTlsCaPath.expand(org, peer);
+	}
+
+	@Override
+	public String ordererTlsCaPath(String orderer) {
+		return ordererTlsCaPath.expand(orderer);
+	}
+
+	/**
+	 * The admincerts, or the signcerts if the MSP has no admincerts.
+	 */
+	@Override
+	public String[] adminCertPaths(String org) {
+		if (org.equals(ordererOrg)) {
+			return ordererAdminCertPaths.clone();
+		}
+		return new String[] { adminCertPath.expand(org), adminSignCertPath.expand(org) };
+	}
+
+	@Override
+	public String adminKeyPath(String org) {
+		if (org.equals(ordererOrg)) {
+			return ordererAdminKeyPath;
+		}
+		return adminKeyPath.expand(org);
+	}
+
+}
@@ -2,18 +2,30 @@ package org.ecsoya.fabric.builder;
 
 import java.io.File;
 import java.io.IOException;
-import java.nio.file.Files;
-import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.EnumSet;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
 
-import com.google.gson.JsonArray;
 import com.google.gson.JsonObject;
 
 public class NetworkBuilder {
 
+	/**
+	 * Only peer0 of every org endorses and sources the events.
+	 */
+	private static final RolePolicy ROLES = new RolePolicy();
+
+	static {
+		ROLES.defaults().peer("peer0", RolePolicy.Role.values()).all(RolePolicy.Role.CHAINCODE_QUERY,
+				RolePolicy.Role.LEDGER_QUERY);
+	}
+
 	private String domain;
 
 	private String name;
@@ -30,9 +42,25 @@ public class NetworkBuilder {
 
 	private String[] channels;
 
-	private Map<String, Map<String, String>> urls = new HashMap<>();
-	private Map<String, Map<String, Integer>> ports = new HashMap<>();
+	private Endpoints endpoints = new Endpoints();
 	private File root;
+	private PemCache pemCache = new LruPemCache();
+	private CryptoIndex crypto;
+	private Set<ProfileFormat> formats = EnumSet.of(ProfileFormat.YAML);
+	private PeerRoles roles = ROLES;
+	private GrpcTuning tuning = GrpcTuning.DEFAULT;
+	private final Map<String, GrpcTuning> nodeTunings = new HashMap<>();
+	private ChannelPolicies policies = ChannelPolicies.defaults();
+	private final Map<String, ChannelPolicies> channelPolicies = new HashMap<>();
+	private final Map<String, Map<String, String[]>> members = new LinkedHashMap<>();
+	private ProfileVariants variants;
+	private int variantCount;
+	private PeerProber prober;
+
+	private ClientScope scope;
+	private LatencyRoles latencyRoles;
+	private BuildCache buildCache;
+	private BuildListener listener = BuildListener.NONE;
 
 	public NetworkBuilder(String domain) {
 		this.domain = domain;
@@ -40,6 +68,160 @@ public class NetworkBuilder {
 
 	public NetworkBuilder root(File root) {
 		this.root = root;
+		this.crypto = null;
+		return this;
+	}
+
+	/**
+	 * Share the index of the crypto materials between the builders of the same
+	 * root directory. The index is a snapshot, set a new one or the root again
+	 * to pick up added or removed files. Without an index, the root is scanned
+	 * again by every build.
+	 */
+	public NetworkBuilder cryptoIndex(CryptoIndex crypto) {
+		this.crypto = crypto;
+		return this;
+	}
+
+	/**
+	 * Share the cache between the builders of all clients, so that the crypto
+	 * files are read only once.
+	 */
+	public NetworkBuilder pemCache(PemCache pemCache) {
+		this.pemCache = pemCache == null ? PemCache.NONE : pemCache;
+		return this;
+	}
+
+	/**
+	 * The formats written by {@link #generateAll(String[], File, Executor)}, YAML
+	 * by default.
+	 */
+	public NetworkBuilder formats(ProfileFormat... formats) {
+		this.formats = formats.length == 0 ? EnumSet.noneOf(ProfileFormat.class)
+				: EnumSet.copyOf(Arrays.asList(formats));
+		return this;
+	}
+
+	public NetworkBuilder formats(Set<ProfileFormat> formats) {
+		this.formats = formats.isEmpty() ? EnumSet.noneOf(ProfileFormat.class) : EnumSet.copyOf(formats);
+		return this;
+	}
+
+	/**
+	 * The roles of the peers in the channels, such as a {@link RolePolicy}. Only
+	 * peer0 of every org endorses and sources the events by default.
+	 */
+	public NetworkBuilder roles(PeerRoles roles) {
+		this.roles = roles == null ? ROLES : roles;
+		return this;
+	}
+
+	/**
+	 * The gRPC options of all the peers and orderers, and the timeouts of the
+	 * client, {@link GrpcTuning#DEFAULT} by default.
+	 */
+	public NetworkBuilder tuning(GrpcTuning tuning) {
+		this.tuning = tuning == null ? GrpcTuning.DEFAULT : tuning;
+		return this;
+	}
+
+	/**
+	 * The gRPC options of a peer or orderer, by its name in the profile.
+	 */
+	public NetworkBuilder tuning(String node, GrpcTuning tuning) {
+		if (tuning == null) {
+			nodeTunings.remove(node);
+		} else {
+			nodeTunings.put(node, tuning);
+		}
+		return this;
+	}
+
+	/**
+	 * The policies of all the channels, {@link ChannelPolicies#defaults()} by
+	 * default.
+	 */
+	public NetworkBuilder policies(ChannelPolicies policies) {
+		this.policies = policies == null ? ChannelPolicies.defaults() : policies;
+		return this;
+	}
+
+	/**
+	 * The policies of a channel instead of the policies of all the channels.
+	 */
+	public NetworkBuilder policies(String channel, ChannelPolicies policies) {
+		if (policies == null) {
+			channelPolicies.remove(channel);
+		} else {
+			channelPolicies.put(channel, policies);
+		}
+		return this;
+	}
+
+	/**
+	 * Join the peers of the org to the channel. Once a member of a channel is
+	 * declared, the channel only lists its declared members instead of all the
+	 * peers of all the orgs, and the channels of the same members share one
+	 * definition.
+	 *
+	 * @param peers the joined peers, or none for all the peers of the org.
+	 */
+	public NetworkBuilder members(String channel, String org, String... peers) {
+		members.computeIfAbsent(channel, k -> new LinkedHashMap<>()).put(org, peers);
+		return this;
+	}
+
+	/**
+	 * Write <code>count</code> variants of every profile, to spread the instances
+	 * of the applications over the peers. 0 writes one profile per client.
+	 *
+	 * @see ProfileBatch#generateVariants(CompiledTopology, List, ProfileVariants,
+	 *      int, File, Set, Executor)
+	 */
+	public NetworkBuilder variants(int count, ProfileVariants variants) {
+		this.variantCount = count;
+		this.variants = variants == null ? new ProfileVariants() : variants;
+		return this;
+	}
+
+	/**
+	 * Probe the peers after building, and assign their roles in the channels by
+	 * the latency from here, instead of the default roles.
+	 */
+	public NetworkBuilder probe(PeerProber prober, LatencyRoles roles) {
+		this.prober = prober;
+		this.latencyRoles = roles == null ? new LatencyRoles() : roles;
+		return this;
+	}
+
+	/**
+	 * Only generate the profiles whose inputs changed since the last build, the
+	 * cache is saved by every {@link #generateAll(String[], File, Executor)}. The
+	 * cache is not used with {@link #probe(PeerProber, LatencyRoles)}, the
+	 * latencies change between the builds.
+	 */
+	public NetworkBuilder buildCache(BuildCache buildCache) {
+		this.buildCache = buildCache;
+		return this;
+	}
+
+	/**
+	 * Prune the profile of every client to its own peers, the endorsing peers
+	 * its endorsement policies need, and the orderers. The scope can not be
+	 * used with {@link #probe(PeerProber, LatencyRoles)}.
+	 */
+	public NetworkBuilder scope(ClientScope scope) {
+		this.scope = scope;
+		return this;
+	}
+
+	/**
+	 * Observe the phases of the builds, the crypto reads and the written files,
+	 * such as with a {@link BuildMetrics}. Nothing is measured without a
+	 * listener.
+	 */
+	public NetworkBuilder listener(BuildListener listener) {
+		this.listener = listener == null ? BuildListener.NONE : listener;
 		return this;
 	}
 
@@ -49,28 +231,12 @@ public class NetworkBuilder {
 	}
 
 	public NetworkBuilder url(String org, String peer, String url) {
-		Map<String, String> value = urls.get(org);
-		if (value == null) {
-			value = new HashMap<>();
-			urls.put(org, value);
-		}
-		if (peer == null) {
-			peer = org;
-		}
-		value.put(peer, url);
+		endpoints.url(org, peer, url);
 		return this;
 	}
 
 	public NetworkBuilder port(String org, String peer, int port) {
-		Map<String, Integer> value = ports.get(org);
-		if (value == null) {
-			value = new HashMap<>();
-			ports.put(org, value);
-		}
-		if (peer == null) {
-			peer = org;
-		}
-		value.put(peer, port);
+		endpoints.port(org, peer, port);
 		return this;
 	}
 
@@ -105,414 +271,116 @@ public class NetworkBuilder {
 	}
 
 	public JsonObject build() throws NetworkBuilderException {
-		if (name == null) {
-			throw new NetworkBuilderException("The network name is not specified.");
-		}
-		if (ordererOrg == null) {
-			throw new NetworkBuilderException("The network ordererOrg is not specified.");
-		}
 		if (clientOrg == null) {
 			throw new NetworkBuilderException("The client organization is not specified.");
 		}
-
-		if (channels == null || channels.length == 0) {
-			throw new NetworkBuilderException("The network channels is not specified.");
+		if (scope != null) {
+			return compile(pemCache).profile(clientOrg);
 		}
-
-		if (peerOrgs == null || peerOrgs.length == 0) {
-			throw new NetworkBuilderException("The network peerOrgs is not specified.");
-		}
-
-		if (peers == null || peers.length == 0) {
-			throw new NetworkBuilderException("The network peers is not specified.");
-		}
-		if (orderers == null || orderers.length == 0) {
-			throw new NetworkBuilderException("The network orderers is not specified.");
-		}
-
-		if (root == null || !root.exists()) {
-			throw new NetworkBuilderException("The network root directory is not existed.");
-		}
-		JsonObject root = new JsonObject();
-
-		root.addProperty("name", name);
-		root.addProperty("version", "1.0.0");
-		root.addProperty("x-type", "hlfv1");
-
-		// client
-		JsonObject client = buildClient();
-		root.add("client", client);
-
-		// channels
-		JsonObject channels = buildChannels();
-		root.add("channels", channels);
-
-		// organizations
-		JsonObject organizations = buildOrganizations();
-		root.add("organizations", organizations);
-
-		// orderers
-		JsonObject orderers = buildOrderers();
-		root.add("orderers", orderers);
-
-		// peers
-		JsonObject peers = buildPeers();
-		root.add("peers", peers);
-
-		// certificateAuthorities
-		JsonObject certificateAuthorities = buildCertificateAuthorities();
-		root.add("certificateAuthorities", certificateAuthorities);
-		return root;
-	}
-
-	private JsonObject buildCertificateAuthorities() throws NetworkBuilderException {
-		JsonObject root = new JsonObject();
-
-//		JsonObject caroot = buildCertificateAuthorityNode(ordererOrg);
-//		root.add("ca." + ordererOrg + "." + domain, caroot);
-
-		for (String org : peerOrgs) {
-			JsonObject node = buildCertificateAuthorityNode(org);
-			root.add("ca." + org + "." + domain, node);
-		}
-
-		return root;
-	}
-
-	private JsonObject buildCertificateAuthorityNode(String org) throws NetworkBuilderException {
-		JsonObject node = new JsonObject();
-		node.addProperty("caName", "ca-" + org);
-		node.addProperty("url", "https://" + getUrl(org, null) + ":7054");
-
-		JsonObject grpcOptions = new JsonObject();
-		grpcOptions.addProperty("ssl-target-name-override", "ca." + org + "." + domain);
-		grpcOptions.addProperty("allow-insecure", 0);
-		grpcOptions.addProperty("trustServerCertificate", true);
-		grpcOptions.addProperty("hostnameOverride", "ca." + org + "." + domain);
-		node.add("grpcOptions", grpcOptions);
-
-		JsonObject httpOptions = new JsonObject();
-		httpOptions.addProperty("verify", false);
-		node.add("httpOptions", httpOptions);
-
-		JsonArray registrar = new JsonArray();
-
-		JsonObject admin = new JsonObject();
-		admin.addProperty("enrollId", "admin");
-		admin.addProperty("enrollSecret", "adminpw");
-		registrar.add(admin);
-
-		node.add("registrar", registrar);
-		JsonObject tlsCACerts = new JsonObject();
-//		tlsCACerts.addProperty("path", getCaCertPath(org));
-		tlsCACerts.addProperty("pem", getCaCertPem(org));
-		node.add("tlsCACerts", tlsCACerts);
-
-		return node;
+		return build(clientOrg, pemCache);
 	}
 
-	private String getUrl(String org, String peer) throws NetworkBuilderException {
-		Map<String, String> value = urls.get(org);
-		if (value == null || value.isEmpty()) {
-			throw new NetworkBuilderException("Unnable to find URL for org: " + org);
-		}
-		if (peer == null) {
-			peer = "*";
-		}
-		if (value.containsKey(peer)) {
-			return value.get(peer);
-		} else if (value.containsKey(org)) {
-			return value.get(org);
-		} else if (value.containsKey("*")) {
-			return value.get("*");
-		}
-		throw new NetworkBuilderException("Unnable to find URL for peer: " + peer + " in org: " + org);
+	/**
+	 * Compile the network for all clients, the profile of every client is a
+	 * cheap projection of the compiled topology.
+	 */
+	public CompiledTopology compile() throws NetworkBuilderException {
+		return compile(pemCache);
 	}
 
-	private Integer getPort(String org, String peer, int defaultValue) {
-		Map<String, Integer> value = ports.get(org);
-		if (value == null) {
-			return defaultValue;
-		}
-		if (peer == null) {
-			peer = org;
-		}
-		if (value.containsKey(peer)) {
-			return value.get(peer);
-		}
-		return defaultValue;
-	}
-
-	private JsonObject buildPeers() throws NetworkBuilderException {
-		JsonObject root = new JsonObject();
-
-		for (String o : peerOrgs) {
-			for (String p : peers) {
-				String name = p + "." + o + "." + domain;
-				JsonObject node = new JsonObject();
-				node.addProperty("url", "grpcs://" + getUrl(o, "*") + ":" + getPort(o, p, 7051));
-//				node.addProperty("eventUrl", "grpcs://" + getUrl(o, "*") + ":" + getPort("*", "event_" + p, 7053));
-
-				JsonObject grpcOptions = new JsonObject();
-				grpcOptions.addProperty("ssl-target-name-override", name);
-				grpcOptions.addProperty("grpc.http2.keepalive_time", 15);
-				grpcOptions.addProperty("request-timeout", 120001);
-//				grpcOptions.addProperty("grpc.NettyChannelBuilderOption.maxInboundMessageSize", 9000000);
-				grpcOptions.addProperty("hostnameOverride", name);
-				node.add("grpcOptions", grpcOptions);
-
-				JsonObject tlsCACerts = new JsonObject();
-//				tlsCACerts.addProperty("path", getPeerCertPath(o, p));
-				tlsCACerts.addProperty("pem", getPeerCertPem(o, p));
-				node.add("tlsCACerts", tlsCACerts);
-				root.add(name, node);
-			}
-		}
-		return root;
-	}
-
-	private JsonObject buildOrderers() throws NetworkBuilderException {
-		JsonObject node = new JsonObject();
-		List<String> allOrderers = new ArrayList<>(Arrays.asList(orderers));
-//		allOrderers.add(0, ordererOrg);
-		for (String org : allOrderers) {
-			JsonObject orgNode = new JsonObject();
-			orgNode.addProperty("url", "grpcs://" + getUrl(org, null) + ":7050");
-
-			JsonObject grpcOptions = new JsonObject();
-			grpcOptions.addProperty("grpc-max-send-message-length", 15);
-			grpcOptions.addProperty("grpc.keepalive_time_ms", 360000);
-			grpcOptions.addProperty("grpc.keepalive_timeout_ms", 180000);
-			grpcOptions.addProperty("hostnameOverride", org + "." + domain);
-			orgNode.add("grpcOptions", grpcOptions);
-
-			JsonObject tlsCACerts = new JsonObject();
-//			tlsCACerts.addProperty("path", getOrdererCertPath(org));
-			tlsCACerts.addProperty("pem", getOrdererCertPem(org));
-			orgNode.add("tlsCACerts", tlsCACerts);
-			node.add(org + "." + domain, orgNode);
-		}
-		return node;
-	}
-
-	private JsonObject buildOrganizations() throws NetworkBuilderException {
-		JsonObject node = new JsonObject();
-//		JsonObject ordererOrgNode = buildOrgNode(ordererOrg, 0);
-//		node.add(ordererOrg, ordererOrgNode);
-
-		for (String org : peerOrgs) {
-			JsonObject child = buildOrgNode(org, peers.length);
-			node.add(org, child);
-		}
-		return node;
-	}
-
-	private JsonObject buildOrgNode(String org, int numOfPeers) throws NetworkBuilderException {
-		JsonObject ordererOrgNode = new JsonObject();
-		ordererOrgNode.addProperty("mspid", org + "MSP");
-
-		JsonArray certificateAuthorities = new JsonArray();
-		certificateAuthorities.add("ca." + org + "." + domain);
-		ordererOrgNode.add("certificateAuthorities", certificateAuthorities);
-
-		JsonObject adminPrivateKey = new JsonObject();
-//		adminPrivateKey.addProperty("path", getAdminPrivateKeyPath(org));
-		adminPrivateKey.addProperty("pem", getAdminPrivateKeyPem(org));
-		ordererOrgNode.add("adminPrivateKey", adminPrivateKey);
-
-		JsonObject signedCert = new JsonObject();
-//		signedCert.addProperty("path", getAdminCertPath(org));
-		signedCert.addProperty("pem", getAdminCertPem(org));
-		ordererOrgNode.add("signedCert", signedCert);
-		if (numOfPeers > 0) {
-			JsonArray peers = new JsonArray();
-			for (int i = 0; i < numOfPeers; i++) {
-				peers.add("peer" + i + "." + org + "." + domain);
-			}
-			ordererOrgNode.add("peers", peers);
-		}
-		return ordererOrgNode;
+	/**
+	 * Compile the network once, and write the profiles of all clients
+	 * concurrently, in all the {@link #formats(ProfileFormat...) formats}.
+	 *
+	 * @see ProfileBatch#generateAll(CompiledTopology, List, File, Set, Executor)
+	 */
+	public List<File> generateAll(String[] clients, File outputDir, Executor executor)
+			throws NetworkBuilderException, IOException {
+		if (clients == null || clients.length == 0) {
+			throw new NetworkBuilderException("The clients are not specified.");
+		}
+		if (buildCache == null || prober != null) {
+			return generate(compile(), Arrays.asList(clients), outputDir, executor);
+		}
+		return buildCache.generate(this::compile, pemCache, Arrays.asList(clients),
+				outputDir, formats + " " + variantCount + " " + variants,
+				(topology, stale) -> generate(topology, stale, outputDir, executor));
 	}
 
-	private String getCaCertPem(String org) throws NetworkBuilderException {
-		File file = new File(root,
-				"peerOrganizations/" + org + "." + domain + "/ca/ca." + org + "." + domain + "-cert.pem");
-		try {
-			return new String(Files.readAllBytes(file.toPath()));
-		} catch (IOException e) {
-//			throw new NetworkBuilderException(e);
-			return null;
+	private List<File> generate(CompiledTopology topology, List<String> clients, File outputDir, Executor executor)
+			throws IOException {
+		if (variantCount > 0) {
+			return ProfileBatch.generateVariants(topology, clients, variants, variantCount, outputDir, formats,
+					executor, listener);
 		}
+		return ProfileBatch.generateAll(topology, clients, outputDir, formats, executor, listener);
 	}
 
-	private String getOrdererCertPem(String org) throws NetworkBuilderException {
-		File file = new File(root, "ordererOrganizations/" + domain + "/orderers/" + org + "." + domain
-				+ "/msp/tlscacerts/tlsca." + domain + "-cert.pem");
-		try {
-			return new String(Files.readAllBytes(file.toPath()));
-		} catch (IOException e) {
-			throw new NetworkBuilderException(e);
-		}
+	public List<File> generateAll(String[] clients, File outputDir) throws NetworkBuilderException, IOException {
+		return generateAll(clients, outputDir, ForkJoinPool.commonPool());
 	}
 
-	private String getPeerCertPem(String org, String peer) throws NetworkBuilderException {
-		File file = new File(root, "peerOrganizations/" + org + "." + domain + "/peers/" + peer + "." + org + "."
-				+ domain + "/msp/tlscacerts/tlsca." + org + "." + domain + "-cert.pem");
-		try {
-			return new String(Files.readAllBytes(file.toPath()));
-		} catch (IOException e) {
-			throw new NetworkBuilderException(e);
+	private JsonObject build(String clientOrg, PemCache pemCache) throws NetworkBuilderException {
+		TopologyEngine engine = engine(pemCache);
+		JsonObject profile = engine.build(clientOrg);
+		if (prober != null) {
+			long start = System.nanoTime();
+			latencyRoles.apply(profile, prober);
+			listener.phase(BuildListener.Phase.PROBE, System.nanoTime() - start);
 		}
+		return profile;
 	}
 
-	private File getAdminCertPath(String org) throws NetworkBuilderException {
-		File file = null;
-		if (org.equals(ordererOrg)) {
-			file = new File(root, "ordererOrganizations/" + domain + "/" + "users/Admin@" + domain
-					+ "/msp/admincerts/Admin@" + domain + "-cert.pem");
-
-		} else {
-			file = new File(root, "peerOrganizations/" + org + "." + domain + "/users/Admin@" + org + "." + domain
-					+ "/msp/admincerts/Admin@" + org + "." + domain + "-cert.pem");
-		}
-		if (!file.exists()) {
-			if (org.equals(ordererOrg)) {
-				file = new File(root, "ordererOrganizations/" + domain + "/" + "users/Admin@" + domain
-						+ "/msp/signcerts/Admin@" + domain + "-cert.pem");
-
-			} else {
-				file = new File(root, "peerOrganizations/" + org + "." + domain + "/users/Admin@" + org + "." + domain
-						+ "/msp/signcerts/Admin@" + org + "." + domain + "-cert.pem");
+	/**
+	 * Compile the model of the network, or the JSON tree if the roles are
+	 * assigned by the probed latencies.
+	 */
+	private CompiledTopology compile(PemCache pemCache) throws NetworkBuilderException {
+		if (prober != null) {
+			if (scope != null) {
+				throw new NetworkBuilderException("The probed profiles can not be scoped.");
 			}
+			return new CompiledTopology(build(null, pemCache));
 		}
-
-		return file;
+		TopologyEngine engine = engine(pemCache);
+		Profile profile = engine.model(null);
+		return new CompiledTopology(profile).scope(scope);
 	}
 
-	private String getAdminCertPem(String org) throws NetworkBuilderException {
-		File file = getAdminCertPath(org);
-		if (!file.exists()) {
-			return null;
+	private TopologyEngine engine(PemCache pemCache) throws NetworkBuilderException {
+		if (name == null) {
+			throw new NetworkBuilderException("The network name is not specified.");
 		}
-		try {
-			return new String(Files.readAllBytes(file.toPath()));
-		} catch (IOException e) {
-//			throw new NetworkBuilderException(e);
-			return null;
+		if (ordererOrg == null) {
+			throw new NetworkBuilderException("The network ordererOrg is not specified.");
 		}
-	}
 
-	private String getAdminPrivateKeyPem(String org) throws NetworkBuilderException {
-		File dir = null;
-		if (org.equals(ordererOrg)) {
-			dir = new File(root, "ordererOrganizations/" + domain + "/" + "users/Admin@" + domain + "/msp/keystore");
-		} else {
-			dir = new File(root,
-					"peerOrganizations/" + org + "." + domain + "/users/Admin@" + org + "." + domain + "/msp/keystore");
+		if (channels == null || channels.length == 0) {
+			throw new NetworkBuilderException("The network channels is not specified.");
 		}
 
-		if (!dir.exists()) {
-			return null;
-//			throw new NetworkBuilderException("Can not find private key for " + org);
+		if (peerOrgs == null || peerOrgs.length == 0) {
+			throw new NetworkBuilderException("The network peerOrgs is not specified.");
 		}
-		File[] listFiles = dir.listFiles();
-		if (listFiles.length == 0) {
-			return null;
+
+		if (peers == null || peers.length == 0) {
+			throw new NetworkBuilderException("The network peers is not specified.");
 		}
-		File keyFile = listFiles[0];
-		try {
-			return new String(Files.readAllBytes(keyFile.toPath()));
-		} catch (IOException e) {
-			throw new NetworkBuilderException(e);
+		if (orderers == null || orderers.length == 0) {
+			throw new NetworkBuilderException("The network orderers is not specified.");
 		}
-	}
-
-	private JsonObject buildChannels() {
-		JsonObject channelsNode = new JsonObject();
-
-		for (String channel : channels) {
-			JsonObject node = new JsonObject();
-			// orderers
-			JsonArray orderers = new JsonArray();
-//			orderers.add(ordererOrg + "." + domain);
-			for (String org : this.orderers) {
-				orderers.add(org + "." + domain);
-			}
-			node.add("orderers", orderers);
-
-			// peers
-			JsonObject peersNode = new JsonObject();
-			for (String org : peerOrgs) {
-				for (String peer : peers) {
-
-					JsonObject o = new JsonObject();
-					if (peer.equals("peer0")) {
-						o.addProperty("endorsingPeer", true);
-						o.addProperty("chaincodeQuery", true);
-						o.addProperty("ledgerQuery", true);
-						o.addProperty("eventSource", true);
-					} else {
-						o.addProperty("endorsingPeer", false);
-						o.addProperty("chaincodeQuery", true);
-						o.addProperty("ledgerQuery", true);
-						o.addProperty("eventSource", false);
-					}
-					peersNode.add(peer + "." + org + "." + domain, o);
-				}
 
-			}
-			node.add("peers", peersNode);
-
-			// policies
-			JsonObject policies = new JsonObject();
-			JsonObject queryChannelConfig = new JsonObject();
-			queryChannelConfig.addProperty("minResponses", 1);
-			queryChannelConfig.addProperty("maxTargets", 1);
-
-			JsonObject retryOpts = new JsonObject();
-			retryOpts.addProperty("attempts", 5);
-			retryOpts.addProperty("initialBackoff", "500ms");
-			retryOpts.addProperty("maxBackoff", "5s");
-			retryOpts.addProperty("backoffFactor", "2.0");
-			queryChannelConfig.add("retryOpts", retryOpts);
-			node.add("policies", policies);
-			channelsNode.add(channel, node);
+		if (root == null || !root.exists()) {
+			throw new NetworkBuilderException("The network root directory is not existed.");
 		}
-
-		return channelsNode;
-	}
-
-	private JsonObject buildClient() {
-		JsonObject client = new JsonObject();
-
-		JsonObject logging = new JsonObject();
-		logging.addProperty("level", "debug");
-		client.add("logging", logging);
-
-		JsonObject connection = new JsonObject();
-		JsonObject timeout = new JsonObject();
-		JsonObject peer = new JsonObject();
-		peer.addProperty("endorser", 30000);
-		peer.addProperty("eventHub", 30000);
-		peer.addProperty("eventReg", 30000);
-		timeout.add("peer", peer);
-		timeout.addProperty("orderer", 30000);
-
-		connection.add("timeout", timeout);
-		client.add("connection", connection);
-
-		client.addProperty("organization", clientOrg);
-
-		JsonObject credentialStore = new JsonObject();
-		credentialStore.addProperty("path", "tmp/hfc-kvs");
-
-		JsonObject cryptoStore = new JsonObject();
-		cryptoStore.addProperty("path", "tmp/hfc-cvs");
-		credentialStore.add("cryptoStore", cryptoStore);
-
-		credentialStore.addProperty("wallet", "bts");
-		client.add("credentialStore", credentialStore);
-		return client;
+		TopologyEngine engine = new TopologyEngine(new CryptogenLayout(domain, ordererOrg)).name(name)
+				.orgs(peerOrgs).peers(peers).orderers(orderers).channels(channels).endpoints(endpoints).root(root)
+				.pemCache(pemCache).cryptoIndex(crypto).credentialStore(true).roles(roles).tuning(tuning).listener(listener);
+		nodeTunings.forEach(engine::tuning);
+		engine.policies(policies);
+		channelPolicies.forEach(engine::policies);
+		members.forEach((channel, joined) -> joined.forEach((org, orgPeers) -> engine.members(channel, org, orgPeers)));
+		return engine;
 	}
 
 }
@@ -2,14 +2,10 @@ package org.ecsoya.fabric.builder;
 
 import java.io.File;
 import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 import org.hyperledger.fabric.sdk.NetworkConfig;
-import org.yaml.snakeyaml.Yaml;
-
-import com.google.gson.Gson;
-import com.google.gson.JsonObject;
 
 /**
  * 
@@ -20,69 +16,62 @@ import com.google.gson.JsonObject;
  */
 public class NetworkGenerator {
 
+	static final String[] CLIENTS = { "org1", "org2" };
+
+	static final File ROOT = new File("src/main/resources");
+
 	public static void main(String[] args) {
-		String domain = "example.com";
-		String[] clients = { "org1", "org2" };
+		try {
+			long start = System.nanoTime();
+			List<File> files = builder()
+					// Output formats: yaml, json, compact-json, yaml-anchors, json-references
+					// or both (yaml and json).
+					.formats(ProfileFormat.parse(args.length > 0 ? args[0] : "both"))
+					// gRPC tuning: default, high-throughput, low-latency or wan.
+					.tuning(GrpcTuning.valueOf(args.length > 1 ? args[1] : "default"))
 
-		for (int i = 0; i < clients.length; i++) {
-			try {
-				File root = new File("src/main/resources");
+					// Build once, and write connection-{client}.yml/json of all clients in parallel.
+					.generateAll(CLIENTS, new File(ROOT, "network"));
 
-				JsonObject json = new NetworkBuilder(domain).
-						// Name of fabric network.
-						name("example-fabric-network").
-						// Root organization name
-						clientOrg(clients[i])
-						// Order org
-						.ordererOrg("orderer")
-						// All orderers: order1, order2...
-						.orderers("orderer")
-						// All orgs: org1, org2...
-						.peerOrgs(clients)
-						// All peers: peer0, peer1...
-						.peers("peer0", "peer1")
-						// Channel name
-						.channels("common")
-						
-						// Root Directory of crypto files.
-						.root(new File(root, "crypto-config"))
-						
-						// IP address binding for peer of orgs, '*' means all peers of a org. 
-						.url("org1", "*", "192.168.0.1").url("org2", "*", "192.168.0.1")
-						.url("orderer", "*", "192.168.0.1")
-						
-						// Port binding for peer of orgs, '*' means all peers of a org. 
-						.port("org1", "peer0", 7051)
-						.port("org1", "peer1", 8051)
-						.port("org2", "peer0", 9051)
-						.port("org2", "peer1", 10051)
-						
-						// Build to JSON.
-						.build();
+			System.out.println("Generated " + files.size() + " profiles in "
+					+ TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms");
+		} catch (NetworkBuilderException e) {
+			e.printStackTrace();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
 
-				Gson gson = new Gson();
-				String value = gson.toJson(json);
+	/**
+	 * The example network, {@link NetworkTest} checks the profiles against it.
+	 */
+	static NetworkBuilder builder() {
+		String domain = "example.com";
+		return new NetworkBuilder(domain).
+				// Name of fabric network.
+				name("example-fabric-network")
+				// Order org
+				.ordererOrg("orderer")
+				// All orderers: order1, order2...
+				.orderers("orderer")
+				// All orgs: org1, org2...
+				.peerOrgs(CLIENTS)
+				// All peers: peer0, peer1...
+				.peers("peer0", "peer1")
+				// Channel name
+				.channels("common")
 
-				// Write the network config file to yml.
-				Yaml yaml = new Yaml();
-				Object map = yaml.load(value);
-				String yvalue = yaml.dump(map);
+				// Root Directory of crypto files.
+				.root(new File(ROOT, "crypto-config"))
 
-				// Output
-				File file = new File(root, "network/connection-" + clients[i] + ".yml");
-				if (!file.exists()) {
-					Files.write(file.toPath(), yvalue.getBytes(), StandardOpenOption.CREATE_NEW,
-							StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
-				} else {
-					Files.write(file.toPath(), yvalue.getBytes(), StandardOpenOption.TRUNCATE_EXISTING,
-							StandardOpenOption.WRITE);
-				}
+				// IP address binding for peer of orgs, '*' means all peers of a org. 
+				.url("org1", "*", "192.168.0.1").url("org2", "*", "192.168.0.1")
+				.url("orderer", "*", "192.168.0.1")
 
-			} catch (NetworkBuilderException e) {
-				e.printStackTrace();
-			} catch (IOException e) {
-				e.printStackTrace();
-			}
-		}
+				// Port binding for peer of orgs, '*' means all peers of a org. 
+				.port("org1", "peer0", 7051)
+				.port("org1", "peer1", 8051)
+				.port("org2", "peer0", 9051)
+				.port("org2", "peer1", 10051);
 	}
 }
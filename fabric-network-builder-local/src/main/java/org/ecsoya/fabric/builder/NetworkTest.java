@@ -1,26 +1,25 @@
 package org.ecsoya.fabric.builder;
 
 import java.io.File;
-import java.io.IOException;
-
-import org.hyperledger.fabric.sdk.NetworkConfig;
-import org.hyperledger.fabric.sdk.exception.InvalidArgumentException;
-import org.hyperledger.fabric.sdk.exception.NetworkConfigurationException;
 
+/**
+ * Load all the generated profiles with the SDK, and check them against the
+ * topology of {@link NetworkGenerator}, pass <code>--fail-fast</code> to stop
+ * at the first broken profile.
+ * 
+ * @author ecsoya
+ *
+ */
 public class NetworkTest {
 
-	public static void main(String[] args) {
-		File file = new File("src/main/resources/network/connection-org1.yml");
+	public static void main(String[] args) throws NetworkBuilderException, InterruptedException {
+		File directory = new File(NetworkGenerator.ROOT, "network");
 
-		try {
-			NetworkConfig network = NetworkConfig.fromYamlFile(file);
-			System.out.println(network);
-		} catch (InvalidArgumentException e) {
-			e.printStackTrace();
-		} catch (NetworkConfigurationException e) {
-			e.printStackTrace();
-		} catch (IOException e) {
-			e.printStackTrace();
+		ProfileValidator.Report report = new ProfileValidator().expect(NetworkGenerator.builder().compile())
+				.failFast(args.length > 0 && "--fail-fast".equals(args[0])).validate(directory);
+		System.out.println(report);
+		if (!report.isValid()) {
+			System.exit(1);
 		}
 	}
 
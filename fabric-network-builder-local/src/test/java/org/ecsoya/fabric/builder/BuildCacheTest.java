@@ -0,0 +1,142 @@
+package org.ecsoya.fabric.builder;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ *
+ * Generate the profiles of a copy of <code>crypto-config</code> through a
+ * {@link BuildCache}, and rotate the CA certificate of org1 between the
+ * generations.
+ *
+ * @author ecsoya
+ *
+ */
+public class BuildCacheTest {
+
+	private static final String CA_CERT = "peerOrganizations/org1.example.com/ca/ca.org1.example.com-cert.pem";
+
+	private static final String OTHER_CA_CERT = "peerOrganizations/org2.example.com/ca/ca.org2.example.com-cert.pem";
+
+	private static final String[] CLIENTS = { "org1", "org2" };
+
+	private Path temp;
+
+	private Path root;
+
+	private File output;
+
+	/**
+	 * The rendered profiles of the last generation, by their names.
+	 */
+	private final Set<String> rendered = Collections.newSetFromMap(new ConcurrentHashMap<>());
+
+	@Before
+	public void copy() throws IOException {
+		temp = Files.createTempDirectory("build-cache");
+		root = temp.resolve("crypto-config");
+		output = temp.resolve("profiles").toFile();
+		Path source = new File(getClass().getClassLoader().getResource("crypto-config").getFile()).toPath();
+		try (Stream<Path> files = Files.walk(source)) {
+			for (Path file : (Iterable<Path>) files::iterator) {
+				Path target = root.resolve(source.relativize(file).toString());
+				if (Files.isDirectory(file)) {
+					Files.createDirectories(target);
+				} else {
+					Files.copy(file, target);
+				}
+			}
+		}
+	}
+
+	@After
+	public void delete() throws IOException {
+		try (Stream<Path> files = Files.walk(temp)) {
+			files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+		}
+	}
+
+	private NetworkBuilder builder() throws IOException {
+		return new NetworkBuilder("example.com").name("test-network").ordererOrg("orderer").orderers("orderer")
+				.peerOrgs("org1", "org2").peers("peer0", "peer1").channels("mychannel").root(root.toFile())
+				.url("org1", "*", "localhost").url("org2", "*", "localhost").url("orderer", "*", "localhost")
+				.buildCache(BuildCache.load(temp.resolve("cache.json").toFile())).listener(new BuildListener() {
+
+					@Override
+					public void written(File file, long bytes, boolean changed) {
+						rendered.add(file.getName());
+					}
+				});
+	}
+
+	@Test
+	public void rotatedCertificateMakesEveryClientStale() throws Exception {
+		// The index is shared, the cache must not trust the attributes of its scan.
+		NetworkBuilder builder = builder().cryptoIndex(CryptoIndex.scan(root));
+		assertEquals(set("connection-org1.yml", "connection-org2.yml"), generate(builder));
+		assertEquals(set(), generate(builder));
+
+		rotate();
+		// Every unscoped profile holds the CA certificates of all the orgs.
+		assertEquals(set("connection-org1.yml", "connection-org2.yml"), generate(builder));
+		assertEquals(set(), generate(builder));
+	}
+
+	@Test
+	public void rotatedCertificateOnlyMakesItsScopedClientStale() throws Exception {
+		NetworkBuilder builder = builder().scope(new ClientScope());
+		assertEquals(set("connection-org1.yml", "connection-org2.yml"), generate(builder));
+
+		rotate();
+		// Only the client org keeps its CA in a scoped profile.
+		assertEquals(set("connection-org1.yml"), generate(builder));
+		assertEquals(set(), generate(builder));
+	}
+
+	@Test
+	public void cacheIsReloaded() throws Exception {
+		generate(builder());
+		assertEquals(set(), generate(builder()));
+
+		rotate();
+		assertEquals(set("connection-org1.yml", "connection-org2.yml"), generate(builder()));
+	}
+
+	private Set<String> generate(NetworkBuilder builder) throws Exception {
+		rendered.clear();
+		builder.generateAll(CLIENTS, output);
+		return new HashSet<>(rendered);
+	}
+
+	/**
+	 * Overwrite the CA certificate of org1 in place, a second later than it was
+	 * written.
+	 */
+	private void rotate() throws IOException {
+		Path file = root.resolve(CA_CERT);
+		FileTime modified = Files.getLastModifiedTime(file);
+		Files.copy(root.resolve(OTHER_CA_CERT), file, StandardCopyOption.REPLACE_EXISTING);
+		Files.setLastModifiedTime(file, FileTime.fromMillis(modified.toMillis() + 1000));
+	}
+
+	private static Set<String> set(String... values) {
+		return new HashSet<>(Arrays.asList(values));
+	}
+}
@@ -0,0 +1,193 @@
+package org.ecsoya.fabric.builder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Stream;
+
+import org.hyperledger.fabric.sdk.Channel;
+import org.hyperledger.fabric.sdk.HFClient;
+import org.hyperledger.fabric.sdk.NetworkConfig;
+import org.hyperledger.fabric.sdk.Orderer;
+import org.hyperledger.fabric.sdk.Peer;
+import org.hyperledger.fabric.sdk.Peer.PeerRole;
+import org.hyperledger.fabric.sdk.security.CryptoSuite;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.yaml.snakeyaml.Yaml;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+
+/**
+ *
+ * Generate the profiles of <code>crypto-config</code>, a cryptogen layout with
+ * real keys, and load them with the {@link NetworkConfig} of the SDK.
+ *
+ * The Java SDK only reads the orderers of a channel and its peers with their
+ * roles, the <code>policies</code> are written for the Node and Go SDKs, and
+ * must not change what the Java SDK loads.
+ *
+ * @author ecsoya
+ *
+ */
+public class ChannelPoliciesTest {
+
+	private static final String CHANNEL = "mychannel";
+
+	private static final Set<String> PEERS = set("peer0.org1.example.com", "peer1.org1.example.com",
+			"peer0.org2.example.com", "peer1.org2.example.com");
+
+	private static final Set<String> PEER0S = set("peer0.org1.example.com", "peer0.org2.example.com");
+
+	private static File output;
+
+	private static ChannelPolicies policies;
+
+	@BeforeClass
+	public static void generate() throws Exception {
+		output = Files.createTempDirectory("profiles").toFile();
+		policies = ChannelPolicies.defaults();
+		policies.discovery().maxTargets(2).retry(3, Duration.ofMillis(250), Duration.ofSeconds(2), 1.5).and()
+				.resolverStrategy("MinBlockHeight").balancer("RoundRobin").blockHeightLagThreshold(5)
+				.reconnectBlockHeightLagThreshold(10).peerMonitorPeriod(Duration.ofSeconds(5));
+		builder().policies(policies).generateAll(new String[] { "org1" }, new File(output, "policies"));
+		builder().policies(new ChannelPolicies()).generateAll(new String[] { "org1" }, new File(output, "none"));
+	}
+
+	@AfterClass
+	public static void delete() throws IOException {
+		try (Stream<Path> files = Files.walk(output.toPath())) {
+			files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+		}
+	}
+
+	private static NetworkBuilder builder() {
+		return new NetworkBuilder("example.com").name("test-network").ordererOrg("orderer").orderers("orderer")
+				.peerOrgs("org1", "org2").peers("peer0", "peer1").channels(CHANNEL)
+				.root(new File(ChannelPoliciesTest.class.getClassLoader().getResource("crypto-config").getFile()))
+				.url("org1", "*", "localhost").url("org2", "*", "localhost").url("orderer", "*", "localhost")
+				.port("org1", "peer1", 8051).port("org2", "peer0", 9051).port("org2", "peer1", 10051)
+				.formats(ProfileFormat.YAML, ProfileFormat.JSON);
+	}
+
+	@Test
+	public void policiesAreWritten() throws Exception {
+		for (String file : new String[] { "connection-org1.yml", "connection-org1.json" }) {
+			try (Reader in = Files.newBufferedReader(new File(output, "policies/" + file).toPath(),
+					StandardCharsets.UTF_8)) {
+				// YAML is a superset of JSON.
+				JsonObject profile = new Gson().toJsonTree(new Yaml().load(in)).getAsJsonObject();
+				JsonObject channel = profile.getAsJsonObject("channels").getAsJsonObject(CHANNEL);
+				assertEquals(file, policies.build(), channel.getAsJsonObject("policies"));
+			}
+		}
+	}
+
+	@Test
+	public void yamlIsLoaded() throws Exception {
+		assertLoaded(NetworkConfig.fromYamlFile(new File(output, "policies/connection-org1.yml")));
+	}
+
+	@Test
+	public void jsonIsLoaded() throws Exception {
+		assertLoaded(NetworkConfig.fromJsonFile(new File(output, "policies/connection-org1.json")));
+	}
+
+	@Test
+	public void policiesAreIgnoredByTheJavaSdk() throws Exception {
+		for (String file : new String[] { "connection-org1.yml", "connection-org1.json" }) {
+			Channel withPolicies = load(new File(output, "policies/" + file));
+			Channel withoutPolicies = load(new File(output, "none/" + file));
+			assertEquals(describe(withoutPolicies), describe(withPolicies));
+		}
+	}
+
+	private static void assertLoaded(NetworkConfig config) throws Exception {
+		assertEquals(set(CHANNEL), config.getChannelNames());
+		assertEquals(PEERS, config.getPeerNames());
+		assertEquals(set("orderer.example.com"), config.getOrdererNames());
+		NetworkConfig.OrgInfo client = config.getClientOrganization();
+		assertEquals("org1", client.getName());
+		assertEquals("org1MSP", client.getMspId());
+		assertEquals(Arrays.asList("peer0.org1.example.com", "peer1.org1.example.com"), client.getPeerNames());
+		assertNotNull(config.getPeerAdmin("org1"));
+
+		Channel channel = load(config);
+		assertEquals(set("grpcs://localhost:7050"), urls(channel.getOrderers()));
+		assertEquals(set("grpcs://localhost:7051", "grpcs://localhost:8051", "grpcs://localhost:9051",
+				"grpcs://localhost:10051"), peerUrls(channel.getPeers()));
+		assertEquals(PEER0S, names(channel.getPeers(EnumSet.of(PeerRole.ENDORSING_PEER))));
+		assertEquals(PEER0S, names(channel.getPeers(EnumSet.of(PeerRole.EVENT_SOURCE))));
+		assertEquals(PEERS, names(channel.getPeers(EnumSet.of(PeerRole.CHAINCODE_QUERY))));
+		assertEquals(PEERS, names(channel.getPeers(EnumSet.of(PeerRole.LEDGER_QUERY))));
+	}
+
+	private static Channel load(File file) throws Exception {
+		return load(file.getName().endsWith(".json") ? NetworkConfig.fromJsonFile(file)
+				: NetworkConfig.fromYamlFile(file));
+	}
+
+	private static Channel load(NetworkConfig config) throws Exception {
+		HFClient client = HFClient.createNewInstance();
+		client.setCryptoSuite(CryptoSuite.Factory.getCryptoSuite());
+		client.setUserContext(config.getPeerAdmin("org1"));
+		return client.loadChannelFromConfig(CHANNEL, config);
+	}
+
+	/**
+	 * The orderers, and the peers of every role.
+	 */
+	private static Map<String, Set<String>> describe(Channel channel) {
+		Map<String, Set<String>> description = new HashMap<>();
+		description.put("orderers", urls(channel.getOrderers()));
+		for (PeerRole role : PeerRole.values()) {
+			description.put(role.name(), names(channel.getPeers(EnumSet.of(role))));
+		}
+		return description;
+	}
+
+	private static Set<String> names(Collection<Peer> peers) {
+		Set<String> names = new HashSet<>();
+		for (Peer peer : peers) {
+			names.add(peer.getName());
+		}
+		return names;
+	}
+
+	private static Set<String> peerUrls(Collection<Peer> peers) {
+		Set<String> urls = new HashSet<>();
+		for (Peer peer : peers) {
+			urls.add(peer.getUrl());
+		}
+		return urls;
+	}
+
+	private static Set<String> urls(Collection<Orderer> orderers) {
+		Set<String> urls = new HashSet<>();
+		for (Orderer orderer : orderers) {
+			urls.add(orderer.getUrl());
+		}
+		return urls;
+	}
+
+	private static Set<String> set(String... values) {
+		return new HashSet<>(Arrays.asList(values));
+	}
+}
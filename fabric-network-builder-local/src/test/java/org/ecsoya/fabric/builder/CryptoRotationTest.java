@@ -0,0 +1,136 @@
+package org.ecsoya.fabric.builder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.gson.JsonObject;
+
+/**
+ *
+ * Rotate the crypto materials of a copy of <code>crypto-config</code> between
+ * two builds of the same builder.
+ *
+ * @author ecsoya
+ *
+ */
+public class CryptoRotationTest {
+
+	private static final String CA_CERT = "peerOrganizations/org1.example.com/ca/ca.org1.example.com-cert.pem";
+
+	private static final String KEYSTORE = "peerOrganizations/org1.example.com/users/Admin@org1.example.com/msp/keystore";
+
+	private static final String OTHER_CA_CERT = "peerOrganizations/org2.example.com/ca/ca.org2.example.com-cert.pem";
+
+	private static final String OTHER_KEY = "peerOrganizations/org2.example.com/users/Admin@org2.example.com/msp/keystore/admin_sk";
+
+	private Path root;
+
+	@Before
+	public void copy() throws IOException {
+		root = Files.createTempDirectory("crypto-config");
+		Path source = new File(getClass().getClassLoader().getResource("crypto-config").getFile()).toPath();
+		try (Stream<Path> files = Files.walk(source)) {
+			for (Path file : (Iterable<Path>) files::iterator) {
+				Path target = root.resolve(source.relativize(file).toString());
+				if (Files.isDirectory(file)) {
+					Files.createDirectories(target);
+				} else {
+					Files.copy(file, target);
+				}
+			}
+		}
+	}
+
+	@After
+	public void delete() throws IOException {
+		try (Stream<Path> files = Files.walk(root)) {
+			files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+		}
+	}
+
+	private NetworkBuilder builder() {
+		return new NetworkBuilder("example.com").name("test-network").ordererOrg("orderer").orderers("orderer")
+				.peerOrgs("org1", "org2").peers("peer0", "peer1").channels("mychannel").root(root.toFile())
+				.url("org1", "*", "localhost").url("org2", "*", "localhost").url("orderer", "*", "localhost");
+	}
+
+	@Test
+	public void rebuildReadsRotatedCrypto() throws Exception {
+		NetworkBuilder builder = builder();
+		JsonObject before = builder.compile().profile("org1");
+		assertEquals(read(CA_CERT), caCert(before));
+
+		rotate();
+		JsonObject after = builder.compile().profile("org1");
+		assertNotEquals(caCert(before), caCert(after));
+		assertEquals(read(CA_CERT), caCert(after));
+		assertEquals(read(KEYSTORE + "/rotated_sk"), adminKey(after));
+		assertEquals(builder().compile().profile("org1"), after);
+	}
+
+	@Test
+	public void sharedIndexReadsRotatedFiles() throws Exception {
+		NetworkBuilder builder = builder().cryptoIndex(CryptoIndex.scan(root));
+		String before = caCert(builder.compile().profile("org1"));
+
+		replace(CA_CERT, OTHER_CA_CERT);
+		assertNotEquals(before, caCert(builder.compile().profile("org1")));
+		assertEquals(read(CA_CERT), caCert(builder.compile().profile("org1")));
+
+		// The index does not know the new key, the deleted one is not read.
+		rotate();
+		try {
+			builder.compile();
+			fail("The deleted key was read.");
+		} catch (NetworkBuilderException e) {
+			// expected
+		}
+	}
+
+	/**
+	 * Replace the CA certificate of org1, and its admin key by a new file.
+	 */
+	private void rotate() throws IOException {
+		replace(CA_CERT, OTHER_CA_CERT);
+		Files.delete(root.resolve(KEYSTORE + "/admin_sk"));
+		Files.copy(root.resolve(OTHER_KEY), root.resolve(KEYSTORE + "/rotated_sk"));
+	}
+
+	/**
+	 * Overwrite a file in place, a second later than it was written.
+	 */
+	private void replace(String path, String by) throws IOException {
+		Path file = root.resolve(path);
+		FileTime modified = Files.getLastModifiedTime(file);
+		Files.copy(root.resolve(by), file, StandardCopyOption.REPLACE_EXISTING);
+		Files.setLastModifiedTime(file, FileTime.fromMillis(modified.toMillis() + 1000));
+	}
+
+	private String read(String path) throws IOException {
+		return new String(Files.readAllBytes(root.resolve(path)), "UTF-8");
+	}
+
+	private static String caCert(JsonObject profile) {
+		return profile.getAsJsonObject("certificateAuthorities").getAsJsonObject("ca.org1.example.com")
+				.getAsJsonObject("tlsCACerts").get("pem").getAsString();
+	}
+
+	private static String adminKey(JsonObject profile) {
+		return profile.getAsJsonObject("organizations").getAsJsonObject("org1").getAsJsonObject("adminPrivateKey")
+				.get("pem").getAsString();
+	}
+}
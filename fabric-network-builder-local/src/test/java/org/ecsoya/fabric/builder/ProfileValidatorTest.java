@@ -0,0 +1,139 @@
+package org.ecsoya.fabric.builder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.yaml.snakeyaml.Yaml;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+
+/**
+ *
+ * Validate the profiles of <code>crypto-config</code>, some of them broken
+ * after they were generated.
+ *
+ * @author ecsoya
+ *
+ */
+public class ProfileValidatorTest {
+
+	private static final String[] CLIENTS = { "org1", "org2" };
+
+	private File output;
+
+	private List<File> files;
+
+	@Before
+	public void generate() throws Exception {
+		output = Files.createTempDirectory("profiles").toFile();
+		files = builder("peer0", "peer1").generateAll(CLIENTS, output);
+		assertEquals(4, files.size());
+	}
+
+	@After
+	public void delete() throws IOException {
+		try (Stream<Path> paths = Files.walk(output.toPath())) {
+			paths.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+		}
+	}
+
+	private static NetworkBuilder builder(String... peers) {
+		return new NetworkBuilder("example.com").name("test-network").ordererOrg("orderer").orderers("orderer")
+				.peerOrgs("org1", "org2").peers(peers).channels("mychannel")
+				.root(new File(ProfileValidatorTest.class.getClassLoader().getResource("crypto-config").getFile()))
+				.url("org1", "*", "localhost").url("org2", "*", "localhost").url("orderer", "*", "localhost")
+				.formats(ProfileFormat.YAML, ProfileFormat.JSON);
+	}
+
+	@Test
+	public void generatedProfilesAreValid() throws Exception {
+		ProfileValidator.Report report = new ProfileValidator().expect(builder("peer0", "peer1").compile())
+				.validate(output);
+		assertTrue(report.toString(), report.isValid());
+		assertEquals(4, report.getResults().size());
+		for (ProfileValidator.Result result : report.getResults()) {
+			assertEquals(4, result.getPeers());
+			assertEquals(1, result.getOrderers());
+			assertEquals(2, result.getOrganizations());
+			assertEquals(1, result.getChannels());
+			assertEquals(2, result.getCertificateAuthorities());
+		}
+	}
+
+	@Test
+	public void brokenProfileIsReported() throws Exception {
+		File broken = new File(output, "connection-org2.json");
+		breakChannel(broken);
+
+		ProfileValidator.Report report = new ProfileValidator().validate(output);
+		assertFalse(report.isValid());
+		assertFalse(report.isAborted());
+		assertEquals(4, report.getResults().size());
+		assertEquals(1, report.getFailures().size());
+		ProfileValidator.Result failure = report.getFailures().get(0);
+		assertEquals(broken, failure.getFile());
+		assertTrue(failure.getProblems().toString(),
+				failure.getProblems().contains("Channel mychannel references unknown peer: peer9.org2.example.com"));
+	}
+
+	@Test
+	public void otherTopologyIsReported() throws Exception {
+		ProfileValidator.Report report = new ProfileValidator().expect(builder("peer0").compile()).validate(output);
+		assertEquals(4, report.getFailures().size());
+		for (ProfileValidator.Result failure : report.getFailures()) {
+			assertEquals(failure.getProblems().toString(), 1, failure.getProblems().size());
+			assertEquals("Expected 2 peers, loaded 4", failure.getProblems().get(0));
+		}
+	}
+
+	@Test
+	public void failFastStopsAtTheFirstBrokenProfile() throws Exception {
+		for (File file : files) {
+			breakChannel(file);
+		}
+
+		ProfileValidator.Report report = new ProfileValidator().threads(1).failFast(true).validate(files);
+		assertTrue(report.isAborted());
+		assertFalse(report.isValid());
+		assertEquals(1, report.getResults().size());
+		assertEquals(1, report.getFailures().size());
+
+		ProfileValidator.Report all = new ProfileValidator().threads(1).validate(files);
+		assertFalse(all.isAborted());
+		assertEquals(4, all.getFailures().size());
+	}
+
+	/**
+	 * Add a peer to the channel which the profile does not declare, the file is
+	 * rewritten as JSON, which is also YAML.
+	 */
+	private static void breakChannel(File file) throws IOException {
+		JsonObject profile;
+		try (Reader in = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+			profile = new Gson().toJsonTree(new Yaml().load(in)).getAsJsonObject();
+		}
+		JsonObject roles = new JsonObject();
+		roles.addProperty("endorsingPeer", true);
+		profile.getAsJsonObject("channels").getAsJsonObject("mychannel").getAsJsonObject("peers")
+				.add("peer9.org2.example.com", roles);
+		try (Writer out = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8)) {
+			new Gson().toJson(profile, out);
+		}
+	}
+}
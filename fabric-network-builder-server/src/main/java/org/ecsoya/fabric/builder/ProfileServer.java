@@ -0,0 +1,502 @@
+package org.ecsoya.fabric.builder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ *
+ * Serve the connection profiles of a network over HTTP, so the applications
+ * fetch their profiles at startup instead of shipping the files:
+ *
+ * <pre>
+ * GET /profiles/{client}          the first format, YAML by default
+ * GET /profiles/{client}.json     the profile in the format of the extension
+ * </pre>
+ *
+ * Without an extension, <code>Accept: application/json</code> selects JSON.
+ *
+ * The profiles of all the clients are rendered and gzip compressed once when
+ * the network is built, a request only copies the bytes. Every response has a
+ * strong <code>ETag</code> of its content, a request whose
+ * <code>If-None-Match</code> matches gets a <code>304</code> without a body.
+ *
+ * The network is built by the first request, and built again by the first
+ * request after {@link #invalidate()}. The requests meanwhile wait for the
+ * same build, so only one build runs at a time. If a rebuild fails, the
+ * profiles of the last build are served until the next invalidation.
+ *
+ * @author ecsoya
+ *
+ */
+public class ProfileServer {
+
+	private static final String PREFIX = "/profiles/";
+
+	/**
+	 * Builds the network, such as <code>builder::compile</code>. A builder
+	 * without a shared crypto index scans its root again for every build, so a
+	 * rebuild reads the rotated crypto materials.
+	 */
+	public interface Source {
+
+		CompiledTopology compile() throws NetworkBuilderException;
+	}
+
+	private final Source source;
+
+	private final List<String> clients;
+
+	private Set<ProfileFormat> formats = EnumSet.of(ProfileFormat.YAML, ProfileFormat.JSON);
+
+	private Executor executor = ForkJoinPool.commonPool();
+
+	private int threads = 4;
+
+	private HttpServer server;
+
+	private ExecutorService handlers;
+
+	private volatile Snapshot snapshot;
+
+	/**
+	 * Incremented by every invalidation.
+	 */
+	private final AtomicLong generation = new AtomicLong();
+
+	/**
+	 * The generation the snapshot is served for, the snapshot is stale once the
+	 * generation is incremented.
+	 */
+	private volatile long served = -1;
+
+	private CompletableFuture<Snapshot> building;
+
+	private final AtomicLong builds = new AtomicLong();
+
+	public ProfileServer(Source source, List<String> clients) {
+		this.source = source;
+		this.clients = Collections.unmodifiableList(new ArrayList<>(clients));
+	}
+
+	public ProfileServer(Source source, String... clients) {
+		this(source, Arrays.asList(clients));
+	}
+
+	/**
+	 * The formats to serve, YAML and JSON by default. The first one is served
+	 * without an extension.
+	 */
+	public ProfileServer formats(ProfileFormat... formats) {
+		Set<ProfileFormat> result = new LinkedHashSet<>(Arrays.asList(formats));
+		ProfileFormat.check(result);
+		this.formats = result;
+		return this;
+	}
+
+	/**
+	 * The executor to render the profiles of the clients in parallel, the common
+	 * fork-join pool by default.
+	 */
+	public ProfileServer executor(Executor executor) {
+		this.executor = executor == null ? ForkJoinPool.commonPool() : executor;
+		return this;
+	}
+
+	/**
+	 * The threads to handle the requests, 4 by default.
+	 */
+	public ProfileServer threads(int threads) {
+		this.threads = threads;
+		return this;
+	}
+
+	/**
+	 * Start serving on the address, the port 0 picks a free port.
+	 *
+	 * @see #getPort()
+	 */
+	public synchronized ProfileServer start(InetSocketAddress address) throws IOException {
+		if (server != null) {
+			throw new IllegalStateException("The server is started.");
+		}
+		HttpServer server = HttpServer.create(address, 0);
+		server.createContext(PREFIX, this::handle);
+		handlers = Executors.newFixedThreadPool(threads, runnable -> {
+			Thread thread = new Thread(runnable, "profile-server");
+			thread.setDaemon(true);
+			return thread;
+		});
+		server.setExecutor(handlers);
+		server.start();
+		this.server = server;
+		return this;
+	}
+
+	/**
+	 * Stop serving, the running exchanges are given a second to finish.
+	 */
+	public synchronized void stop() {
+		if (server != null) {
+			server.stop(1);
+			handlers.shutdownNow();
+			server = null;
+		}
+	}
+
+	public synchronized int getPort() {
+		if (server == null) {
+			throw new IllegalStateException("The server is not started.");
+		}
+		return server.getAddress().getPort();
+	}
+
+	/**
+	 * Build the network again for the next request, for example after the
+	 * crypto materials were rotated.
+	 */
+	public void invalidate() {
+		generation.incrementAndGet();
+	}
+
+	/**
+	 * Build the network now, or wait for the running build.
+	 */
+	public void refresh() throws NetworkBuilderException, IOException {
+		invalidate();
+		current();
+	}
+
+	/**
+	 * The number of the builds, for the monitoring.
+	 */
+	public long getBuilds() {
+		return builds.get();
+	}
+
+	private Snapshot current() throws NetworkBuilderException, IOException {
+		Snapshot current = snapshot;
+		if (current != null && served == generation.get()) {
+			return current;
+		}
+		CompletableFuture<Snapshot> running;
+		CompletableFuture<Snapshot> mine = new CompletableFuture<>();
+		synchronized (this) {
+			running = building;
+			if (running == null) {
+				building = mine;
+			}
+		}
+		if (running != null) {
+			return await(running);
+		}
+		// Read before the build, an invalidation meanwhile builds again.
+		long target = generation.get();
+		try {
+			Snapshot built = build();
+			snapshot = built;
+			served = target;
+			mine.complete(built);
+			return built;
+		} catch (Throwable e) {
+			// Keep serving the last build until the next invalidation.
+			if (snapshot != null) {
+				served = target;
+			}
+			// Even an error, such as a missing SDK class, must release the waiting
+			// requests.
+			mine.completeExceptionally(e);
+			throw e;
+		} finally {
+			synchronized (this) {
+				building = null;
+			}
+		}
+	}
+
+	private static Snapshot await(CompletableFuture<Snapshot> running) throws NetworkBuilderException, IOException {
+		try {
+			return running.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException(e);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof NetworkBuilderException) {
+				throw (NetworkBuilderException) cause;
+			}
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
+			}
+			throw new IOException(cause);
+		}
+	}
+
+	private Snapshot build() throws NetworkBuilderException, IOException {
+		builds.incrementAndGet();
+		CompiledTopology topology = source.compile();
+		Map<String, CompletableFuture<Map<String, Response>>> futures = new LinkedHashMap<>();
+		for (String client : clients) {
+			futures.put(client, CompletableFuture.supplyAsync(() -> render(topology, client), executor));
+		}
+		Map<String, Map<String, Response>> responses = new HashMap<>();
+		try {
+			for (Map.Entry<String, CompletableFuture<Map<String, Response>>> future : futures.entrySet()) {
+				responses.put(future.getKey(), future.getValue().join());
+			}
+		} catch (CompletionException e) {
+			Throwable cause = e.getCause();
+			throw cause instanceof UncheckedIOException ? ((UncheckedIOException) cause).getCause()
+					: new IOException(cause);
+		}
+		return new Snapshot(responses);
+	}
+
+	/**
+	 * @return the responses of the client by the file extensions, the first
+	 *         format is also the response without an extension.
+	 */
+	private Map<String, Response> render(CompiledTopology topology, String client) {
+		Map<String, Response> responses = new HashMap<>();
+		for (ProfileFormat format : formats) {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream(16384);
+			try {
+				Writer out = new OutputStreamWriter(bytes, StandardCharsets.UTF_8);
+				ProfileWriter writer = format.newWriter(out);
+				topology.write(client, writer);
+				writer.flush();
+				out.flush();
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			Response response = new Response(format, bytes.toByteArray());
+			responses.putIfAbsent("", response);
+			responses.put(format.getExtension(), response);
+		}
+		return responses;
+	}
+
+	private void handle(HttpExchange exchange) throws IOException {
+		try {
+			String method = exchange.getRequestMethod();
+			if (!"GET".equals(method) && !"HEAD".equals(method)) {
+				exchange.getResponseHeaders().set("Allow", "GET, HEAD");
+				send(exchange, 405, null);
+				return;
+			}
+			String name = exchange.getRequestURI().getPath().substring(PREFIX.length());
+			Snapshot current;
+			try {
+				current = current();
+			} catch (NetworkBuilderException | IOException | RuntimeException e) {
+				current = snapshot;
+				if (current == null) {
+					send(exchange, 503, "Unable to build the network: " + e.getMessage());
+					return;
+				}
+			}
+			Response response = current.find(name, exchange.getRequestHeaders());
+			if (response == null) {
+				send(exchange, 404, "Unknown profile: " + name);
+				return;
+			}
+			response.send(exchange, "HEAD".equals(method));
+		} finally {
+			exchange.close();
+		}
+	}
+
+	private static void send(HttpExchange exchange, int status, String message) throws IOException {
+		byte[] body = message == null ? new byte[0] : message.getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+		exchange.sendResponseHeaders(status, body.length == 0 ? -1 : body.length);
+		if (body.length > 0) {
+			try (OutputStream out = exchange.getResponseBody()) {
+				out.write(body);
+			}
+		}
+	}
+
+	/**
+	 * The rendered profiles of a build.
+	 */
+	private static class Snapshot {
+
+		private final Map<String, Map<String, Response>> responses;
+
+		Snapshot(Map<String, Map<String, Response>> responses) {
+			this.responses = responses;
+		}
+
+		Response find(String name, Headers headers) {
+			Map<String, Response> client = responses.get(name);
+			if (client != null) {
+				String accept = headers.getFirst("Accept");
+				if (accept != null && accept.contains("application/json") && client.containsKey("json")) {
+					return client.get("json");
+				}
+				return client.get("");
+			}
+			int dot = name.lastIndexOf('.');
+			if (dot > 0) {
+				client = responses.get(name.substring(0, dot));
+				if (client != null) {
+					return client.get(name.substring(dot + 1));
+				}
+			}
+			return null;
+		}
+	}
+
+	/**
+	 * A rendered profile, with its compressed content and entity tags.
+	 */
+	private static class Response {
+
+		private final String contentType;
+
+		private final byte[] identity;
+
+		private final byte[] gzip;
+
+		private final String etag;
+
+		private final String gzipEtag;
+
+		Response(ProfileFormat format, byte[] identity) {
+			this.contentType = "yml".equals(format.getExtension()) ? "application/x-yaml; charset=utf-8"
+					: "application/json; charset=utf-8";
+			this.identity = identity;
+			this.gzip = gzip(identity);
+			String hash = sha256(identity);
+			this.etag = "\"" + hash + "\"";
+			// Another representation needs another strong tag.
+			this.gzipEtag = "\"" + hash + "-gzip\"";
+		}
+
+		void send(HttpExchange exchange, boolean head) throws IOException {
+			Headers request = exchange.getRequestHeaders();
+			boolean compressed = acceptsGzip(request.getFirst("Accept-Encoding"));
+			String tag = compressed ? gzipEtag : etag;
+			Headers headers = exchange.getResponseHeaders();
+			headers.set("ETag", tag);
+			headers.set("Cache-Control", "no-cache");
+			headers.set("Vary", "Accept, Accept-Encoding");
+			if (matches(request.get("If-None-Match"), tag)) {
+				exchange.sendResponseHeaders(304, -1);
+				return;
+			}
+			byte[] body = compressed ? gzip : identity;
+			headers.set("Content-Type", contentType);
+			if (compressed) {
+				headers.set("Content-Encoding", "gzip");
+			}
+			if (head) {
+				headers.set("Content-Length", Integer.toString(body.length));
+				exchange.sendResponseHeaders(200, -1);
+				return;
+			}
+			exchange.sendResponseHeaders(200, body.length);
+			try (OutputStream out = exchange.getResponseBody()) {
+				out.write(body);
+			}
+		}
+
+		private static boolean matches(List<String> ifNoneMatch, String tag) {
+			if (ifNoneMatch == null) {
+				return false;
+			}
+			for (String header : ifNoneMatch) {
+				for (String candidate : header.split(",")) {
+					String value = candidate.trim();
+					// The weak comparison of RFC 7232 for If-None-Match.
+					if (value.startsWith("W/")) {
+						value = value.substring(2);
+					}
+					if ("*".equals(value) || tag.equals(value)) {
+						return true;
+					}
+				}
+			}
+			return false;
+		}
+
+		private static boolean acceptsGzip(String acceptEncoding) {
+			if (acceptEncoding == null) {
+				return false;
+			}
+			for (String coding : acceptEncoding.split(",")) {
+				String[] parts = coding.trim().split(";");
+				if ("gzip".equalsIgnoreCase(parts[0].trim())) {
+					for (int i = 1; i < parts.length; i++) {
+						String parameter = parts[i].trim().replace(" ", "");
+						if (parameter.matches("q=0(\\.0*)?")) {
+							return false;
+						}
+					}
+					return true;
+				}
+			}
+			return false;
+		}
+
+		private static byte[] gzip(byte[] bytes) {
+			ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length / 4 + 64);
+			try (GZIPOutputStream gzip = new GZIPOutputStream(out, 8192) {
+				{
+					// Compressed once, served many times.
+					def.setLevel(Deflater.BEST_COMPRESSION);
+				}
+			}) {
+				gzip.write(bytes);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			return out.toByteArray();
+		}
+
+		private static String sha256(byte[] bytes) {
+			try {
+				byte[] digest = MessageDigest.getInstance("SHA-256").digest(bytes);
+				StringBuilder hex = new StringBuilder(digest.length * 2);
+				for (byte b : digest) {
+					hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+				}
+				return hex.toString();
+			} catch (NoSuchAlgorithmException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+	}
+}
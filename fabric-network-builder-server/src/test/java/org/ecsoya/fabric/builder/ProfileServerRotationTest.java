@@ -0,0 +1,113 @@
+package org.ecsoya.fabric.builder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+
+/**
+ *
+ * Serve the profiles of a {@link NetworkBuilder} over a copy of
+ * <code>crypto-config</code>, and rotate the CA certificate of the org.
+ *
+ * @author ecsoya
+ *
+ */
+public class ProfileServerRotationTest {
+
+	private static final String CA_CERT = "peerOrganizations/org1.example.com/ca/ca.org1.example.com-cert.pem";
+
+	private Path root;
+
+	private ProfileServer server;
+
+	@Before
+	public void start() throws IOException {
+		root = Files.createTempDirectory("crypto-config");
+		Path source = resource("crypto-config");
+		try (Stream<Path> files = Files.walk(source)) {
+			for (Path file : (Iterable<Path>) files::iterator) {
+				Path target = root.resolve(source.relativize(file).toString());
+				if (Files.isDirectory(file)) {
+					Files.createDirectories(target);
+				} else {
+					Files.copy(file, target);
+				}
+			}
+		}
+		NetworkBuilder builder = new NetworkBuilder("example.com").name("test-network").ordererOrg("orderer")
+				.orderers("orderer").peerOrgs("org1").peers("peer0").channels("mychannel").root(root.toFile())
+				.url("org1", "*", "localhost").url("orderer", "*", "localhost");
+		server = new ProfileServer(builder::compile, "org1")
+				.start(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+	}
+
+	@After
+	public void stop() throws IOException {
+		server.stop();
+		try (Stream<Path> files = Files.walk(root)) {
+			files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+		}
+	}
+
+	@Test
+	public void invalidateServesRotatedCertificate() throws Exception {
+		HttpURLConnection before = get();
+		assertEquals(200, before.getResponseCode());
+		assertEquals(read(root.resolve(CA_CERT)), caCert(before));
+
+		Path cert = root.resolve(CA_CERT);
+		FileTime modified = Files.getLastModifiedTime(cert);
+		Files.copy(resource("rotated-ca-cert.pem"), cert, StandardCopyOption.REPLACE_EXISTING);
+		Files.setLastModifiedTime(cert, FileTime.fromMillis(modified.toMillis() + 1000));
+		server.invalidate();
+
+		HttpURLConnection after = get();
+		assertEquals(200, after.getResponseCode());
+		assertNotEquals(before.getHeaderField("ETag"), after.getHeaderField("ETag"));
+		assertEquals(read(resource("rotated-ca-cert.pem")), caCert(after));
+		assertEquals(2, server.getBuilds());
+	}
+
+	private HttpURLConnection get() throws IOException {
+		return (HttpURLConnection) new URL("http://127.0.0.1:" + server.getPort() + "/profiles/org1.json")
+				.openConnection();
+	}
+
+	private static String caCert(HttpURLConnection connection) throws IOException {
+		try (Reader in = new InputStreamReader(connection.getInputStream(), StandardCharsets.UTF_8)) {
+			JsonObject profile = new Gson().fromJson(in, JsonObject.class);
+			return profile.getAsJsonObject("certificateAuthorities").getAsJsonObject("ca.org1.example.com")
+					.getAsJsonObject("tlsCACerts").get("pem").getAsString();
+		}
+	}
+
+	private static String read(Path file) throws IOException {
+		return new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+	}
+
+	private static Path resource(String name) {
+		return new File(ProfileServerRotationTest.class.getClassLoader().getResource(name).getFile()).toPath();
+	}
+}
@@ -0,0 +1,283 @@
+package org.ecsoya.fabric.builder;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.gson.JsonObject;
+
+/**
+ *
+ * Fetch the profiles from a server on a free port of <code>localhost</code>,
+ * the network is a small profile built by the test.
+ *
+ * @author ecsoya
+ *
+ */
+public class ProfileServerTest {
+
+	private static final int REQUESTS = 8;
+
+	private final AtomicInteger compiled = new AtomicInteger();
+
+	private volatile ProfileServer.Source source = () -> topology("network-" + compiled.incrementAndGet());
+
+	private ProfileServer server;
+
+	@Before
+	public void start() throws IOException {
+		server = new ProfileServer(() -> source.compile(), "org1", "org2").threads(REQUESTS)
+				.start(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+	}
+
+	@After
+	public void stop() {
+		server.stop();
+	}
+
+	@Test
+	public void profileIsServed() throws Exception {
+		HttpURLConnection yaml = get("org1");
+		assertEquals(200, yaml.getResponseCode());
+		assertEquals("application/x-yaml; charset=utf-8", yaml.getContentType());
+		assertNotNull(yaml.getHeaderField("ETag"));
+		assertTrue(body(yaml).contains("organization: org1"));
+
+		HttpURLConnection json = get("org2.json");
+		assertEquals(200, json.getResponseCode());
+		assertEquals("application/json; charset=utf-8", json.getContentType());
+		assertTrue(body(json).contains("\"organization\": \"org2\""));
+
+		HttpURLConnection accepted = get("org2", "Accept", "application/json");
+		assertEquals("application/json; charset=utf-8", accepted.getContentType());
+
+		assertEquals(404, get("org3").getResponseCode());
+		assertEquals(1, server.getBuilds());
+	}
+
+	@Test
+	public void matchingEtagIsNotModified() throws Exception {
+		String etag = get("org1").getHeaderField("ETag");
+
+		HttpURLConnection notModified = get("org1", "If-None-Match", etag);
+		assertEquals(304, notModified.getResponseCode());
+		assertEquals(etag, notModified.getHeaderField("ETag"));
+		assertEquals(0, read(notModified).length);
+
+		assertEquals(304, get("org1", "If-None-Match", "\"other\", W/" + etag).getResponseCode());
+		assertEquals(200, get("org1", "If-None-Match", "\"other\"").getResponseCode());
+		// The JSON profile is another entity.
+		assertEquals(200, get("org1.json", "If-None-Match", etag).getResponseCode());
+	}
+
+	@Test
+	public void gzipHasItsOwnEtag() throws Exception {
+		HttpURLConnection identity = get("org1");
+		byte[] content = read(identity);
+		String etag = identity.getHeaderField("ETag");
+
+		HttpURLConnection gzip = get("org1", "Accept-Encoding", "gzip");
+		assertEquals(200, gzip.getResponseCode());
+		assertEquals("gzip", gzip.getHeaderField("Content-Encoding"));
+		String gzipEtag = gzip.getHeaderField("ETag");
+		assertNotEquals(etag, gzipEtag);
+		assertArrayEquals(content, read(new GZIPInputStream(new ByteArrayInputStream(read(gzip)))));
+
+		assertEquals(304, get("org1", "Accept-Encoding", "gzip", "If-None-Match", gzipEtag).getResponseCode());
+		// The tag of the uncompressed content does not match the compressed one.
+		assertEquals(200, get("org1", "Accept-Encoding", "gzip", "If-None-Match", etag).getResponseCode());
+		assertEquals(200, get("org1", "Accept-Encoding", "gzip;q=0", "If-None-Match", gzipEtag).getResponseCode());
+	}
+
+	@Test
+	public void concurrentRequestsShareOneBuild() throws Exception {
+		String before = get("org1").getHeaderField("ETag");
+		assertEquals(1, server.getBuilds());
+
+		CountDownLatch entered = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		ProfileServer.Source built = source;
+		source = () -> {
+			entered.countDown();
+			try {
+				release.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			return built.compile();
+		};
+		server.invalidate();
+
+		ExecutorService clients = Executors.newFixedThreadPool(REQUESTS);
+		try {
+			List<Future<HttpURLConnection>> responses = new ArrayList<>();
+			for (int i = 0; i < REQUESTS; i++) {
+				responses.add(clients.submit(() -> {
+					HttpURLConnection connection = get("org1");
+					connection.getResponseCode();
+					return connection;
+				}));
+			}
+			assertTrue(entered.await(10, TimeUnit.SECONDS));
+			// Let the other requests arrive while the build is running.
+			Thread.sleep(200);
+			release.countDown();
+
+			String after = null;
+			for (Future<HttpURLConnection> response : responses) {
+				HttpURLConnection connection = response.get(10, TimeUnit.SECONDS);
+				assertEquals(200, connection.getResponseCode());
+				if (after == null) {
+					after = connection.getHeaderField("ETag");
+				}
+				assertEquals(after, connection.getHeaderField("ETag"));
+			}
+			assertNotEquals(before, after);
+		} finally {
+			clients.shutdownNow();
+		}
+		assertEquals(2, server.getBuilds());
+		assertEquals(2, compiled.get());
+	}
+
+	@Test
+	public void failedBuildIsUnavailable() throws Exception {
+		source = () -> {
+			throw new IllegalStateException("broken crypto");
+		};
+		HttpURLConnection unchecked = get("org1");
+		assertEquals(503, unchecked.getResponseCode());
+		assertTrue(body(unchecked).contains("broken crypto"));
+
+		source = () -> {
+			throw new NetworkBuilderException("missing crypto");
+		};
+		assertEquals(503, get("org1").getResponseCode());
+	}
+
+	@Test
+	public void errorReleasesTheWaitingRequests() throws Exception {
+		CountDownLatch entered = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		source = () -> {
+			entered.countDown();
+			try {
+				release.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			throw new NoClassDefFoundError("org/hyperledger/fabric/sdk/NetworkConfig");
+		};
+
+		ExecutorService clients = Executors.newFixedThreadPool(REQUESTS);
+		try {
+			List<Future<Integer>> responses = new ArrayList<>();
+			for (int i = 0; i < REQUESTS; i++) {
+				responses.add(clients.submit(() -> {
+					try {
+						return get("org1").getResponseCode();
+					} catch (IOException e) {
+						// The request of the failed build is closed without a response.
+						return -1;
+					}
+				}));
+			}
+			assertTrue(entered.await(10, TimeUnit.SECONDS));
+			Thread.sleep(200);
+			release.countDown();
+
+			int unavailable = 0;
+			for (Future<Integer> response : responses) {
+				if (response.get(10, TimeUnit.SECONDS) == 503) {
+					unavailable++;
+				}
+			}
+			assertTrue(unavailable >= REQUESTS - 1);
+		} finally {
+			clients.shutdownNow();
+		}
+
+		source = () -> topology("recovered");
+		assertEquals(200, get("org1").getResponseCode());
+	}
+
+	@Test
+	public void failedRebuildServesTheLastBuild() throws Exception {
+		String etag = get("org1").getHeaderField("ETag");
+		source = () -> {
+			throw new IllegalStateException("broken crypto");
+		};
+		server.invalidate();
+
+		HttpURLConnection last = get("org1");
+		assertEquals(200, last.getResponseCode());
+		assertEquals(etag, last.getHeaderField("ETag"));
+		assertEquals(2, server.getBuilds());
+	}
+
+	private static CompiledTopology topology(String name) {
+		JsonObject profile = new JsonObject();
+		profile.addProperty("name", name);
+		profile.addProperty("version", "1.0.0");
+		profile.add("client", new JsonObject());
+		return new CompiledTopology(profile);
+	}
+
+	/**
+	 * @param headers the names and values of the request headers.
+	 */
+	private HttpURLConnection get(String profile, String... headers) throws IOException {
+		HttpURLConnection connection = (HttpURLConnection) new URL(
+				"http://127.0.0.1:" + server.getPort() + "/profiles/" + profile).openConnection();
+		for (int i = 0; i < headers.length; i += 2) {
+			connection.setRequestProperty(headers[i], headers[i + 1]);
+		}
+		return connection;
+	}
+
+	private static String body(HttpURLConnection connection) throws IOException {
+		return new String(read(connection), StandardCharsets.UTF_8);
+	}
+
+	private static byte[] read(HttpURLConnection connection) throws IOException {
+		InputStream in = connection.getResponseCode() < 400 ? connection.getInputStream()
+				: connection.getErrorStream();
+		return in == null ? new byte[0] : read(in);
+	}
+
+	private static byte[] read(InputStream in) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try (InputStream input = in) {
+			byte[] buffer = new byte[8192];
+			for (int n; (n = input.read(buffer)) > 0;) {
+				out.write(buffer, 0, n);
+			}
+		}
+		return out.toByteArray();
+	}
+}